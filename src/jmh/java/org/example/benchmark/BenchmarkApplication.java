@@ -0,0 +1,82 @@
+package org.example.benchmark;
+
+import org.example.ReliableChatApplication;
+import org.example.entity.Message;
+import org.example.service.ChatService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Starts the full application for benchmarks that need repositories, the write-behind queue or the handler
+public final class BenchmarkApplication {
+
+    // Stays below chat.persistence.queue-capacity so seeding never hits server_busy backpressure
+    private static final int SEED_CHUNK = 5000;
+
+    private BenchmarkApplication() {
+    }
+
+    // The properties go in as command-line arguments: default properties would lose to application.properties
+    public static ConfigurableApplicationContext start(String... extraProperties) {
+        Stream<String> properties = Stream.concat(Stream.of(
+                "server.port=0",
+                // A fresh database per trial, every @Param combination starts from an empty schema
+                "spring.datasource.url=jdbc:h2:mem:bench-" + UUID.randomUUID(),
+                "spring.jpa.show-sql=false",
+                "logging.level.root=WARN",
+                // Stub sessions never push back, so only memory bounds their outbound queues
+                "chat.outbound.buffer-size-limit=268435456"), Stream.of(extraProperties));
+        return new SpringApplicationBuilder(ReliableChatApplication.class)
+                .run(properties.map(property -> "--" + property).toArray(String[]::new));
+    }
+
+    // Properties selecting a storage engine, with a log directory of its own for the log engine
+    public static String[] storageProperties(String engine, Path logDirectory) {
+        return new String[]{"chat.storage.engine=" + engine, "chat.storage.log.dir=" + logDirectory};
+    }
+
+    public static Path createTempDirectory(String prefix) {
+        try {
+            return Files.createTempDirectory(prefix);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void deleteRecursively(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (var files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Saves messages through the write-behind queue and waits until all of them have committed
+    public static void persistAll(ChatService chatService, List<Message> messages) throws InterruptedException {
+        for (int from = 0; from < messages.size(); from += SEED_CHUNK) {
+            List<Message> chunk = messages.subList(from, Math.min(from + SEED_CHUNK, messages.size()));
+            CountDownLatch persisted = new CountDownLatch(chunk.size());
+            for (Message message : chunk) {
+                chatService.saveMessage(message, saved -> persisted.countDown(), failure -> persisted.countDown());
+            }
+            if (!persisted.await(2, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Seeding did not finish, " + persisted.getCount() + " messages left");
+            }
+        }
+    }
+}
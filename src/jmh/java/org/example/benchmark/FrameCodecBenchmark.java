@@ -0,0 +1,143 @@
+package org.example.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.example.protocol.FrameCodec;
+import org.example.protocol.InboundFrame;
+import org.example.protocol.OutboundFrame;
+import org.example.protocol.PreparedFrame;
+import org.example.protocol.WireEncoding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Inbound parsing and outbound serialization of single frames, JSON and CBOR, against the previous
+// Map-based ObjectMapper code as a baseline
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrameCodecBenchmark {
+
+    private ObjectMapper objectMapper;
+    private FrameCodec frameCodec;
+
+    private TextMessage inboundJson;
+    private BinaryMessage inboundCbor;
+    private OutboundFrame.ChatMessage chatMessage;
+    private OutboundFrame.MessageBatch messageBatch;
+
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        frameCodec = new FrameCodec(objectMapper, 1000);
+
+        String chat = "{\"type\":\"chat\",\"recipient\":\"bob\",\"content\":\"Hello Bob, are you around later today?\"}";
+        inboundJson = new TextMessage(chat);
+        inboundCbor = new BinaryMessage(new ObjectMapper(new CBORFactory())
+                .writeValueAsBytes(objectMapper.readTree(chat)));
+
+        String timestamp = LocalDateTime.now().toString();
+        chatMessage = new OutboundFrame.ChatMessage(123456L, "alice", "Hello Bob, are you around later today?", timestamp);
+        List<OutboundFrame.BatchEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            entries.add(new OutboundFrame.BatchEntry(100000L + i, "alice", "Backlog message number " + i, timestamp));
+        }
+        messageBatch = new OutboundFrame.MessageBatch(entries);
+        checkSharedCborFrame();
+    }
+
+    // One prepared CBOR frame sent to two sessions must reach both whole, as in a presence or room fan-out
+    private void checkSharedCborFrame() throws Exception {
+        PreparedFrame prepared = frameCodec.prepare(chatMessage);
+        int size = prepared.encoded(WireEncoding.CBOR).getPayloadLength();
+        StubWebSocketSession first = new StubWebSocketSession();
+        StubWebSocketSession second = new StubWebSocketSession();
+        first.sendMessage(prepared.encoded(WireEncoding.CBOR));
+        second.sendMessage(prepared.encoded(WireEncoding.CBOR));
+        if (size == 0 || first.getLastBinaryPayload().length != size
+                || !Arrays.equals(first.getLastBinaryPayload(), second.getLastBinaryPayload())) {
+            throw new IllegalStateException("A shared CBOR frame reached the second session incomplete");
+        }
+    }
+
+    @Benchmark
+    public InboundFrame decodeJson() throws Exception {
+        return frameCodec.decode(inboundJson);
+    }
+
+    @Benchmark
+    public InboundFrame decodeCbor() throws Exception {
+        return frameCodec.decode(inboundCbor);
+    }
+
+    @Benchmark
+    public Map<String, Object> decodeJsonAsMap() throws Exception {
+        return objectMapper.readValue(inboundJson.getPayload(), new TypeReference<>() {});
+    }
+
+    @Benchmark
+    public WebSocketMessage<?> encodeJson() {
+        return frameCodec.prepare(chatMessage).encoded(WireEncoding.JSON);
+    }
+
+    @Benchmark
+    public WebSocketMessage<?> encodeCbor() {
+        return frameCodec.prepare(chatMessage).encoded(WireEncoding.CBOR);
+    }
+
+    @Benchmark
+    public TextMessage encodeJsonFromMap() throws Exception {
+        return new TextMessage(objectMapper.writeValueAsString(Map.of(
+                "type", "message",
+                "id", chatMessage.id(),
+                "sender", chatMessage.sender(),
+                "content", chatMessage.content(),
+                "timestamp", chatMessage.timestamp())));
+    }
+
+    @Benchmark
+    public WebSocketMessage<?> encodeBatchJson() {
+        return frameCodec.prepare(messageBatch).encoded(WireEncoding.JSON);
+    }
+
+    // The old replay built one Map per message and wrapped the list in another
+    @Benchmark
+    public TextMessage encodeBatchJsonFromMaps() throws Exception {
+        List<Map<String, Object>> frame = new ArrayList<>();
+        for (OutboundFrame.BatchEntry entry : messageBatch.messages()) {
+            frame.add(Map.of(
+                    "id", entry.id(),
+                    "sender", entry.sender(),
+                    "content", entry.content(),
+                    "timestamp", entry.timestamp()));
+        }
+        return new TextMessage(objectMapper.writeValueAsString(Map.of("type", "messages", "messages", frame)));
+    }
+
+    @Benchmark
+    public WebSocketMessage<?> encodeBatchCbor() {
+        return frameCodec.prepare(messageBatch).encoded(WireEncoding.CBOR);
+    }
+}
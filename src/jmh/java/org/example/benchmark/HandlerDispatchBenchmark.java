@@ -0,0 +1,68 @@
+package org.example.benchmark;
+
+import org.example.handler.ChatWebSocketHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.concurrent.TimeUnit;
+
+// Frame parse and dispatch through ChatWebSocketHandler.handleMessage for an authenticated session.
+// Replies are queued on the session's outbound queue and drained in the background by the real send pool.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandlerDispatchBenchmark {
+
+    private static final TextMessage GET_USERS = new TextMessage("{\"type\":\"get_users\"}");
+    private static final TextMessage ACK = new TextMessage("{\"type\":\"ack\",\"upTo\":42}");
+    private static final TextMessage UNKNOWN = new TextMessage("{\"type\":\"noop\",\"content\":\"ignored\"}");
+
+    private ConfigurableApplicationContext context;
+    private ChatWebSocketHandler handler;
+    private StubWebSocketSession session;
+
+    @Setup
+    public void setUp() throws Exception {
+        context = BenchmarkApplication.start();
+        handler = context.getBean(ChatWebSocketHandler.class);
+        session = new StubWebSocketSession();
+        handler.afterConnectionEstablished(session);
+        handler.handleMessage(session, new TextMessage("{\"type\":\"authenticate\",\"username\":\"alice\"}"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    // Parse and switch only, the frame type is not handled
+    @Benchmark
+    public void dispatchUnknown() throws Exception {
+        handler.handleMessage(session, UNKNOWN);
+    }
+
+    @Benchmark
+    public void dispatchGetUsers() throws Exception {
+        handler.handleMessage(session, GET_USERS);
+    }
+
+    // Nothing is in flight, so this is parse, dispatch and an empty headSet walk
+    @Benchmark
+    public void dispatchAck() throws Exception {
+        handler.handleMessage(session, ACK);
+    }
+}
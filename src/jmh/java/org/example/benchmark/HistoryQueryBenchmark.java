@@ -0,0 +1,87 @@
+package org.example.benchmark;
+
+import org.example.entity.ConversationSummary;
+import org.example.entity.Message;
+import org.example.service.ChatService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Conversation history pages and the recent-conversations list at several messages table sizes.
+// With keyset paging and the summary table both should stay flat as the table grows.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoryQueryBenchmark {
+
+    private static final int USERS = 200;
+    private static final int PAGE_SIZE = 50;
+    // Messages built and persisted at a time, so a large table never sits in the heap as entities as well
+    private static final int SEED_CHUNK = 100_000;
+
+    // The default set stops at 500,000 rows to keep a full run short. Larger tables are a separate run with
+    // their own set, -p tableSize=2000000,10000000, and the heap the in-memory database then needs.
+    @Param({"10000", "100000", "500000"})
+    public int tableSize;
+
+    private ConfigurableApplicationContext context;
+    private ChatService chatService;
+    private long middleOfConversation;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        context = BenchmarkApplication.start();
+        chatService = context.getBean(ChatService.class);
+
+        // One in ten messages belongs to user0 and user1, the rest is spread over other pairs
+        for (int from = 0; from < tableSize; from += SEED_CHUNK) {
+            List<Message> messages = new ArrayList<>(SEED_CHUNK);
+            for (int i = from; i < Math.min(from + SEED_CHUNK, tableSize); i++) {
+                String sender = i % 10 == 0 ? "user0" : "user" + (i % USERS);
+                String recipient = i % 10 == 0 ? "user1" : "user" + ((i * 7 + 1) % USERS);
+                messages.add(chatService.createMessage(sender, recipient, "History message number " + i));
+                if (i == tableSize / 2) {
+                    middleOfConversation = messages.get(messages.size() - 1).getId();
+                }
+            }
+            BenchmarkApplication.persistAll(chatService, messages);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Message> latestHistoryPage() {
+        return chatService.getConversationHistory("user0", "user1", Long.MAX_VALUE, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Message> olderHistoryPage() {
+        return chatService.getConversationHistory("user0", "user1", middleOfConversation, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<ConversationSummary> recentConversations() {
+        return chatService.getRecentConversations("user7");
+    }
+}
@@ -0,0 +1,166 @@
+package org.example.benchmark;
+
+import org.example.protocol.FrameCodec;
+import org.example.protocol.OutboundFrame;
+import org.example.protocol.WireEncoding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+// What one session's outbound traffic costs on the wire and in CPU, sent frame by frame as before, with
+// permessage-deflate, batched, and both. Each operation sends one burst: the frames a session gets within one
+// batch window. Deflate is done the way Tomcat's permessage-deflate does it: one raw deflater per session
+// with context takeover, a sync flush per message and the trailing 4 bytes dropped. The average bytes on the
+// wire per burst, WebSocket headers included, are printed after each trial.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutboundCompressionBenchmark {
+
+    private static final int BURSTS = 256;
+    private static final String[] WORDS = {"hello", "are", "you", "around", "later", "today", "meeting", "at",
+            "the", "office", "lunch", "sounds", "good", "see", "you", "then", "thanks", "sure", "ok", "tomorrow"};
+
+    // live: incoming messages with the sender confirmations in between; replay: backlog batches of 50;
+    // online_users: one snapshot of 1000 users
+    @Param({"live", "replay", "online_users"})
+    public String traffic;
+
+    @Param({"plain", "deflate", "batched", "batched_deflate"})
+    public String mode;
+
+    private final List<List<WebSocketMessage<?>>> bursts = new ArrayList<>();
+    private final byte[] output = new byte[256 * 1024];
+    private Deflater deflater;
+    private boolean batched;
+    private int next;
+    private long wireBytes;
+    private long payloadBytes;
+    private long burstsSent;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FrameCodec frameCodec = new FrameCodec(Jackson2ObjectMapperBuilder.json().build(), 1000);
+        Random random = new Random(42);
+        long id = 100_000;
+        for (int burst = 0; burst < BURSTS; burst++) {
+            List<OutboundFrame> frames = new ArrayList<>();
+            String timestamp = LocalDateTime.now().plusNanos(random.nextInt(1_000_000_000)).toString();
+            switch (traffic) {
+                case "live" -> {
+                    for (int i = 0; i < 10; i++) {
+                        frames.add(new OutboundFrame.ChatMessage(++id, "user" + random.nextInt(1000),
+                                sentence(random), timestamp));
+                        frames.add(new OutboundFrame.MessageSent(++id, "user" + random.nextInt(1000), true));
+                        frames.add(new OutboundFrame.MessageSaved(id));
+                    }
+                }
+                case "replay" -> {
+                    for (int batch = 0; batch < 4; batch++) {
+                        List<OutboundFrame.BatchEntry> entries = new ArrayList<>();
+                        for (int i = 0; i < 50; i++) {
+                            entries.add(new OutboundFrame.BatchEntry(++id, "user" + random.nextInt(1000),
+                                    sentence(random), timestamp));
+                        }
+                        frames.add(new OutboundFrame.MessageBatch(entries));
+                    }
+                }
+                case "online_users" -> {
+                    List<String> users = new ArrayList<>();
+                    for (int i = 0; i < 1000; i++) {
+                        users.add("user" + random.nextInt(100_000));
+                    }
+                    frames.add(new OutboundFrame.OnlineUsers(users));
+                }
+                default -> throw new IllegalArgumentException("Unknown traffic " + traffic);
+            }
+            List<WebSocketMessage<?>> encoded = new ArrayList<>();
+            frames.forEach(frame -> encoded.add(frameCodec.prepare(frame).encoded(WireEncoding.JSON)));
+            bursts.add(encoded);
+        }
+        batched = mode.startsWith("batched");
+        deflater = mode.endsWith("deflate") ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        System.out.printf("%n%s/%s: %.0f bytes on the wire per burst, %.0f bytes of payload%n",
+                traffic, mode, (double) wireBytes / burstsSent, (double) payloadBytes / burstsSent);
+        if (deflater != null) {
+            deflater.end();
+        }
+    }
+
+    @Benchmark
+    public long sendBurst() {
+        List<WebSocketMessage<?>> burst = bursts.get(next);
+        next = (next + 1) % BURSTS;
+        long bytes = 0;
+        if (batched && burst.size() > 1) {
+            bytes += send(FrameCodec.batch(burst));
+        } else {
+            for (WebSocketMessage<?> frame : burst) {
+                bytes += send(frame);
+            }
+        }
+        wireBytes += bytes;
+        burstsSent++;
+        return bytes;
+    }
+
+    // Bytes of one WebSocket message on the wire
+    private long send(WebSocketMessage<?> message) {
+        byte[] payload = ((TextMessage) message).getPayload().getBytes(StandardCharsets.UTF_8);
+        payloadBytes += payload.length;
+        int length = payload.length;
+        if (deflater != null) {
+            deflater.setInput(payload);
+            length = 0;
+            int written;
+            do {
+                written = deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
+                length += written;
+            } while (written == output.length);
+            length -= 4;
+        }
+        return headerSize(length) + length;
+    }
+
+    // Server frames are not masked
+    private static int headerSize(int payloadLength) {
+        return payloadLength < 126 ? 2 : payloadLength < 65536 ? 4 : 10;
+    }
+
+    private static String sentence(Random random) {
+        StringBuilder sentence = new StringBuilder();
+        int words = 3 + random.nextInt(10);
+        for (int i = 0; i < words; i++) {
+            sentence.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.toString();
+    }
+}
@@ -0,0 +1,77 @@
+package org.example.benchmark;
+
+import org.example.service.ChatService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// ChatService.saveMessage through each storage engine, measured until the batch is durable: committed to H2
+// by the write-behind queue, or forced to disk by the log's group commit
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaveMessageBenchmark {
+
+    private static final int BURST = 200;
+
+    @Param({"jpa", "log"})
+    public String engine;
+
+    private ConfigurableApplicationContext context;
+    private ChatService chatService;
+    private Path logDirectory;
+
+    @Setup
+    public void setUp() {
+        logDirectory = BenchmarkApplication.createTempDirectory("bench-log-");
+        context = BenchmarkApplication.start(BenchmarkApplication.storageProperties(engine, logDirectory));
+        chatService = context.getBean(ChatService.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        BenchmarkApplication.deleteRecursively(logDirectory);
+    }
+
+    // A burst the size of one flush, so the writer commits it as a single JDBC batch
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BURST)
+    public void saveBurst() throws InterruptedException {
+        CountDownLatch persisted = new CountDownLatch(BURST);
+        for (int i = 0; i < BURST; i++) {
+            chatService.saveMessage(chatService.createMessage("alice", "bob", "Benchmark message " + i),
+                    saved -> persisted.countDown(), failure -> persisted.countDown());
+        }
+        persisted.await();
+    }
+
+    // Time until message_saved would go out for a lone message, bounded below by chat.persistence.flush-interval-ms
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void saveSingle() throws InterruptedException {
+        CountDownLatch persisted = new CountDownLatch(1);
+        chatService.saveMessage(chatService.createMessage("alice", "bob", "Benchmark message"),
+                saved -> persisted.countDown(), failure -> persisted.countDown());
+        persisted.await();
+    }
+}
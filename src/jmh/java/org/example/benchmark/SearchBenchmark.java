@@ -0,0 +1,139 @@
+package org.example.benchmark;
+
+import org.example.search.MessageIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// The in-memory search index at millions of messages: query latency for a frequent term, a rare term and two
+// terms together, and indexing throughput while the index grows to the full corpus. Words follow a Zipf
+// distribution over a 20k vocabulary, so term frequencies look like text. With fewer users each partition holds
+// more messages and the posting lists a query walks get longer; 100 users means 20k messages each per million.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class SearchBenchmark {
+
+    private static final int VOCABULARY = 20_000;
+
+    @State(Scope.Benchmark)
+    public static class Corpus {
+
+        @Param({"1000000", "2000000"})
+        public int messages;
+
+        @Param({"100", "10000"})
+        public int users;
+
+        String[] senders;
+        String[] recipients;
+        String[] contents;
+        String[] words = new String[VOCABULARY];
+
+        @Setup(Level.Trial)
+        public void generate() {
+            Random random = new Random(42);
+            double[] cumulative = new double[VOCABULARY];
+            double total = 0;
+            for (int i = 0; i < VOCABULARY; i++) {
+                words[i] = word(i);
+                total += 1.0 / (i + 1);
+                cumulative[i] = total;
+            }
+            senders = new String[messages];
+            recipients = new String[messages];
+            contents = new String[messages];
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < messages; i++) {
+                int sender = random.nextInt(users);
+                senders[i] = "user" + sender;
+                recipients[i] = "user" + ((sender + 1 + random.nextInt(users - 1)) % users);
+                content.setLength(0);
+                int length = 3 + random.nextInt(12);
+                for (int w = 0; w < length; w++) {
+                    int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                    content.append(w == 0 ? "" : " ").append(words[rank < 0 ? -rank - 1 : rank]);
+                }
+                contents[i] = content.toString();
+            }
+        }
+
+        // Letters only, so every word is one term
+        private static String word(int rank) {
+            StringBuilder word = new StringBuilder();
+            int n = rank;
+            do {
+                word.append((char) ('a' + n % 26));
+                n /= 26;
+            } while (n > 0);
+            return word.append("word").toString();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Indexed {
+
+        // common: the most frequent word; rare: rank 5000; two_terms: ranks 10 and 100 together
+        @Param({"common", "rare", "two_terms"})
+        public String query;
+
+        MessageIndex index;
+        String terms;
+        Random random = new Random(7);
+
+        @Setup(Level.Trial)
+        public void build(Corpus corpus) {
+            index = new MessageIndex();
+            for (int i = 0; i < corpus.messages; i++) {
+                index.add(i + 1, corpus.senders[i], corpus.recipients[i], corpus.contents[i]);
+            }
+            terms = switch (query) {
+                case "common" -> corpus.words[0];
+                case "rare" -> corpus.words[5000];
+                case "two_terms" -> corpus.words[10] + " " + corpus.words[100];
+                default -> throw new IllegalArgumentException("Unknown query " + query);
+            };
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Growing {
+
+        MessageIndex index = new MessageIndex();
+        int next;
+    }
+
+    // One page of 20, as the search endpoint asks for
+    @Benchmark
+    public Object search(Corpus corpus, Indexed indexed) {
+        return indexed.index.search("user" + indexed.random.nextInt(corpus.users), indexed.terms, 20);
+    }
+
+    // Messages indexed per second; the index starts over once the whole corpus is in it
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean index(Corpus corpus, Growing growing) {
+        if (growing.next == corpus.messages) {
+            growing.index = new MessageIndex();
+            growing.next = 0;
+        }
+        int i = growing.next++;
+        return growing.index.add(i + 1, corpus.senders[i], corpus.recipients[i], corpus.contents[i]);
+    }
+}
@@ -0,0 +1,89 @@
+package org.example.benchmark;
+
+import org.example.entity.Message;
+import org.example.service.ChatService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Restart with existing data until the first device sync is answered. The JPA engine needs a file database
+// to have anything to recover, so it runs against one; the log engine replays its segments next to the usual
+// in-memory database. Both include the same Spring startup, the difference between them is the recovery.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StorageRecoveryBenchmark {
+
+    @Param({"jpa", "log"})
+    public String engine;
+
+    @Param({"100000"})
+    public int messages;
+
+    private Path dataDirectory;
+    private String[] properties;
+    private ConfigurableApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void seed() throws InterruptedException {
+        dataDirectory = BenchmarkApplication.createTempDirectory("bench-recovery-");
+        List<String> settings = new ArrayList<>(List.of(
+                BenchmarkApplication.storageProperties(engine, dataDirectory.resolve("log"))));
+        if (engine.equals("jpa")) {
+            settings.add("spring.datasource.url=jdbc:h2:file:" + dataDirectory.resolve("chatdb"));
+            // create-drop would throw the data away on close
+            settings.add("spring.jpa.hibernate.ddl-auto=update");
+        }
+        properties = settings.toArray(String[]::new);
+
+        ConfigurableApplicationContext seeding = BenchmarkApplication.start(properties);
+        ChatService chatService = seeding.getBean(ChatService.class);
+        List<Message> batch = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            batch.add(chatService.createMessage("user" + (i % 100), "user" + ((i + 1) % 100), "Message number " + i));
+        }
+        BenchmarkApplication.persistAll(chatService, batch);
+        // Half of them delivered, so recovery also has delivery state to rebuild
+        batch.subList(0, messages / 2).stream()
+                .collect(Collectors.groupingBy(Message::getRecipientUsername,
+                        Collectors.mapping(Message::getId, Collectors.toList())))
+                .forEach(chatService::markMessagesAsDelivered);
+        seeding.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteData() {
+        BenchmarkApplication.deleteRecursively(dataDirectory);
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Message> restart() {
+        context = BenchmarkApplication.start(properties);
+        return context.getBean(ChatService.class).getMessagesSince("user1", 0, 200);
+    }
+}
@@ -0,0 +1,63 @@
+package org.example.handler;
+
+import org.example.benchmark.BenchmarkApplication;
+import org.example.benchmark.StubWebSocketSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Fan-out of one presence delta to every connected session: one serialization, then an enqueue per session.
+// In this package because the broadcast is package-private on the handler.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PresenceBroadcastBenchmark {
+
+    private static final List<String> JOINED = List.of("newcomer");
+
+    @Param({"100", "1000", "10000"})
+    public int sessions;
+
+    private ConfigurableApplicationContext context;
+    private ChatWebSocketHandler handler;
+
+    @Setup
+    public void setUp() throws Exception {
+        // A long coalesce window keeps the joins below out of the measurement
+        context = BenchmarkApplication.start("chat.presence.coalesce-window-ms=60000");
+        handler = context.getBean(ChatWebSocketHandler.class);
+        for (int i = 0; i < sessions; i++) {
+            StubWebSocketSession session = new StubWebSocketSession();
+            handler.afterConnectionEstablished(session);
+            handler.handleMessage(session,
+                    new TextMessage("{\"type\":\"authenticate\",\"username\":\"user" + i + "\"}"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void broadcastPresence() {
+        handler.broadcastPresence(JOINED, List.of());
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.handler;
+
+import org.example.benchmark.BenchmarkApplication;
+import org.example.benchmark.StubWebSocketSession;
+import org.example.entity.Message;
+import org.example.service.ChatService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// A device's whole offline backlog replayed through the handler's own replay path: sync state loaded, keyset
+// pages from the recipient index, "messages" frames encoded and queued for the session. Nothing is acked and each
+// invocation starts from a fresh replay state, so every one replays it all. In this package because the replay
+// is package-private on the handler.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplayBenchmark {
+
+    @Param({"1000", "10000"})
+    public int backlog;
+
+    private ConfigurableApplicationContext context;
+    private ChatWebSocketHandler handler;
+    private StubWebSocketSession session;
+
+    @Setup
+    public void setUp() throws Exception {
+        // The earlier invocations' messages stay unacked, so the in-flight window must not pause replay
+        context = BenchmarkApplication.start("chat.replay.max-in-flight=1000000000");
+        handler = context.getBean(ChatWebSocketHandler.class);
+        ChatService chatService = context.getBean(ChatService.class);
+
+        List<Message> messages = new ArrayList<>(backlog);
+        for (int i = 0; i < backlog; i++) {
+            messages.add(chatService.createMessage("sender" + (i % 20), "bob", "Offline message number " + i));
+        }
+        BenchmarkApplication.persistAll(chatService, messages);
+
+        session = new StubWebSocketSession();
+        handler.afterConnectionEstablished(session);
+        handler.handleMessage(session,
+                new TextMessage("{\"type\":\"authenticate\",\"username\":\"bob\",\"deviceId\":\"bench\"}"));
+        // Let the replay that login starts finish before measuring
+        while (!((ReplayState) session.getAttributes().get(ChatWebSocketHandler.REPLAY_STATE)).finished) {
+            Thread.sleep(10);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void replayBacklog() {
+        ReplayState replay = new ReplayState();
+        session.getAttributes().put(ChatWebSocketHandler.REPLAY_STATE, replay);
+        replay.scheduled.set(true);
+        handler.replayBacklog(session, replay);
+    }
+}
@@ -0,0 +1,275 @@
+package org.example.loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One simulated user. Every chat message carries its send time, so the receiving client can record
+// send-to-receive latency. Received ids are acked cumulatively, like the browser client does.
+// A session closed by a draining server is reconnected after the delay the server asked for, with its resume token.
+class LoadClient extends TextWebSocketHandler {
+
+    private static final int SEND_BUFFER_LIMIT = 1024 * 1024;
+    private static final int SEND_TIME_LIMIT_MS = 10_000;
+    // While the server is down or still refusing handshakes; matches the Retry-After of its 503
+    private static final long RECONNECT_RETRY_MS = 1000;
+
+    private final String username;
+    private final WebSocketClient webSocketClient;
+    private final String url;
+    private final boolean batching;
+    private final ObjectMapper objectMapper;
+    private final LoadStats stats;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile WebSocketSession session;
+    private volatile CompletableFuture<Void> replayComplete = new CompletableFuture<>();
+    private volatile long authenticateSentNanos;
+    private volatile boolean closing;
+    private final AtomicLong highestReceivedId = new AtomicLong();
+    private final AtomicLong highestAckedId = new AtomicLong();
+    // From the server's last reconnect frame; the delay is -1 when the server did not ask for a reconnect
+    private volatile long reconnectAfterMs = -1;
+    private volatile String resumeToken;
+    // Ids received in the current session. Ids do not arrive in order, so a replayed id below the highest one
+    // acked may be a message the client never had; only ids it did receive count as replayed again.
+    private final Set<Long> receivedIds = ConcurrentHashMap.newKeySet();
+    // Set when a drained session closes, so the next session can count replayed messages acked before the drain
+    private volatile long drainedAtNanos;
+    private volatile long ackedBeforeDrain;
+    private volatile Set<Long> receivedBeforeDrain = Set.of();
+    private final AtomicBoolean reconnectScheduled = new AtomicBoolean();
+
+    LoadClient(String username, WebSocketClient webSocketClient, String url, boolean batching,
+               ObjectMapper objectMapper, LoadStats stats, ScheduledExecutorService scheduler) {
+        this.username = username;
+        this.webSocketClient = webSocketClient;
+        this.url = url;
+        this.batching = batching;
+        this.objectMapper = objectMapper;
+        this.stats = stats;
+        this.scheduler = scheduler;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    boolean isConnected() {
+        WebSocketSession current = session;
+        return current != null && current.isOpen();
+    }
+
+    // Connected, and done replaying if the previous session was drained
+    boolean isSettled() {
+        return isConnected() && drainedAtNanos == 0;
+    }
+
+    // Completes once the session is authenticated and its offline backlog has been replayed
+    CompletableFuture<Void> connect() {
+        closing = false;
+        replayComplete = new CompletableFuture<>();
+        CompletableFuture<Void> ready = replayComplete;
+        webSocketClient.execute(this, url).whenComplete((connected, failure) -> {
+            if (failure != null) {
+                stats.connectFailures.increment();
+                ready.completeExceptionally(failure);
+            }
+        });
+        return ready;
+    }
+
+    void disconnect() {
+        closing = true;
+        WebSocketSession current = session;
+        if (current != null) {
+            try {
+                current.close(CloseStatus.NORMAL);
+            } catch (IOException ignored) {
+                // Already gone
+            }
+        }
+    }
+
+    // Returns false if the message could not be handed to the socket
+    boolean sendChat(String recipient, String padding) {
+        String content = LoadStats.clockNanos() + " " + padding;
+        if (!send(Map.of("type", "chat", "recipient", recipient, "content", content))) {
+            return false;
+        }
+        stats.sent.increment();
+        return true;
+    }
+
+    // Called periodically; acks everything received since the last call in one frame
+    void flushAck() {
+        long highest = highestReceivedId.get();
+        long acked = highestAckedId.get();
+        if (highest > acked && highestAckedId.compareAndSet(acked, highest)) {
+            send(Map.of("type", "ack", "upTo", highest));
+        }
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        this.session = new ConcurrentWebSocketSessionDecorator(session, SEND_TIME_LIMIT_MS, SEND_BUFFER_LIMIT);
+        highestAckedId.set(0);
+        highestReceivedId.set(0);
+        receivedIds.clear();
+        authenticateSentNanos = LoadStats.clockNanos();
+        Map<String, Object> authenticate = new HashMap<>(Map.of("type", "authenticate", "username", username,
+                "deviceId", "loadgen", "batching", batching));
+        if (resumeToken != null) {
+            authenticate.put("resumeToken", resumeToken);
+        }
+        send(authenticate);
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
+        long receivedNanos = LoadStats.clockNanos();
+        stats.framesReceived.increment();
+        stats.bytesReceived.add(message.getPayloadLength());
+        JsonNode frame = objectMapper.readTree(message.getPayload());
+        if (frame.isArray()) {
+            for (JsonNode batched : frame) {
+                handleFrame(batched, receivedNanos);
+            }
+        } else {
+            handleFrame(frame, receivedNanos);
+        }
+    }
+
+    private void handleFrame(JsonNode frame, long receivedNanos) {
+        switch (frame.path("type").asText()) {
+            case "message" -> {
+                stats.received.increment();
+                stats.recordDelivery(receivedNanos - sentNanos(frame));
+                receivedIds.add(frame.path("id").asLong());
+                highestReceivedId.accumulateAndGet(frame.path("id").asLong(), Math::max);
+            }
+            case "messages" -> {
+                long highest = 0;
+                long drainedAt = drainedAtNanos;
+                for (JsonNode entry : frame.path("messages")) {
+                    stats.replayed.increment();
+                    long id = entry.path("id").asLong();
+                    if (drainedAt != 0 && id <= ackedBeforeDrain && receivedBeforeDrain.contains(id)) {
+                        stats.replayedAfterAck.increment();
+                    }
+                    receivedIds.add(id);
+                    stats.recordBacklogDelivery(receivedNanos - sentNanos(entry));
+                    highest = Math.max(highest, id);
+                }
+                highestReceivedId.accumulateAndGet(highest, Math::max);
+                // Replay waits for acks once its window is full, so ack batches straight away
+                flushAck();
+            }
+            case "replay_complete" -> {
+                stats.recordReplay(receivedNanos - authenticateSentNanos);
+                long drainedAt = drainedAtNanos;
+                if (drainedAt != 0) {
+                    stats.recordDrainReconnect(System.nanoTime() - drainedAt);
+                    drainedAtNanos = 0;
+                }
+                replayComplete.complete(null);
+            }
+            case "reconnect" -> {
+                stats.reconnectHints.increment();
+                // Whatever arrived is acked before the server closes the session
+                flushAck();
+                resumeToken = frame.path("resumeToken").asText(null);
+                reconnectAfterMs = frame.path("reconnectAfterMs").asLong();
+            }
+            case "message_saved" -> stats.saved.increment();
+            case "error" -> {
+                String reason = frame.path("reason").asText();
+                if ("server_busy".equals(reason)) {
+                    stats.rejected.increment();
+                } else if ("rate_limited".equals(reason)) {
+                    stats.rateLimited.increment();
+                }
+            }
+            default -> {
+                // auth_success, message_sent, presence and online_users carry nothing to measure
+            }
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        long delay = reconnectAfterMs;
+        reconnectAfterMs = -1;
+        if (!closing && delay >= 0) {
+            drainedAtNanos = System.nanoTime();
+            ackedBeforeDrain = highestAckedId.get();
+            receivedBeforeDrain = Set.copyOf(receivedIds);
+            reconnectLater(delay);
+        } else if (!closing) {
+            stats.disconnects.increment();
+        }
+        replayComplete.completeExceptionally(new IOException("Connection closed: " + status));
+    }
+
+    // Retried until the server takes the handshake again, or the client is closed
+    private void reconnectLater(long delayMs) {
+        if (!reconnectScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            scheduler.schedule(() -> {
+                reconnectScheduled.set(false);
+                if (!closing) {
+                    connect().whenComplete((ready, failure) -> {
+                        if (failure != null && !closing && !isConnected()) {
+                            reconnectLater(RECONNECT_RETRY_MS);
+                        }
+                    });
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The generator is shutting down
+        }
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        replayComplete.completeExceptionally(exception);
+    }
+
+    private boolean send(Map<String, Object> frame) {
+        WebSocketSession current = session;
+        if (current == null || !current.isOpen()) {
+            return false;
+        }
+        try {
+            current.sendMessage(new TextMessage(objectMapper.writeValueAsString(frame)));
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static long sentNanos(JsonNode message) {
+        String content = message.path("content").asText();
+        int separator = content.indexOf(' ');
+        return Long.parseLong(separator < 0 ? content : content.substring(0, separator));
+    }
+}
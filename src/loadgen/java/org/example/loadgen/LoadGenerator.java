@@ -0,0 +1,359 @@
+package org.example.loadgen;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// Drives a running instance through /websocket/chat with many simulated users. Scenarios:
+//   steady          - all users online, random conversations at --rate messages/s, optional --churn-per-s
+//   reconnect-storm - users go offline, a backlog builds up, then everyone reconnects at the same moment
+//   backlog-flood   - a few senders flood offline users with --backlog-per-user messages each, then they log in
+//   first-message   - starts the server with --launch and times its first accepted handshake and first message
+//   restart         - starts the server with --launch, sends steady traffic and stops the server halfway through
+//                     (SIGTERM, so it drains), then starts it again; clients follow the reconnect hints
+// Run with mvn -Ploadgen compile exec:java -Dloadgen.args="--scenario=steady --users=2000 --rate=2000"
+// Against a cluster, give every node: --url=http://localhost:8080/websocket/chat,http://localhost:8081/websocket/chat
+public class LoadGenerator {
+
+    // Allocated up front for every session, so sized for a replay frame of 50 modest messages and no more
+    private static final int MAX_TEXT_MESSAGE_BYTES = 64 * 1024;
+    private static final long ACK_INTERVAL_MS = 50;
+    private static final long AWAIT_TIMEOUT_MINUTES = 10;
+    private static final long STARTUP_TIMEOUT_SECONDS = 120;
+    private static final long CONNECT_RETRY_MS = 10;
+
+    private final LoadOptions options;
+    private final LoadStats stats = new LoadStats();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+    private final List<LoadClient> clients = new ArrayList<>();
+    private final String padding;
+
+    LoadGenerator(LoadOptions options) {
+        this.options = options;
+        this.padding = "x".repeat(Math.max(0, options.payloadBytes() - 20));
+
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        container.setDefaultMaxTextMessageBufferSize(MAX_TEXT_MESSAGE_BYTES);
+        WebSocketClient webSocketClient = new StandardWebSocketClient(container);
+        List<String> urls = options.urls();
+        if (options.sockJs()) {
+            webSocketClient = new SockJsClient(List.of(new WebSocketTransport(webSocketClient)));
+        } else {
+            // SockJS also exposes the endpoint as a plain WebSocket under /websocket
+            urls = urls.stream().map(url -> url.replaceFirst("^http", "ws") + "/websocket").toList();
+        }
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        for (int i = 0; i < options.users(); i++) {
+            clients.add(new LoadClient(options.userPrefix() + i, webSocketClient, urls.get(i % urls.size()),
+                    options.batching(), objectMapper, stats, scheduler));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options = LoadOptions.parse(args);
+        // The client stack logs an error for every frame that arrives after a deliberate close
+        LoggingSystem.get(LoadGenerator.class.getClassLoader()).setLogLevel("org.springframework.web.socket", LogLevel.OFF);
+        System.out.println("Running " + options);
+        LoadGenerator generator = new LoadGenerator(options);
+        try {
+            generator.run();
+        } finally {
+            generator.shutdown();
+        }
+        generator.stats.reportTotals(System.out);
+        System.exit(0);
+    }
+
+    void run() throws Exception {
+        scheduler.scheduleAtFixedRate(() -> clients.forEach(LoadClient::flushAck),
+                ACK_INTERVAL_MS, ACK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(() -> stats.reportInterval(System.out),
+                options.reportIntervalSeconds(), options.reportIntervalSeconds(), TimeUnit.SECONDS);
+
+        switch (options.scenario()) {
+            case "steady" -> runSteady();
+            case "reconnect-storm" -> runReconnectStorm();
+            case "backlog-flood" -> runBacklogFlood();
+            case "first-message" -> runFirstMessage();
+            case "restart" -> runRestart();
+            default -> throw new IllegalArgumentException("Unknown scenario " + options.scenario());
+        }
+    }
+
+    private void runSteady() throws Exception {
+        connect(clients, options.connectRate(), "Connected");
+
+        ScheduledFuture<?> churn = null;
+        if (options.churnPerSecond() > 0) {
+            churn = scheduler.scheduleAtFixedRate(this::churn, 1, 1, TimeUnit.SECONDS);
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(options.durationSeconds());
+        for (long sent = 0; System.nanoTime() < deadline; sent++) {
+            pace(start, sent, options.messageRate());
+            LoadClient sender = clients.get(ThreadLocalRandom.current().nextInt(clients.size()));
+            if (sender.isConnected()) {
+                sender.sendChat(randomRecipient(sender), padding);
+            }
+        }
+
+        if (churn != null) {
+            churn.cancel(false);
+        }
+        // Let messages still in flight arrive before the totals are taken
+        Thread.sleep(2000);
+    }
+
+    // Takes random users offline and brings each back after --offline-ms, which replays what it missed
+    private void churn() {
+        for (int i = 0; i < options.churnPerSecond(); i++) {
+            LoadClient client = clients.get(ThreadLocalRandom.current().nextInt(clients.size()));
+            if (client.isConnected()) {
+                client.disconnect();
+                scheduler.schedule(client::connect, options.offlineMs(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void runReconnectStorm() throws Exception {
+        List<LoadClient> senders = clients.subList(0, Math.min(options.senders(), clients.size()));
+        List<LoadClient> recipients = clients.subList(senders.size(), clients.size());
+        connect(clients, options.connectRate(), "Connected");
+
+        for (int round = 1; round <= options.rounds(); round++) {
+            recipients.forEach(LoadClient::disconnect);
+            fillBacklog(senders, recipients);
+            // Everyone at once, no pacing: that is the storm
+            connect(recipients, 0, "Round " + round + ": reconnected and replayed");
+        }
+    }
+
+    private void runBacklogFlood() throws Exception {
+        List<LoadClient> senders = clients.subList(0, Math.min(options.senders(), clients.size()));
+        List<LoadClient> recipients = clients.subList(senders.size(), clients.size());
+        connect(senders, options.connectRate(), "Senders connected");
+
+        fillBacklog(senders, recipients);
+        long replayedBefore = stats.replayed.sum();
+        long start = System.nanoTime();
+        connect(recipients, options.connectRate(), "Recipients logged in and replayed");
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Replayed %d messages at %.0f messages/s%n",
+                stats.replayed.sum() - replayedBefore, (stats.replayed.sum() - replayedBefore) / seconds);
+    }
+
+    // Starts the server with the --launch command once per round and times, from process start, the first handshake
+    // that is accepted and the first message that gets from one user to another. The server is stopped after each
+    // round, so every round is a cold start; its output is discarded.
+    private void runFirstMessage() throws Exception {
+        if (options.launch() == null || clients.size() < 2) {
+            throw new IllegalArgumentException("first-message needs --launch=<server command> and at least 2 users");
+        }
+        List<String> command = List.of(options.launch().trim().split("\\s+"));
+        LoadClient sender = clients.get(0);
+        LoadClient recipient = clients.get(1);
+        double handshakeTotal = 0;
+        double messageTotal = 0;
+        for (int round = 1; round <= options.rounds(); round++) {
+            long start = System.nanoTime();
+            Process server = launch(command);
+            try {
+                long deadline = start + TimeUnit.SECONDS.toNanos(STARTUP_TIMEOUT_SECONDS);
+                connectWhenReady(recipient, server, deadline);
+                double handshakeMs = (System.nanoTime() - start) / 1e6;
+                connectWhenReady(sender, server, deadline);
+                long receivedBefore = stats.received.sum();
+                sender.sendChat(recipient.getUsername(), padding);
+                while (stats.received.sum() == receivedBefore) {
+                    if (System.nanoTime() > deadline) {
+                        throw new TimeoutException("First message not delivered in time");
+                    }
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+                double messageMs = (System.nanoTime() - start) / 1e6;
+                handshakeTotal += handshakeMs;
+                messageTotal += messageMs;
+                System.out.printf("Round %d: first handshake accepted after %.0f ms, first message delivered after "
+                        + "%.0f ms%n", round, handshakeMs, messageMs);
+            } finally {
+                sender.disconnect();
+                recipient.disconnect();
+                server.destroy();
+                server.waitFor();
+            }
+        }
+        System.out.printf("Average over %d cold starts: first handshake %.0f ms, first message %.0f ms%n",
+                options.rounds(), handshakeTotal / options.rounds(), messageTotal / options.rounds());
+    }
+
+    // A rolling deploy of one node: the clients are drained, reconnect with their resume tokens as the server comes
+    // back, and replay what arrived meanwhile. Replay after a drain should hold nothing the client had acked.
+    // The server needs a database that survives the restart (e.g. the cluster profile) for that to show.
+    private void runRestart() throws Exception {
+        if (options.launch() == null || clients.size() < 2) {
+            throw new IllegalArgumentException("restart needs --launch=<server command> and at least 2 users");
+        }
+        List<String> command = List.of(options.launch().trim().split("\\s+"));
+        AtomicReference<Process> server = new AtomicReference<>(launch(command));
+        try {
+            connectWhenReady(clients.get(0), server.get(),
+                    System.nanoTime() + TimeUnit.SECONDS.toNanos(STARTUP_TIMEOUT_SECONDS));
+            connect(clients.subList(1, clients.size()), options.connectRate(), "Connected");
+
+            // Stopped from another thread, so traffic keeps coming while the server drains
+            CompletableFuture<Void> restart = CompletableFuture.runAsync(() -> {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(options.durationSeconds()) / 2);
+                    long stopping = System.nanoTime();
+                    server.get().destroy();
+                    server.get().waitFor();
+                    System.out.printf("Server stopped %.0f ms after SIGTERM, %d reconnect hints received%n",
+                            (System.nanoTime() - stopping) / 1e6, stats.reconnectHints.sum());
+                    server.set(launch(command));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.SECONDS.toNanos(options.durationSeconds());
+            for (long sent = 0; System.nanoTime() < deadline; sent++) {
+                pace(start, sent, options.messageRate());
+                LoadClient sender = clients.get(ThreadLocalRandom.current().nextInt(clients.size()));
+                if (sender.isConnected()) {
+                    sender.sendChat(randomRecipient(sender), padding);
+                }
+            }
+            restart.get(STARTUP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            long reconnectDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STARTUP_TIMEOUT_SECONDS);
+            while (clients.stream().anyMatch(client -> !client.isSettled()) && System.nanoTime() < reconnectDeadline) {
+                Thread.sleep(CONNECT_RETRY_MS);
+            }
+            System.out.printf("%d of %d clients reconnected and replayed%n",
+                    clients.stream().filter(LoadClient::isSettled).count(), clients.size());
+            // Let replays and messages still in flight arrive before the totals are taken
+            Thread.sleep(2000);
+        } finally {
+            clients.forEach(LoadClient::disconnect);
+            server.get().destroy();
+            server.get().waitFor();
+        }
+    }
+
+    private static Process launch(List<String> command) throws IOException {
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+    }
+
+    // Retries until the server is listening and lets the handshake through, i.e. until it reports ready
+    private static void connectWhenReady(LoadClient client, Process server, long deadline) throws Exception {
+        while (true) {
+            try {
+                client.connect().get(STARTUP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                return;
+            } catch (ExecutionException e) {
+                if (!server.isAlive()) {
+                    throw new IllegalStateException("Server exited with " + server.exitValue());
+                }
+                if (System.nanoTime() > deadline) {
+                    throw new TimeoutException("Server did not accept a handshake in time");
+                }
+                Thread.sleep(CONNECT_RETRY_MS);
+            }
+        }
+    }
+
+    // Sends --backlog-per-user messages to every (offline) recipient and waits until they are all persisted
+    private void fillBacklog(List<LoadClient> senders, List<LoadClient> recipients) throws Exception {
+        long total = (long) options.backlogPerUser() * recipients.size();
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            pace(start, i, options.floodRate());
+            LoadClient sender = senders.get((int) (i % senders.size()));
+            sender.sendChat(recipients.get((int) (i % recipients.size())).getUsername(), padding);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(AWAIT_TIMEOUT_MINUTES);
+        while (stats.saved.sum() + stats.rejected.sum() + stats.rateLimited.sum() < stats.sent.sum()) {
+            if (System.nanoTime() > deadline) {
+                throw new TimeoutException("Backlog not persisted in time");
+            }
+            Thread.sleep(50);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Backlog of %d messages persisted in %.1f s (%.0f/s), %d rejected as server_busy, "
+                        + "%d rate_limited%n",
+                total, seconds, total / seconds, stats.rejected.sum(), stats.rateLimited.sum());
+    }
+
+    // Connects the clients, at most perSecond per second (0 = all at once), and waits for all their replays
+    private void connect(List<LoadClient> toConnect, int perSecond, String label) {
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> ready = new ArrayList<>(toConnect.size());
+        for (int i = 0; i < toConnect.size(); i++) {
+            if (perSecond > 0) {
+                pace(start, i, perSecond);
+            }
+            ready.add(toConnect.get(i).connect());
+        }
+
+        int failed = 0;
+        for (CompletableFuture<Void> future : ready) {
+            try {
+                future.get(AWAIT_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            } catch (Exception e) {
+                failed++;
+            }
+        }
+        System.out.printf("%s: %d clients in %.0f ms, %d failed%n", label, toConnect.size(),
+                (System.nanoTime() - start) / 1e6, failed);
+    }
+
+    private String randomRecipient(LoadClient sender) {
+        while (true) {
+            LoadClient recipient = clients.get(ThreadLocalRandom.current().nextInt(clients.size()));
+            if (recipient != sender || clients.size() == 1) {
+                return recipient.getUsername();
+            }
+        }
+    }
+
+    // Open-loop pacing: operation n is due at start + n / rate, independent of how long earlier ones took
+    private static void pace(long startNanos, long n, int perSecond) {
+        long due = startNanos + n * 1_000_000_000L / perSecond;
+        long wait;
+        while ((wait = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private void shutdown() {
+        scheduler.shutdownNow();
+        clients.forEach(LoadClient::disconnect);
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.loadgen;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Command line options, all given as --name=value
+record LoadOptions(
+        String scenario,
+        List<String> urls,
+        String userPrefix,
+        boolean sockJs,
+        boolean batching,
+        int users,
+        int connectRate,
+        int messageRate,
+        int durationSeconds,
+        int churnPerSecond,
+        int offlineMs,
+        int payloadBytes,
+        int senders,
+        int backlogPerUser,
+        int floodRate,
+        int rounds,
+        int reportIntervalSeconds,
+        String launch) {
+
+    private static final Set<String> KNOWN = Set.of("scenario", "url", "user-prefix", "transport", "batching", "users",
+            "connect-rate", "rate", "duration-s", "churn-per-s", "offline-ms", "payload-bytes", "senders",
+            "backlog-per-user", "flood-rate", "rounds", "report-interval-s", "launch");
+
+    static LoadOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        LoadOptions options = new LoadOptions(
+                values.getOrDefault("scenario", "steady"),
+                // Several nodes as a comma separated list; users are spread over them round robin
+                List.of(values.getOrDefault("url", "http://localhost:8080/websocket/chat").split(",")),
+                // Fresh users per run by default, so a run does not replay what earlier runs left undelivered
+                values.getOrDefault("user-prefix", "load-" + Long.toString(System.currentTimeMillis() % 1_000_000, 36) + "-"),
+                !"raw".equals(values.getOrDefault("transport", "sockjs")),
+                Boolean.parseBoolean(values.getOrDefault("batching", "false")),
+                intValue(values, "users", 1000),
+                intValue(values, "connect-rate", 500),
+                intValue(values, "rate", 1000),
+                intValue(values, "duration-s", 60),
+                intValue(values, "churn-per-s", 0),
+                intValue(values, "offline-ms", 2000),
+                intValue(values, "payload-bytes", 64),
+                intValue(values, "senders", 10),
+                intValue(values, "backlog-per-user", 100),
+                intValue(values, "flood-rate", 5000),
+                intValue(values, "rounds", 3),
+                intValue(values, "report-interval-s", 5),
+                values.get("launch"));
+        values.keySet().removeAll(KNOWN);
+        if (!values.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + values.keySet());
+        }
+        return options;
+    }
+
+    private static int intValue(Map<String, String> values, String name, int defaultValue) {
+        String value = values.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
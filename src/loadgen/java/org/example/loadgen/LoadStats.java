@@ -0,0 +1,144 @@
+package org.example.loadgen;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and latency histograms shared by every client. Recorders are written from the client
+// threads without locking; the reporter swaps out interval histograms and adds them to the totals.
+class LoadStats {
+
+    private static final long MAX_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    // Wall clock with nanoTime resolution. Backlog messages may have been sent by an earlier run,
+    // whose nanoTime has a different origin, so timestamps are anchored to the epoch.
+    private static final long EPOCH_NANOS_AT_START = System.currentTimeMillis() * 1_000_000L;
+    private static final long NANO_TIME_AT_START = System.nanoTime();
+
+    // Live delivery: sender's send call to the recipient's "message" frame
+    private final Recorder deliveryLatency = new Recorder(MAX_LATENCY_NANOS, 3);
+    // Offline delivery: sender's send call to the recipient's replayed "messages" frame
+    private final Recorder backlogLatency = new Recorder(MAX_LATENCY_NANOS, 3);
+    // Reconnect: authenticate sent to "replay_complete" received
+    private final Recorder replayTime = new Recorder(MAX_LATENCY_NANOS, 3);
+    // Drained by the server: session closed to "replay_complete" on the next one, reconnect delay included
+    private final Recorder drainReconnectTime = new Recorder(MAX_LATENCY_NANOS, 3);
+
+    private final Histogram deliveryTotal = new Histogram(MAX_LATENCY_NANOS, 3);
+    private final Histogram backlogTotal = new Histogram(MAX_LATENCY_NANOS, 3);
+    private final Histogram replayTotal = new Histogram(MAX_LATENCY_NANOS, 3);
+    private final Histogram drainReconnectTotal = new Histogram(MAX_LATENCY_NANOS, 3);
+    private Histogram deliveryInterval;
+    private Histogram backlogInterval;
+    private Histogram replayInterval;
+    private Histogram drainReconnectInterval;
+
+    final LongAdder sent = new LongAdder();
+    final LongAdder saved = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    final LongAdder rateLimited = new LongAdder();
+    final LongAdder received = new LongAdder();
+    final LongAdder replayed = new LongAdder();
+    // WebSocket messages and their payload as the client sees them, after any decompression
+    final LongAdder framesReceived = new LongAdder();
+    final LongAdder bytesReceived = new LongAdder();
+    final LongAdder connectFailures = new LongAdder();
+    final LongAdder disconnects = new LongAdder();
+    final LongAdder reconnectHints = new LongAdder();
+    // Replayed again after a drain although the client had acked them before it
+    final LongAdder replayedAfterAck = new LongAdder();
+
+    private final long startNanos = System.nanoTime();
+    private long lastReportNanos = startNanos;
+    private long lastSent;
+    private long lastReceived;
+
+    static long clockNanos() {
+        return EPOCH_NANOS_AT_START + (System.nanoTime() - NANO_TIME_AT_START);
+    }
+
+    void recordDelivery(long latencyNanos) {
+        deliveryLatency.recordValue(clamp(latencyNanos));
+    }
+
+    void recordBacklogDelivery(long latencyNanos) {
+        backlogLatency.recordValue(clamp(latencyNanos));
+    }
+
+    void recordReplay(long durationNanos) {
+        replayTime.recordValue(clamp(durationNanos));
+    }
+
+    void recordDrainReconnect(long durationNanos) {
+        drainReconnectTime.recordValue(clamp(durationNanos));
+    }
+
+    // Clocks of different runs can disagree by a little, and backlogs can be older than the histogram range
+    private static long clamp(long nanos) {
+        return Math.max(0, Math.min(nanos, MAX_LATENCY_NANOS));
+    }
+
+    // One line per interval: rates since the last line and interval percentiles
+    synchronized void reportInterval(PrintStream out) {
+        deliveryInterval = deliveryLatency.getIntervalHistogram(deliveryInterval);
+        backlogInterval = backlogLatency.getIntervalHistogram(backlogInterval);
+        replayInterval = replayTime.getIntervalHistogram(replayInterval);
+        drainReconnectInterval = drainReconnectTime.getIntervalHistogram(drainReconnectInterval);
+        deliveryTotal.add(deliveryInterval);
+        backlogTotal.add(backlogInterval);
+        replayTotal.add(replayInterval);
+        drainReconnectTotal.add(drainReconnectInterval);
+
+        long now = System.nanoTime();
+        double seconds = (now - lastReportNanos) / 1e9;
+        long sentNow = sent.sum();
+        long receivedNow = received.sum() + replayed.sum();
+        out.printf("[%5.0fs] sent %8.0f/s  received %8.0f/s  delivery p50 %7.2f p99 %7.2f ms  replays %d%n",
+                (now - startNanos) / 1e9, (sentNow - lastSent) / seconds, (receivedNow - lastReceived) / seconds,
+                millis(deliveryInterval.getValueAtPercentile(50)), millis(deliveryInterval.getValueAtPercentile(99)),
+                replayInterval.getTotalCount());
+        lastReportNanos = now;
+        lastSent = sentNow;
+        lastReceived = receivedNow;
+    }
+
+    synchronized void reportTotals(PrintStream out) {
+        reportInterval(out);
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        out.println();
+        out.printf("Duration            %.1f s%n", seconds);
+        out.printf("Sent                %d (%.0f/s), saved %d, rejected (server_busy) %d, rate_limited %d%n",
+                sent.sum(), sent.sum() / seconds, saved.sum(), rejected.sum(), rateLimited.sum());
+        out.printf("Received live       %d, replayed %d (%.0f/s overall)%n",
+                received.sum(), replayed.sum(), (received.sum() + replayed.sum()) / seconds);
+        long delivered = Math.max(1, received.sum() + replayed.sum());
+        out.printf("Inbound traffic     %d WebSocket messages, %d bytes (%.0f bytes per chat message)%n",
+                framesReceived.sum(), bytesReceived.sum(), (double) bytesReceived.sum() / delivered);
+        out.printf("Connect failures    %d, unexpected disconnects %d%n", connectFailures.sum(), disconnects.sum());
+        printHistogram(out, "Delivery latency", deliveryTotal);
+        printHistogram(out, "Backlog latency", backlogTotal);
+        printHistogram(out, "Reconnect replay", replayTotal);
+        if (reconnectHints.sum() > 0) {
+            out.printf("Drained sessions    %d reconnect hints, %d messages replayed again although acked%n",
+                    reconnectHints.sum(), replayedAfterAck.sum());
+            printHistogram(out, "Drain reconnect", drainReconnectTotal);
+        }
+    }
+
+    private static void printHistogram(PrintStream out, String name, Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            out.printf("%-19s no samples%n", name);
+            return;
+        }
+        out.printf("%-19s n=%d  p50 %.2f  p99 %.2f  p99.9 %.2f  max %.2f ms%n", name, histogram.getTotalCount(),
+                millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(99)),
+                millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getMaxValue()));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
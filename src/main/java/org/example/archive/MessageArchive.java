@@ -0,0 +1,289 @@
+package org.example.archive;
+
+import jakarta.annotation.PreDestroy;
+import org.example.entity.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Append-only cold storage for archived messages: one segment file per day of sentAt, holding deflate-compressed
+// blocks of one conversation each, and next to it an index file with one entry per block. The index is sparse:
+// it locates blocks, not messages, and is loaded into memory at startup.
+@Component
+public class MessageArchive {
+
+    Logger logger = LoggerFactory.getLogger(MessageArchive.class);
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final Path directory;
+
+    // Blocks of one conversation sorted by their highest id. The order they were archived in is no guide: the
+    // archiver starts over from the lowest id on every restart, and a message delivered late is archived after
+    // newer ones.
+    private static final Comparator<BlockRef> BY_MAX_ID = Comparator.comparingLong(BlockRef::maxId)
+            .thenComparing(BlockRef::day)
+            .thenComparingLong(BlockRef::offset);
+
+    private final Map<String, NavigableSet<BlockRef>> index = new ConcurrentHashMap<>();
+    private final Map<LocalDate, FileChannel> segments = new ConcurrentHashMap<>();
+
+    public MessageArchive(@Value("${chat.archive.dir}") Path directory) {
+        this.directory = directory;
+        loadIndex();
+    }
+
+    // Called by the single archiver thread only. Segment blocks are forced to disk before the index entries
+    // pointing at them, so after a crash the index never references a block that is not fully written.
+    public void append(List<Message> messages) throws IOException {
+        Map<LocalDate, Map<String, List<Message>>> byDay = new TreeMap<>();
+        for (Message message : messages) {
+            byDay.computeIfAbsent(message.getSentAt().toLocalDate(), day -> new LinkedHashMap<>())
+                    .computeIfAbsent(message.getConversationKey(), key -> new ArrayList<>())
+                    .add(message);
+        }
+        Files.createDirectories(directory);
+
+        for (Map.Entry<LocalDate, Map<String, List<Message>>> day : byDay.entrySet()) {
+            FileChannel segment = segment(day.getKey());
+            List<BlockRef> written = new ArrayList<>();
+            for (Map.Entry<String, List<Message>> conversation : day.getValue().entrySet()) {
+                List<Message> block = conversation.getValue();
+                block.sort(Comparator.comparing(Message::getId));
+                byte[] bytes = compress(block);
+                long offset = segment.size();
+                segment.write(ByteBuffer.wrap(bytes), offset);
+                written.add(new BlockRef(conversation.getKey(), day.getKey(), offset, bytes.length, crc(bytes),
+                        block.get(0).getId(), block.get(block.size() - 1).getId()));
+            }
+            segment.force(false);
+            appendIndex(day.getKey(), written);
+            written.forEach(this::addToIndex);
+        }
+    }
+
+    // Up to limit archived messages of the conversation with ids strictly between after and before, newest first.
+    // Blocks entirely outside the range are skipped using the index alone, without touching the segment. Id ranges
+    // of blocks overlap, so blocks are read from the highest maxId down until the next one cannot hold anything
+    // newer than the oldest message kept.
+    public List<Message> findBetween(String conversationKey, long after, long before, int limit) {
+        NavigableSet<BlockRef> blocks = index.get(conversationKey);
+        if (blocks == null || limit <= 0) {
+            return List.of();
+        }
+        TreeMap<Long, Message> newest = new TreeMap<>();
+        for (BlockRef block : blocks.descendingSet()) {
+            if (block.maxId() <= after || (newest.size() == limit && block.maxId() < newest.firstKey())) {
+                break;
+            }
+            if (block.minId() >= before) {
+                continue;
+            }
+            for (Message message : read(block)) {
+                long id = message.getId();
+                // A chunk archived twice after a crash between archive and delete shows up in two blocks
+                if (id < before && id > after && newest.putIfAbsent(id, message) == null && newest.size() > limit) {
+                    newest.pollFirstEntry();
+                }
+            }
+        }
+        return new ArrayList<>(newest.descendingMap().values());
+    }
+
+    public int getBlockCount() {
+        return index.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void addToIndex(BlockRef ref) {
+        index.computeIfAbsent(ref.conversationKey(), key -> new ConcurrentSkipListSet<>(BY_MAX_ID)).add(ref);
+    }
+
+    private List<Message> read(BlockRef block) {
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(block.length());
+            FileChannel segment = segment(block.day());
+            while (buffer.hasRemaining()) {
+                if (segment.read(buffer, block.offset() + buffer.position()) < 0) {
+                    throw new EOFException("Archive block past end of segment " + block.day());
+                }
+            }
+            byte[] bytes = buffer.array();
+            if (crc(bytes) != block.crc()) {
+                throw new IOException("Archive block checksum mismatch in segment " + block.day());
+            }
+            return decompress(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private FileChannel segment(LocalDate day) throws IOException {
+        FileChannel channel = segments.get(day);
+        if (channel == null) {
+            channel = segments.computeIfAbsent(day, d -> {
+                try {
+                    return FileChannel.open(directory.resolve(d + SEGMENT_SUFFIX),
+                            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        return channel;
+    }
+
+    private void appendIndex(LocalDate day, List<BlockRef> blocks) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (BlockRef block : blocks) {
+            out.writeUTF(block.conversationKey());
+            out.writeLong(block.offset());
+            out.writeInt(block.length());
+            out.writeInt(block.crc());
+            out.writeLong(block.minId());
+            out.writeLong(block.maxId());
+        }
+        try (FileChannel channel = FileChannel.open(directory.resolve(day + INDEX_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(bytes.toByteArray()));
+            channel.force(false);
+        }
+    }
+
+    // A partial entry at the end of an index file is what a crash mid-append leaves behind. It is cut off, as the
+    // message log cuts a torn record: appendIndex writes at the end of the file, and entries written behind the
+    // remains would be read misaligned on the next start.
+    private void loadIndex() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        int loaded = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + INDEX_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                LocalDate day = LocalDate.parse(name.substring(0, name.length() - INDEX_SUFFIX.length()));
+                byte[] bytes = Files.readAllBytes(file);
+                ByteArrayInputStream remaining = new ByteArrayInputStream(bytes);
+                DataInputStream in = new DataInputStream(remaining);
+                int complete = 0;
+                try {
+                    while (remaining.available() > 0) {
+                        addToIndex(new BlockRef(in.readUTF(), day, in.readLong(), in.readInt(), in.readInt(),
+                                in.readLong(), in.readLong()));
+                        complete = bytes.length - remaining.available();
+                        loaded++;
+                    }
+                } catch (EOFException tornEntry) {
+                    logger.warn("Truncating torn entry of {} bytes at the end of archive index {}",
+                            bytes.length - complete, file.getFileName());
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.truncate(complete);
+                        channel.force(false);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load message archive index from " + directory, e);
+        }
+        logger.info("Loaded message archive index: {} blocks in {} conversations", loaded, index.size());
+    }
+
+    private static byte[] compress(List<Message> messages) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeInt(messages.size());
+            for (Message message : messages) {
+                out.writeLong(message.getId());
+                out.writeUTF(message.getSenderUsername());
+                out.writeUTF(message.getRecipientUsername());
+                out.writeUTF(message.getContent());
+                writeTime(out, message.getSentAt());
+                out.writeBoolean(message.getDeliveredAt() != null);
+                if (message.getDeliveredAt() != null) {
+                    writeTime(out, message.getDeliveredAt());
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<Message> decompress(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes)))) {
+            int count = in.readInt();
+            List<Message> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                Message message = new Message(in.readUTF(), in.readUTF(), in.readUTF());
+                message.setId(id);
+                message.setSentAt(readTime(in));
+                // Only delivered messages are archived
+                message.setDelivered(true);
+                message.setDeliveredAt(in.readBoolean() ? readTime(in) : null);
+                messages.add(message);
+            }
+            return messages;
+        }
+    }
+
+    private static void writeTime(DataOutputStream out, LocalDateTime time) throws IOException {
+        out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(time.getNano());
+    }
+
+    private static LocalDateTime readTime(DataInputStream in) throws IOException {
+        return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    @PreDestroy
+    public void close() {
+        segments.values().forEach(channel -> {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close archive segment: {}", e.getMessage());
+            }
+        });
+    }
+
+    private record BlockRef(String conversationKey, LocalDate day, long offset, int length, int crc,
+                            long minId, long maxId) {
+    }
+}
@@ -0,0 +1,81 @@
+package org.example.archive;
+
+import org.example.entity.Message;
+import org.example.metrics.ChatMetrics;
+import org.example.repository.MessageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Moves delivered messages older than the retention age from the messages table to the archive, one chunk
+// at a time: a keyset read, an append to the archive, then a DELETE of exactly those ids in its own short
+// transaction. No table lock is taken, and a run stops after a fixed number of chunks so it never competes
+// with live traffic for long. A crash between append and delete only archives the chunk twice, which reads
+// de-duplicate.
+@Component
+@ConditionalOnProperty(name = "chat.archive.enabled", havingValue = "true", matchIfMissing = true)
+public class MessageArchiver {
+
+    Logger logger = LoggerFactory.getLogger(MessageArchiver.class);
+
+    private final MessageRepository messageRepository;
+    private final MessageArchive archive;
+    private final ChatMetrics metrics;
+    private final long maxAgeMs;
+    private final int chunkSize;
+    private final int maxChunksPerRun;
+
+    // Where the next run resumes, so old undelivered rows are not scanned again on every run.
+    // Back to the start once a scan reaches the end of the table.
+    private long resumeAfterId = 0;
+
+    public MessageArchiver(MessageRepository messageRepository, MessageArchive archive, ChatMetrics metrics,
+                           @Value("${chat.archive.max-age-ms:2592000000}") long maxAgeMs,
+                           @Value("${chat.archive.chunk-size:500}") int chunkSize,
+                           @Value("${chat.archive.max-chunks-per-run:20}") int maxChunksPerRun) {
+        this.messageRepository = messageRepository;
+        this.archive = archive;
+        this.metrics = metrics;
+        this.maxAgeMs = maxAgeMs;
+        this.chunkSize = chunkSize;
+        this.maxChunksPerRun = maxChunksPerRun;
+    }
+
+    @Scheduled(fixedDelayString = "${chat.archive.interval-ms:60000}")
+    public void archiveOldMessages() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(Duration.ofMillis(maxAgeMs));
+        int archived = 0;
+        try {
+            for (int chunk = 0; chunk < maxChunksPerRun; chunk++) {
+                long start = System.nanoTime();
+                List<Message> messages = messageRepository.findByDeliveredTrueAndSentAtBeforeAndIdGreaterThanOrderByIdAsc(
+                        cutoff, resumeAfterId, Limit.of(chunkSize));
+                if (!messages.isEmpty()) {
+                    archive.append(messages);
+                    messageRepository.deleteAllByIdInBatch(messages.stream().map(Message::getId).toList());
+                    archived += messages.size();
+                    metrics.archived(messages.size(), start);
+                }
+                if (messages.size() < chunkSize) {
+                    resumeAfterId = 0;
+                    break;
+                }
+                resumeAfterId = messages.get(messages.size() - 1).getId();
+            }
+        } catch (Exception e) {
+            // The failed chunk is still in the table and is picked up again by the next run
+            logger.error("Archiving stopped after {} messages: {}", archived, e.getMessage());
+        }
+        if (archived > 0) {
+            logger.info("Archived {} messages sent before {}", archived, cutoff);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package org.example.cache;
+
+import org.example.entity.Message;
+import org.example.metrics.ChatMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Serialized response pages of the history and recent-conversation endpoints, which clients poll on every tab
+// focus. Bounded by entry count and by bytes, least recently used out first. Entries are dropped exactly when a
+// write changes them, once the write is durable:
+//   - a persisted message drops the pages of its conversation with a cursor above its id, normally only the
+//     latest page, and the recent lists of both participants
+//   - delivery marks drop the pages that show one of the marked messages as undelivered, and the recipient's
+//     recent list with its unread counts
+//   - a read receipt drops the recent lists of the reader and of the contact
+// A page read from the database just before such a write could still be stored after the write dropped the old
+// one. So every write also moves a generation counter of the users involved, and a page is only stored if the
+// counters of its users have not moved since it was read.
+@Component
+public class ResponsePageCache {
+
+    // Users share counters; a collision only costs a page that is not stored
+    private static final int GENERATION_STRIPES = 1024;
+
+    public enum Kind {
+        HISTORY("history"), RECENT("recent");
+
+        private final String tag;
+
+        Kind(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    // owner is the conversation key for history pages, the username for recent lists
+    public record PageKey(Kind kind, String owner, long cursor, int limit) {
+    }
+
+    public record Page(byte[] body, String etag) {
+
+        // Strong ETag from the content, so a page that is rebuilt unchanged still matches what the client holds
+        public static Page of(byte[] body) {
+            return new Page(body, "\"" + DigestUtils.md5DigestAsHex(body) + "\"");
+        }
+    }
+
+    private record Entry(PageKey key, Page page, long[] undeliveredIds) {
+    }
+
+    private final ChatMetrics metrics;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long maxBytes;
+
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    // A lock rather than synchronized, like the user cache, so a waiting virtual thread does not pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<PageKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<PageKey>> historyByConversation = new HashMap<>();
+    private final Map<Long, Set<PageKey>> pagesByUndeliveredId = new HashMap<>();
+    private long bytes;
+
+    public ResponsePageCache(ChatMetrics metrics,
+                             @Value("${chat.response-cache.enabled:true}") boolean enabled,
+                             @Value("${chat.response-cache.max-entries:10000}") int maxEntries,
+                             @Value("${chat.response-cache.max-bytes:67108864}") long maxBytes) {
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        metrics.gauge("chat.cache.entries", "Response pages in the cache", this::size);
+        metrics.gauge("chat.cache.bytes", "Bytes of response pages in the cache", this::weight);
+    }
+
+    public static PageKey history(String conversationKey, long before, int limit) {
+        return new PageKey(Kind.HISTORY, conversationKey, before, limit);
+    }
+
+    public static PageKey recent(String username) {
+        return new PageKey(Kind.RECENT, username, 0, 0);
+    }
+
+    public Page get(PageKey key) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry;
+        lock.lock();
+        try {
+            entry = entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+        metrics.cacheLookup(key.kind().tag, entry != null);
+        return entry == null ? null : entry.page();
+    }
+
+    // Taken before the page is read from the database and handed back to put()
+    public long generation(String user1, String user2) {
+        int first = stripe(user1);
+        int second = stripe(user2);
+        // Counters only grow, so the sum moves whenever either of them does
+        return first == second ? generations.get(first) : generations.get(first) + generations.get(second);
+    }
+
+    // undeliveredIds: the messages the page shows as undelivered, which delivery marks look the page up by
+    public void put(PageKey key, Page page, long[] undeliveredIds, long generation, String user1, String user2) {
+        if (!enabled || page.body().length > maxBytes) {
+            return;
+        }
+        lock.lock();
+        try {
+            // Checked under the lock: a write that moves the counter after this removes the entry after it too
+            if (generation(user1, user2) != generation) {
+                return;
+            }
+            remove(key);
+            Entry entry = new Entry(key, page, undeliveredIds);
+            entries.put(key, entry);
+            bytes += page.body().length;
+            if (key.kind() == Kind.HISTORY) {
+                historyByConversation.computeIfAbsent(key.owner(), k -> new HashSet<>()).add(key);
+            }
+            for (long id : undeliveredIds) {
+                pagesByUndeliveredId.computeIfAbsent(id, k -> new HashSet<>()).add(key);
+            }
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // From the storage engine's writer thread once the message is durable
+    public void messagePersisted(Message message) {
+        if (!enabled) {
+            return;
+        }
+        advance(message.getSenderUsername());
+        advance(message.getRecipientUsername());
+        int removed = 0;
+        lock.lock();
+        try {
+            Set<PageKey> pages = historyByConversation.get(message.getConversationKey());
+            if (pages != null) {
+                for (PageKey page : pages.stream().filter(key -> key.cursor() > message.getId()).toList()) {
+                    removed += remove(page);
+                }
+            }
+            removed += remove(recent(message.getSenderUsername())) + remove(recent(message.getRecipientUsername()));
+        } finally {
+            lock.unlock();
+        }
+        metrics.cacheInvalidated(removed);
+    }
+
+    // From the storage engine's writer thread once the delivered flags are durable
+    public void messagesDelivered(String recipientUsername, Collection<Long> messageIds) {
+        if (!enabled) {
+            return;
+        }
+        // The senders are not known here; a page being filled concurrently depends on the recipient's counter too
+        advance(recipientUsername);
+        int removed = 0;
+        lock.lock();
+        try {
+            for (Long id : messageIds) {
+                Set<PageKey> pages = pagesByUndeliveredId.get(id);
+                if (pages != null) {
+                    for (PageKey page : pages.toArray(PageKey[]::new)) {
+                        removed += remove(page);
+                    }
+                }
+            }
+            removed += remove(recent(recipientUsername));
+        } finally {
+            lock.unlock();
+        }
+        metrics.cacheInvalidated(removed);
+    }
+
+    // Read positions live in memory and are visible at once, so this runs when the receipt is recorded
+    public void readMarked(String reader, String contact) {
+        if (!enabled) {
+            return;
+        }
+        advance(reader);
+        advance(contact);
+        int removed;
+        lock.lock();
+        try {
+            removed = remove(recent(reader)) + remove(recent(contact));
+        } finally {
+            lock.unlock();
+        }
+        metrics.cacheInvalidated(removed);
+    }
+
+    private void advance(String username) {
+        generations.incrementAndGet(stripe(username));
+    }
+
+    private static int stripe(String username) {
+        return Math.floorMod(username.hashCode(), GENERATION_STRIPES);
+    }
+
+    // Caller holds the lock
+    private void evict() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            Entry entry = eldest.next();
+            eldest.remove();
+            unindex(entry);
+            metrics.cacheEvicted();
+        }
+    }
+
+    // Caller holds the lock; returns the number of entries removed
+    private int remove(PageKey key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return 0;
+        }
+        unindex(entry);
+        return 1;
+    }
+
+    private void unindex(Entry entry) {
+        bytes -= entry.page().body().length;
+        PageKey key = entry.key();
+        if (key.kind() == Kind.HISTORY) {
+            Set<PageKey> pages = historyByConversation.get(key.owner());
+            if (pages != null && pages.remove(key) && pages.isEmpty()) {
+                historyByConversation.remove(key.owner());
+            }
+        }
+        for (long id : entry.undeliveredIds()) {
+            Set<PageKey> pages = pagesByUndeliveredId.get(id);
+            if (pages != null && pages.remove(key) && pages.isEmpty()) {
+                pagesByUndeliveredId.remove(id);
+            }
+        }
+    }
+
+    private int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long weight() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.cluster;
+
+import org.example.entity.ClusterOutboxEntry;
+import org.example.repository.ClusterOutboxRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+// Outbox table polled by each node for frames addressed to it. Delivery is at-least-once:
+// rows are deleted only after dispatch, and clients already de-duplicate messages by id.
+@Component
+@ConditionalOnProperty(name = "chat.cluster.mode", havingValue = "jdbc")
+public class JdbcMessageBus implements MessageBus {
+
+    Logger logger = LoggerFactory.getLogger(JdbcMessageBus.class);
+
+    private final ClusterOutboxRepository outboxRepository;
+    private final JdbcSessionRegistry sessionRegistry;
+    private final int pollBatchSize;
+    private volatile Consumer<RoutedFrame> listener = frame -> {};
+
+    public JdbcMessageBus(ClusterOutboxRepository outboxRepository, JdbcSessionRegistry sessionRegistry,
+                          @Value("${chat.cluster.poll-batch-size:500}") int pollBatchSize) {
+        this.outboxRepository = outboxRepository;
+        this.sessionRegistry = sessionRegistry;
+        this.pollBatchSize = pollBatchSize;
+    }
+
+    @Override
+    public void send(String nodeId, RoutedFrame frame) {
+        if (sessionRegistry.localNodeId().equals(nodeId)) {
+            listener.accept(frame);
+            return;
+        }
+        outboxRepository.save(toEntry(nodeId, frame));
+    }
+
+    @Override
+    public void broadcast(RoutedFrame frame) {
+        List<ClusterOutboxEntry> entries = sessionRegistry.liveNodes().stream()
+                .filter(nodeId -> !nodeId.equals(sessionRegistry.localNodeId()))
+                .map(nodeId -> toEntry(nodeId, frame))
+                .toList();
+        if (!entries.isEmpty()) {
+            outboxRepository.saveAll(entries);
+        }
+    }
+
+    private static ClusterOutboxEntry toEntry(String nodeId, RoutedFrame frame) {
+        return new ClusterOutboxEntry(nodeId, frame.type(), frame.targetUser(), frame.messageId(), frame.roomId(), frame.payload());
+    }
+
+    @Override
+    public void subscribe(Consumer<RoutedFrame> listener) {
+        this.listener = listener;
+    }
+
+    @Scheduled(fixedDelayString = "${chat.cluster.poll-interval-ms:20}")
+    public void poll() {
+        List<ClusterOutboxEntry> entries = outboxRepository.findByTargetNodeOrderByIdAsc(
+                sessionRegistry.localNodeId(), Limit.of(pollBatchSize));
+        if (entries.isEmpty()) {
+            return;
+        }
+        for (ClusterOutboxEntry entry : entries) {
+            try {
+                listener.accept(new RoutedFrame(entry.getFrameType(), entry.getTargetUser(), entry.getMessageId(),
+                        entry.getRoomId(), entry.getPayload()));
+            } catch (Exception e) {
+                logger.error("Failed to dispatch routed frame {}: {}", entry.getId(), e.getMessage());
+            }
+        }
+        outboxRepository.deleteAllByIdInBatch(entries.stream().map(ClusterOutboxEntry::getId).toList());
+    }
+}
@@ -0,0 +1,122 @@
+package org.example.cluster;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.example.entity.ClusterNode;
+import org.example.entity.SessionRegistration;
+import org.example.repository.ClusterNodeRepository;
+import org.example.repository.SessionRegistrationRepository;
+import org.example.service.MessageIdAllocator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Registry shared through the database, for several nodes running against the same datasource
+@Component
+@ConditionalOnProperty(name = "chat.cluster.mode", havingValue = "jdbc")
+public class JdbcSessionRegistry implements SessionRegistry {
+
+    private final SessionRegistrationRepository registrationRepository;
+    private final ClusterNodeRepository nodeRepository;
+    private final MessageIdAllocator idAllocator;
+    private final String nodeId;
+    private final long heartbeatTtlMs;
+    private final long horizonRefreshNanos;
+    private volatile Horizon horizon;
+
+    public JdbcSessionRegistry(SessionRegistrationRepository registrationRepository,
+                               ClusterNodeRepository nodeRepository, MessageIdAllocator idAllocator,
+                               @Value("${chat.cluster.node-id:#{T(java.util.UUID).randomUUID().toString()}}") String nodeId,
+                               @Value("${chat.cluster.heartbeat-ttl-ms:15000}") long heartbeatTtlMs,
+                               @Value("${chat.cluster.horizon-refresh-ms:1000}") long horizonRefreshMs) {
+        this.registrationRepository = registrationRepository;
+        this.nodeRepository = nodeRepository;
+        this.idAllocator = idAllocator;
+        this.nodeId = nodeId;
+        this.heartbeatTtlMs = heartbeatTtlMs;
+        this.horizonRefreshNanos = TimeUnit.MILLISECONDS.toNanos(horizonRefreshMs);
+    }
+
+    // Before the web server takes connections: other nodes must see this node's floor before it hands out ids,
+    // or their horizon could pass ids of its first block
+    @PostConstruct
+    public void publishFloor() {
+        nodeRepository.save(new ClusterNode(nodeId, LocalDateTime.now(), idAllocator.floor()));
+    }
+
+    @Override
+    public String localNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void register(String username) {
+        registrationRepository.save(new SessionRegistration(username, nodeId));
+    }
+
+    @Override
+    @Transactional
+    public void unregister(String username) {
+        // Only this node's row; the user may still be connected to others
+        registrationRepository.deleteById(SessionRegistration.registrationId(username, nodeId));
+    }
+
+    @Override
+    public Set<String> findNodes(String username) {
+        return Set.copyOf(registrationRepository.findLiveNodesOf(username, liveCutoff()));
+    }
+
+    @Override
+    public Set<String> onlineUsers() {
+        return Set.copyOf(registrationRepository.findLiveUsernames(liveCutoff()));
+    }
+
+    // Every node with a recent heartbeat, including those without a single session
+    public List<String> liveNodes() {
+        return nodeRepository.findLiveNodeIds(liveCutoff());
+    }
+
+    // The lowest floor among the live nodes, this one's current floor included, reloaded at most every
+    // chat.cluster.horizon-refresh-ms. A node that stops heartbeating no longer holds it back.
+    @Override
+    public long idHorizon() {
+        Horizon current = horizon;
+        long now = System.nanoTime();
+        if (current == null || now - current.loadedAt() > horizonRefreshNanos) {
+            long floor = idAllocator.floor();
+            Long others = nodeRepository.findLowestIdFloorOfOthers(liveCutoff(), nodeId);
+            current = new Horizon((others == null ? floor : Math.min(floor, others)) - 1, now);
+            horizon = current;
+        }
+        return current.value();
+    }
+
+    // A node is live from publishFloor() at startup on, with or without sessions
+    @Scheduled(fixedDelayString = "${chat.cluster.heartbeat-interval-ms:5000}")
+    @Transactional
+    public void heartbeat() {
+        LocalDateTime now = LocalDateTime.now();
+        nodeRepository.save(new ClusterNode(nodeId, now, idAllocator.retireIdleBlock()));
+        registrationRepository.heartbeat(nodeId, now);
+    }
+
+    @PreDestroy
+    public void deregisterNode() {
+        registrationRepository.deleteByNodeId(nodeId);
+        nodeRepository.deleteById(nodeId);
+    }
+
+    private LocalDateTime liveCutoff() {
+        return LocalDateTime.now().minusNanos(heartbeatTtlMs * 1_000_000);
+    }
+
+    private record Horizon(long value, long loadedAt) {
+    }
+}
@@ -0,0 +1,55 @@
+package org.example.cluster;
+
+import org.example.service.MessageIdAllocator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Single-node registry: every online user is connected to this JVM
+@Component
+@ConditionalOnProperty(name = "chat.cluster.mode", havingValue = "local", matchIfMissing = true)
+public class LocalSessionRegistry implements SessionRegistry {
+
+    private final String nodeId;
+    private final MessageIdAllocator idAllocator;
+    private final Set<String> users = ConcurrentHashMap.newKeySet();
+
+    public LocalSessionRegistry(@Value("${chat.cluster.node-id:local}") String nodeId, MessageIdAllocator idAllocator) {
+        this.nodeId = nodeId;
+        this.idAllocator = idAllocator;
+    }
+
+    @Override
+    public String localNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void register(String username) {
+        users.add(username);
+    }
+
+    @Override
+    public void unregister(String username) {
+        users.remove(username);
+    }
+
+    @Override
+    public Set<String> findNodes(String username) {
+        return users.contains(username) ? Set.of(nodeId) : Set.of();
+    }
+
+    @Override
+    public Set<String> onlineUsers() {
+        return Set.copyOf(users);
+    }
+
+    // This node allocates every id, so its own floor is the horizon
+    @Override
+    public long idHorizon() {
+        return idAllocator.floor() - 1;
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.cluster;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Consumer;
+
+// Single-node bus: frames for this node are handed straight back, there are no other nodes
+@Component
+@ConditionalOnProperty(name = "chat.cluster.mode", havingValue = "local", matchIfMissing = true)
+public class LoopbackMessageBus implements MessageBus {
+
+    private final SessionRegistry sessionRegistry;
+    private volatile Consumer<RoutedFrame> listener = frame -> {};
+
+    public LoopbackMessageBus(SessionRegistry sessionRegistry) {
+        this.sessionRegistry = sessionRegistry;
+    }
+
+    @Override
+    public void send(String nodeId, RoutedFrame frame) {
+        if (sessionRegistry.localNodeId().equals(nodeId)) {
+            listener.accept(frame);
+        }
+    }
+
+    @Override
+    public void broadcast(RoutedFrame frame) {
+    }
+
+    @Override
+    public void subscribe(Consumer<RoutedFrame> listener) {
+        this.listener = listener;
+    }
+}
@@ -0,0 +1,15 @@
+package org.example.cluster;
+
+import java.util.function.Consumer;
+
+// Carries frames to the node that owns the target user's session
+public interface MessageBus {
+
+    void send(String nodeId, RoutedFrame frame);
+
+    // Delivers to every node except this one
+    void broadcast(RoutedFrame frame);
+
+    // Receives frames addressed to this node
+    void subscribe(Consumer<RoutedFrame> listener);
+}
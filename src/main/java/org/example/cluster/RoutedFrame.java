@@ -0,0 +1,7 @@
+package org.example.cluster;
+
+// A serialized outbound frame travelling between nodes. type is the frame's "type" property.
+// targetUser null means every local session, or every local member of roomId when that is set;
+// messageId is set for chat messages so the owning node can track the delivery ack.
+public record RoutedFrame(String type, String targetUser, Long messageId, Long roomId, String payload) {
+}
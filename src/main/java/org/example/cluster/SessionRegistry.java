@@ -0,0 +1,23 @@
+package org.example.cluster;
+
+import java.util.Set;
+
+// Cluster-wide view of the nodes each online user is connected to. A user with several devices may
+// have sessions on several nodes; register/unregister are called for the first and last on this one.
+public interface SessionRegistry {
+
+    String localNodeId();
+
+    void register(String username);
+
+    void unregister(String username);
+
+    Set<String> findNodes(String username);
+
+    Set<String> onlineUsers();
+
+    // Every message with an id at or below the horizon that will ever be stored is stored already. Ids are
+    // handed out before the write and from per-node blocks, so above it a lower id may still commit after a
+    // higher one. Device sync positions never pass it. It only grows; a stale value is lower, never wrong.
+    long idHorizon();
+}
@@ -0,0 +1,79 @@
+package org.example.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+@Configuration
+@EnableScheduling
+public class ExecutorConfig {
+
+    // Runs offline-backlog replay off the WebSocket threads so authentication never waits on it
+    @Bean
+    public AsyncTaskExecutor replayExecutor(@Value("${chat.replay.threads:4}") int threads,
+                                            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        if (virtualThreads) {
+            return virtualThreadExecutor("backlog-replay-");
+        }
+        return fixedPool("backlog-replay-", threads);
+    }
+
+    // Drains the per-session outbound queues; a session occupies at most one of these threads at a time
+    @Bean
+    public AsyncTaskExecutor outboundExecutor(@Value("${chat.outbound.threads:16}") int threads,
+                                              @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        // On virtual threads a reader stuck in a blocking send only parks a cheap thread, so no pool size to tune
+        if (virtualThreads) {
+            return virtualThreadExecutor("ws-send-");
+        }
+        return fixedPool("ws-send-", threads);
+    }
+
+    // Runs the @Scheduled jobs (login-time flush, cluster polling, archiving), so a slow database round trip there
+    // never holds up the presence scheduler
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(2);
+        scheduler.setThreadNamePrefix("scheduled-");
+        return scheduler;
+    }
+
+    // Starts the delayed drain of sessions that batch their outbound frames; the sends run on outboundExecutor
+    @Bean
+    public ThreadPoolTaskScheduler outboundBatchScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("ws-batch-");
+        return scheduler;
+    }
+
+    // Fires the coalesced presence broadcasts
+    @Bean
+    public ThreadPoolTaskScheduler presenceScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("presence-");
+        return scheduler;
+    }
+
+    private static ThreadPoolTaskExecutor fixedPool(String threadNamePrefix, int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix(threadNamePrefix);
+        return executor;
+    }
+
+    // Requires Java 21; fails at startup on older runtimes rather than silently using platform threads
+    private static SimpleAsyncTaskExecutor virtualThreadExecutor(String threadNamePrefix) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        return executor;
+    }
+}
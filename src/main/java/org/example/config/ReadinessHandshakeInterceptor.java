@@ -0,0 +1,44 @@
+package org.example.config;
+
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.util.Map;
+
+// Refuses /websocket/chat handshakes with 503 until the application is ready. Tomcat listens as soon as the
+// context is refreshed, before the startup warm-up has run; readiness only turns to ACCEPTING_TRAFFIC after it,
+// so reconnecting clients back off instead of landing on a cold node. It turns back to REFUSING_TRAFFIC as soon
+// as the context starts closing, which keeps new sessions off a node that is draining. The same state backs
+// /actuator/health/readiness for load balancers.
+public class ReadinessHandshakeInterceptor implements HandshakeInterceptor {
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private final ApplicationAvailability availability;
+
+    public ReadinessHandshakeInterceptor(ApplicationAvailability availability) {
+        this.availability = availability;
+    }
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        if (availability.getReadinessState() == ReadinessState.ACCEPTING_TRAFFIC) {
+            return true;
+        }
+        response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+        return false;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                               WebSocketHandler wsHandler, Exception exception) {
+    }
+}
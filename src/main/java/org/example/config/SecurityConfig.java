@@ -2,6 +2,7 @@ package org.example.config;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
@@ -16,8 +17,13 @@ public class SecurityConfig {
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
         http.csrf(AbstractHttpConfigurer::disable) // Disable CSRF for WebSocket and API endpoints
                 .authorizeHttpRequests(authz -> authz
-                        .requestMatchers("/", "/index.html", "/websocket/**", "/api/**", "/h2-console/**")
-                        .permitAll().anyRequest().authenticated())
+                        .requestMatchers("/", "/index.html", "/websocket/**", "/api/**", "/h2-console/**",
+                                "/actuator/health", "/actuator/health/**")
+                        .permitAll()
+                        // Metrics show load and internals, so only the scraper's login may read them (spring.security.user.*)
+                        .requestMatchers("/actuator/prometheus").hasRole("METRICS")
+                        .anyRequest().authenticated())
+                .httpBasic(Customizer.withDefaults())
                 .headers(headers ->
                         headers.frameOptions(HeadersConfigurer.FrameOptionsConfig::disable));// Allow H2 console frames
 
@@ -0,0 +1,24 @@
+package org.example.config;
+
+import org.example.handler.ChatWebSocketHandler;
+import org.example.protocol.FrameCodec;
+import org.example.store.MessageStore;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+
+@Configuration
+public class StartupConfig {
+
+    // With spring.main.lazy-initialization (the prod profile) the REST controllers, archive reads and the like
+    // are only built on first use. The chat path is built during startup all the same, so a bad configuration
+    // still fails the boot rather than the first client. The container factory bean has to be eager anyway:
+    // nothing asks for it, and the frame size limits are applied when it is created.
+    // Scheduled and lifecycle beans are eager without being listed.
+    @Bean
+    public static LazyInitializationExcludeFilter chatPathBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(ChatWebSocketHandler.class, FrameCodec.class,
+                MessageStore.class, ServletServerContainerFactoryBean.class);
+    }
+}
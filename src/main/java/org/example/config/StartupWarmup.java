@@ -0,0 +1,86 @@
+package org.example.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.example.protocol.FrameCodec;
+import org.example.protocol.InboundFrame;
+import org.example.protocol.OutboundFrame;
+import org.example.protocol.WireEncoding;
+import org.example.service.ChatService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Runs the chat path before the node takes connections: frame parsing and encoding in both wire formats, and the
+// history, backlog and conversation list queries. That loads their classes, gets the hot methods past the
+// interpreter, fills Hibernate's query plan cache and opens pool connections, which the first clients of a
+// fresh node would otherwise pay for. Spring publishes readiness only after ApplicationReadyEvent listeners have
+// returned, so /websocket/chat stays closed until this is done. Off (0 iterations) outside the prod profile.
+@Component
+public class StartupWarmup {
+
+    Logger logger = LoggerFactory.getLogger(StartupWarmup.class);
+
+    private static final String WARMUP_USER = "warmup-user";
+    private static final String WARMUP_CONTACT = "warmup-contact";
+    // Queries are far slower than codec calls and need fewer runs to have their plans cached
+    private static final int ITERATIONS_PER_QUERY = 100;
+
+    private final FrameCodec frameCodec;
+    private final ChatService chatService;
+    private final ObjectMapper objectMapper;
+    private final int iterations;
+
+    public StartupWarmup(FrameCodec frameCodec, ChatService chatService, ObjectMapper objectMapper,
+                         @Value("${chat.startup.warmup-iterations:0}") int iterations) {
+        this.frameCodec = frameCodec;
+        this.chatService = chatService;
+        this.objectMapper = objectMapper;
+        this.iterations = iterations;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (iterations <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            InboundFrame inbound = new InboundFrame("chat", null, WARMUP_CONTACT, "warm-up message", null, null,
+                    null, null, null, null);
+            TextMessage json = new TextMessage(objectMapper.writeValueAsString(inbound));
+            BinaryMessage cbor = new BinaryMessage(objectMapper.copyWith(new CBORFactory()).writeValueAsBytes(inbound));
+            String timestamp = LocalDateTime.now().toString();
+            OutboundFrame.BatchEntry entry = new OutboundFrame.BatchEntry(1, WARMUP_CONTACT, "warm-up message", timestamp);
+            for (int i = 0; i < iterations; i++) {
+                frameCodec.decode(json);
+                frameCodec.decode(cbor);
+                // Fresh frames each time: a prepared frame caches its encodings
+                for (WireEncoding encoding : WireEncoding.values()) {
+                    frameCodec.prepare(new OutboundFrame.ChatMessage(i, WARMUP_CONTACT, "warm-up message", timestamp))
+                            .encoded(encoding);
+                    frameCodec.prepare(new OutboundFrame.MessageBatch(List.of(entry, entry))).encoded(encoding);
+                }
+                if (i % ITERATIONS_PER_QUERY == 0) {
+                    chatService.getMessagesSince(WARMUP_USER, 0, 1);
+                    chatService.getConversationHistory(WARMUP_USER, WARMUP_CONTACT, Long.MAX_VALUE, 1);
+                    chatService.getRecentConversations(WARMUP_USER);
+                }
+            }
+        } catch (Exception e) {
+            // A node that could not warm up still works, only slower for its first clients
+            logger.warn("Startup warm-up failed: {}", e.getMessage());
+        }
+        logger.info("Warm-up of {} iterations took {} ms, accepting connections {} ms after JVM start", iterations,
+                (System.nanoTime() - start) / 1_000_000, ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+}
@@ -0,0 +1,32 @@
+package org.example.config;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+
+// Opt-in virtual-thread mode (Java 21, see the "virtual" profile). Spring Boot moves Tomcat, and with it
+// inbound WebSocket frame handling and the blocking ChatService calls made from it, onto virtual threads;
+// ExecutorConfig does the same for replay and outbound sends. This guards the datasource against them.
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+    @Bean
+    public static BeanPostProcessor dataSourceConcurrencyLimiter(Environment environment) {
+        int maxConcurrent = environment.getProperty("chat.datasource.max-concurrent-connections", Integer.class, 10);
+        long acquireTimeoutMs = environment.getProperty("chat.datasource.acquire-timeout-ms", Long.class, 30000L);
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof ConcurrencyLimitedDataSource)) {
+                    return new ConcurrencyLimitedDataSource(dataSource, maxConcurrent, acquireTimeoutMs);
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -1,19 +1,27 @@
 package org.example.config;
 
 import org.example.handler.ChatWebSocketHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
 
 @Configuration
 @EnableWebSocket
 public class WebSocketConfig implements WebSocketConfigurer {
 
     private final ChatWebSocketHandler chatWebSocketHandler;
+    private final ApplicationAvailability availability;
 
-    public WebSocketConfig(ChatWebSocketHandler chatWebSocketHandler) {
+    public WebSocketConfig(ChatWebSocketHandler chatWebSocketHandler, ApplicationAvailability availability) {
         this.chatWebSocketHandler = chatWebSocketHandler;
+        this.availability = availability;
     }
 
     @Override
@@ -21,6 +29,28 @@ public class WebSocketConfig implements WebSocketConfigurer {
         // Register WebSocket handler with SockJS fallback for better browser support
         registry.addHandler(chatWebSocketHandler, "/websocket/chat")
                 .setAllowedOriginPatterns("*") // In production, specify actual origins
+                .addInterceptors(new ReadinessHandshakeInterceptor(availability))
                 .withSockJS(); // SockJS provides fallback options for older browsers
     }
-}
\ No newline at end of file
+
+    // Frames over the limit are refused by the container before they are buffered, and the connection is
+    // closed with 1009 (message too big). Text frames are counted in chars.
+    @Bean
+    public ServletServerContainerFactoryBean createWebSocketContainer(
+            @Value("${chat.inbound.max-frame-size:8192}") int maxFrameSize) {
+        ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+        container.setMaxTextMessageBufferSize(maxFrameSize);
+        container.setMaxBinaryMessageBufferSize(maxFrameSize);
+        return container;
+    }
+
+    // Compression saves most on online_users snapshots and replay batches, and costs a deflater per session
+    // (a few hundred KB of native memory each) plus CPU on every frame
+    @Bean
+    @ConditionalOnProperty(name = "chat.compression.enabled", havingValue = "false")
+    public FilterRegistrationBean<DeflateOfferFilter> deflateOfferFilter() {
+        FilterRegistrationBean<DeflateOfferFilter> registration = new FilterRegistrationBean<>(new DeflateOfferFilter());
+        registration.addUrlPatterns("/websocket/chat/*");
+        return registration;
+    }
+}
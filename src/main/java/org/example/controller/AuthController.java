@@ -1,20 +1,24 @@
 package org.example.controller;
 
-import org.example.entity.User;
 import org.example.service.ChatService;
+import org.example.service.UserAccount;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/auth")
 public class AuthController {
+
+    private static final int MAX_USERS_PAGE_SIZE = 500;
     
     private final ChatService chatService;
     
@@ -32,8 +36,8 @@ public class AuthController {
                 return ResponseEntity.badRequest().body(Map.of("error", "Username and password are required"));
             }
             
-            User user = chatService.registerUser(username.trim(), password);
-            return ResponseEntity.ok(Map.of("message", "User registered successfully", "username", user.getUsername()));
+            UserAccount user = chatService.registerUser(username.trim(), password);
+            return ResponseEntity.ok(Map.of("message", "User registered successfully", "username", user.username()));
             
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
@@ -52,10 +56,10 @@ public class AuthController {
                 return ResponseEntity.badRequest().body(Map.of("error", "Username and password are required"));
             }
             
-            Optional<User> userOpt = chatService.authenticateUser(username.trim(), password);
+            Optional<UserAccount> userOpt = chatService.authenticateUser(username.trim(), password);
 
             if (userOpt.isPresent()) {
-                return ResponseEntity.ok(Map.of("message", "Login successful", "username", userOpt.get().getUsername()));
+                return ResponseEntity.ok(Map.of("message", "Login successful", "username", userOpt.get().username()));
             } else {
                 return ResponseEntity.badRequest().body(Map.of("error", "Invalid username or password"));
             }
@@ -65,13 +69,17 @@ public class AuthController {
         }
     }
     
+    // Sorted by username; pass the returned nextPage back as page until it is null
     @GetMapping("/users")
-    public ResponseEntity<?> getAllUsers() {
+    public ResponseEntity<?> getAllUsers(@RequestParam(defaultValue = "0") int page,
+                                         @RequestParam(defaultValue = "100") int size) {
         try {
-            var users = chatService.getAllUsers().stream()
-                    .map(User::getUsername)
-                    .toList();
-            return ResponseEntity.ok(Map.of("users", users));
+            int pageSize = Math.max(1, Math.min(size, MAX_USERS_PAGE_SIZE));
+            var users = chatService.getUsernames(Math.max(page, 0), pageSize);
+            Map<String, Object> response = new HashMap<>();
+            response.put("users", users.getContent());
+            response.put("nextPage", users.hasNext() ? users.getNumber() + 1 : null);
+            return ResponseEntity.ok(response);
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body(Map.of("error", "Failed to fetch users"));
         }
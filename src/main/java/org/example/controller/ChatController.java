@@ -1,13 +1,24 @@
 package org.example.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.cache.ResponsePageCache;
+import org.example.entity.ConversationSummary;
 import org.example.entity.Message;
+import org.example.search.SearchHit;
+import org.example.search.SearchResult;
 import org.example.service.ChatService;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,17 +29,42 @@ import java.util.stream.Collectors;
 public class ChatController {
 
     private final ChatService chatService;
+    private final ResponsePageCache responseCache;
+    private final ObjectMapper objectMapper;
 
-    public ChatController(ChatService chatService) {
+    public ChatController(ChatService chatService, ResponsePageCache responseCache, ObjectMapper objectMapper) {
         this.chatService = chatService;
+        this.responseCache = responseCache;
+        this.objectMapper = objectMapper;
     }
 
+    private static final int MAX_HISTORY_PAGE_SIZE = 200;
+    private static final int MAX_SEARCH_PAGE_SIZE = 100;
+    // Ranking keeps the best (page + 1) * size hits, so deep pages are cut off here rather than paid for
+    private static final int MAX_SEARCH_RESULTS = 1000;
+
+    // Cursor-paged: returns the newest "limit" messages older than "before" (oldest first),
+    // plus the cursor for the next older page, or null when the start of the conversation is reached.
+    // Served from the response cache when the page has not changed, as 304 when the client has it already.
     @GetMapping("/conversation/{user1}/{user2}")
     public ResponseEntity<?> getConversationHistory(
             @PathVariable String user1,
-            @PathVariable String user2) {
+            @PathVariable String user2,
+            @RequestParam(required = false) Long before,
+            @RequestParam(defaultValue = "50") int limit) {
         try {
-            List<Message> messages = chatService.getConversationHistory(user1, user2);
+            int pageSize = Math.max(1, Math.min(limit, MAX_HISTORY_PAGE_SIZE));
+            long cursor = before != null ? before : Long.MAX_VALUE;
+            ResponsePageCache.PageKey key = ResponsePageCache.history(Message.conversationKey(user1, user2), cursor,
+                    pageSize);
+            ResponsePageCache.Page cached = responseCache.get(key);
+            if (cached != null) {
+                return page(cached);
+            }
+
+            long generation = responseCache.generation(user1, user2);
+            List<Message> messages = new ArrayList<>(chatService.getConversationHistory(user1, user2, cursor, pageSize));
+            Collections.reverse(messages);
 
             List<Map<String, Object>> messageList = messages.stream()
                     .map(msg -> {
@@ -43,7 +79,13 @@ public class ChatController {
                     })
                     .collect(Collectors.toList());
 
-            return ResponseEntity.ok(Map.of("messages", messageList));
+            Map<String, Object> response = new HashMap<>();
+            response.put("messages", messageList);
+            response.put("nextBefore", messages.size() == pageSize ? messages.get(0).getId() : null);
+            ResponsePageCache.Page page = ResponsePageCache.Page.of(objectMapper.writeValueAsBytes(response));
+            long[] undelivered = messages.stream().filter(msg -> !msg.isDelivered()).mapToLong(Message::getId).toArray();
+            responseCache.put(key, page, undelivered, generation, user1, user2);
+            return page(page);
 
         } catch (Exception e) {
             return ResponseEntity.internalServerError()
@@ -54,28 +96,101 @@ public class ChatController {
     @GetMapping("/recent/{username}")
     public ResponseEntity<?> getRecentConversations(@PathVariable String username) {
         try {
-            List<Message> messages = chatService.getRecentConversations(username);
+            ResponsePageCache.PageKey key = ResponsePageCache.recent(username);
+            ResponsePageCache.Page cached = responseCache.get(key);
+            if (cached != null) {
+                return page(cached);
+            }
 
-            List<Map<String, Object>> conversationList = messages.stream()
-                    .map(msg -> {
-                        String contactUser = msg.getSenderUsername().equals(username)
-                                ? msg.getRecipientUsername()
-                                : msg.getSenderUsername();
+            long generation = responseCache.generation(username, username);
+            List<ConversationSummary> summaries = chatService.getRecentConversations(username);
+            // How far the user has read each conversation, and how far each contact has read the user's side
+            Map<String, Long> readUpTo = chatService.getReadUpTo(username);
+            Map<String, Long> readByContacts = chatService.getReadByContacts(username);
 
+            List<Map<String, Object>> conversationList = summaries.stream()
+                    .map(summary -> {
                         Map<String, Object> map = new HashMap<>();
-                        map.put("contactUser", contactUser);
-                        map.put("lastMessage", msg.getContent());
-                        map.put("lastMessageTime", msg.getSentAt().toString());
-                        map.put("lastMessageSender", msg.getSenderUsername());
+                        map.put("contactUser", summary.getContactUsername());
+                        map.put("lastMessageId", summary.getLastMessageId());
+                        map.put("lastMessage", summary.getLastPreview());
+                        map.put("lastMessageTime", summary.getLastTime().toString());
+                        map.put("lastMessageSender", summary.getLastMessageSender());
+                        map.put("unreadCount", summary.getUnreadCount());
+                        map.put("readUpTo", readUpTo.getOrDefault(summary.getContactUsername(), 0L));
+                        map.put("contactReadUpTo", readByContacts.getOrDefault(summary.getContactUsername(), 0L));
                         return map;
                     })
                     .collect(Collectors.toList());
 
-            return ResponseEntity.ok(Map.of("conversations", conversationList));
+            ResponsePageCache.Page page = ResponsePageCache.Page.of(
+                    objectMapper.writeValueAsBytes(Map.of("conversations", conversationList)));
+            responseCache.put(key, page, new long[0], generation, username, username);
+            return page(page);
 
         } catch (Exception e) {
             return ResponseEntity.internalServerError()
                     .body(Map.of("error", "Failed to fetch recent conversations"));
         }
     }
-}
\ No newline at end of file
+
+    // Full-text search over the user's own direct messages, ranked, paged by page number. Multiple terms must
+    // all occur in a message. "total" counts every match, including those past the last page offered.
+    @GetMapping("/search")
+    public ResponseEntity<?> search(@RequestParam String username,
+                                    @RequestParam String q,
+                                    @RequestParam(defaultValue = "0") int page,
+                                    @RequestParam(defaultValue = "20") int size) {
+        if (!chatService.isSearchEnabled()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "Search is disabled"));
+        }
+        try {
+            int pageNumber = Math.max(page, 0);
+            int pageSize = Math.max(1, Math.min(size, MAX_SEARCH_PAGE_SIZE));
+            int from = (int) Math.min((long) pageNumber * pageSize, MAX_SEARCH_RESULTS);
+            int to = Math.min(from + pageSize, MAX_SEARCH_RESULTS);
+            SearchResult result = chatService.searchMessages(username, q, to);
+            List<SearchHit> hits = result.hits().subList(Math.min(from, result.hits().size()), result.hits().size());
+            Map<Long, Message> messages = chatService.getSearchHitMessages(username, hits);
+
+            List<Map<String, Object>> resultList = new ArrayList<>();
+            for (SearchHit hit : hits) {
+                Message msg = messages.get(hit.messageId());
+                if (msg == null) {
+                    continue;
+                }
+                Map<String, Object> map = new HashMap<>();
+                map.put("id", msg.getId());
+                map.put("sender", msg.getSenderUsername());
+                map.put("recipient", msg.getRecipientUsername());
+                map.put("content", msg.getContent());
+                map.put("sentAt", msg.getSentAt().toString());
+                map.put("score", hit.score());
+                resultList.add(map);
+            }
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("results", resultList);
+            response.put("total", result.totalMatches());
+            response.put("nextPage", to < Math.min(result.totalMatches(), MAX_SEARCH_RESULTS) ? pageNumber + 1 : null);
+            // Still loading segments or reading the store after a restart; results may be incomplete
+            response.put("indexing", chatService.isSearchCatchingUp());
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "Failed to search messages"));
+        }
+    }
+
+    // Spring answers 304 without a body when the request's If-None-Match matches the ETag. no-cache makes
+    // browsers revalidate every time instead of showing a stale page.
+    private static ResponseEntity<byte[]> page(ResponsePageCache.Page page) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(CacheControl.noCache())
+                .eTag(page.etag())
+                .body(page.body());
+    }
+}
@@ -0,0 +1,136 @@
+package org.example.controller;
+
+import org.example.entity.Room;
+import org.example.entity.RoomMessage;
+import org.example.service.RoomService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@RestController
+@RequestMapping("/api/rooms")
+public class RoomController {
+
+    private static final int MAX_HISTORY_PAGE_SIZE = 200;
+
+    private final RoomService roomService;
+
+    public RoomController(RoomService roomService) {
+        this.roomService = roomService;
+    }
+
+    @PostMapping
+    public ResponseEntity<?> createRoom(@RequestBody Map<String, String> request) {
+        try {
+            String name = request.get("name");
+            String username = request.get("username");
+
+            if (name == null || username == null || name.trim().isEmpty()) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Room name and username are required"));
+            }
+
+            Room room = roomService.createRoom(name.trim(), username);
+            return ResponseEntity.ok(Map.of("id", room.getId(), "name", room.getName()));
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body(Map.of("error", "Failed to create room"));
+        }
+    }
+
+    @PostMapping("/{roomId}/members")
+    public ResponseEntity<?> joinRoom(@PathVariable Long roomId, @RequestBody Map<String, String> request) {
+        try {
+            String username = request.get("username");
+            if (username == null) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Username is required"));
+            }
+
+            roomService.join(roomId, username);
+            return ResponseEntity.ok(Map.of("message", "Joined room", "roomId", roomId));
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body(Map.of("error", "Failed to join room"));
+        }
+    }
+
+    @DeleteMapping("/{roomId}/members/{username}")
+    public ResponseEntity<?> leaveRoom(@PathVariable Long roomId, @PathVariable String username) {
+        try {
+            roomService.leave(roomId, username);
+            return ResponseEntity.ok(Map.of("message", "Left room", "roomId", roomId));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body(Map.of("error", "Failed to leave room"));
+        }
+    }
+
+    @GetMapping
+    public ResponseEntity<?> getRooms(@RequestParam String username) {
+        try {
+            List<Map<String, Object>> roomList = roomService.getRooms(username).stream()
+                    .map(room -> {
+                        Map<String, Object> map = new HashMap<>();
+                        map.put("id", room.getId());
+                        map.put("name", room.getName());
+                        map.put("createdBy", room.getCreatedBy());
+                        return map;
+                    })
+                    .collect(Collectors.toList());
+
+            return ResponseEntity.ok(Map.of("rooms", roomList));
+
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body(Map.of("error", "Failed to fetch rooms"));
+        }
+    }
+
+    // Cursor-paged like conversation history: the newest "limit" messages older than "before" (oldest first)
+    @GetMapping("/{roomId}/messages")
+    public ResponseEntity<?> getRoomHistory(
+            @PathVariable Long roomId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(defaultValue = "50") int limit) {
+        try {
+            int pageSize = Math.max(1, Math.min(limit, MAX_HISTORY_PAGE_SIZE));
+            List<RoomMessage> messages = new ArrayList<>(roomService.getRoomHistory(
+                    roomId, before != null ? before : Long.MAX_VALUE, pageSize));
+            Collections.reverse(messages);
+
+            List<Map<String, Object>> messageList = messages.stream()
+                    .map(msg -> {
+                        Map<String, Object> map = new HashMap<>();
+                        map.put("id", msg.getId());
+                        map.put("sender", msg.getSenderUsername());
+                        map.put("content", msg.getContent());
+                        map.put("sentAt", msg.getSentAt().toString());
+                        return map;
+                    })
+                    .collect(Collectors.toList());
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("messages", messageList);
+            response.put("nextBefore", messages.size() == pageSize ? messages.get(0).getId() : null);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "Failed to fetch room history"));
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+// A node sharing the database, whether or not it holds any sessions. Broadcasts go to every node whose
+// heartbeat is recent, so a node that has just started still receives presence for the users it will serve.
+// The id floors of the live nodes make up the cluster's id horizon.
+@Entity
+@Table(name = "cluster_nodes")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterNode {
+    @Id
+    @Column(name = "node_id")
+    private String nodeId;
+
+    @Column(name = "heartbeat_at", nullable = false)
+    private LocalDateTime heartbeatAt;
+
+    // The lowest message id the node may still commit, published with each heartbeat. It only grows, so a stale
+    // value errs low.
+    @Column(name = "id_floor", nullable = false)
+    private long idFloor;
+}
@@ -0,0 +1,57 @@
+package org.example.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// A frame waiting to be picked up by the node it is addressed to
+@Entity
+@Table(name = "cluster_outbox", indexes = {
+        @Index(name = "idx_cluster_outbox_node", columnList = "target_node, id")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterOutboxEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "target_node", nullable = false)
+    private String targetNode;
+
+    // Null on rows written before the column existed, which were all chat, room or presence frames
+    @Column(name = "frame_type", length = 32)
+    private String frameType;
+
+    @Column(name = "target_user")
+    private String targetUser;
+
+    @Column(name = "message_id")
+    private Long messageId;
+
+    @Column(name = "room_id")
+    private Long roomId;
+
+    @Column(nullable = false, length = 100000)
+    private String payload;
+
+    public ClusterOutboxEntry(String targetNode, String frameType, String targetUser, Long messageId, Long roomId,
+                              String payload) {
+        this.targetNode = targetNode;
+        this.frameType = frameType;
+        this.targetUser = targetUser;
+        this.messageId = messageId;
+        this.roomId = roomId;
+        this.payload = payload;
+    }
+}
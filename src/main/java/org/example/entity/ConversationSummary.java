@@ -0,0 +1,78 @@
+package org.example.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+// One row per (owner, contact): the owner's inbox entry for that contact, kept up to date by
+// MessageWriter as messages are stored and delivered
+@Entity
+@Table(name = "conversation_summary", indexes = {
+        @Index(name = "idx_conversation_summary_owner", columnList = "owner_username, last_message_id")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConversationSummary {
+
+    static final int PREVIEW_LENGTH = 200;
+
+    // See summaryId(); assigned so a whole batch of rows can be loaded with one findAllById
+    @Id
+    @Column(length = 520)
+    private String id;
+
+    @Column(name = "owner_username", nullable = false)
+    private String ownerUsername;
+
+    @Column(name = "contact_username", nullable = false)
+    private String contactUsername;
+
+    @Column(name = "last_message_id", nullable = false)
+    private Long lastMessageId;
+
+    @Column(name = "last_message_sender", nullable = false)
+    private String lastMessageSender;
+
+    @Column(name = "last_preview", nullable = false, length = PREVIEW_LENGTH)
+    private String lastPreview;
+
+    @Column(name = "last_time", nullable = false)
+    private LocalDateTime lastTime;
+
+    // Messages from the contact the owner has not acknowledged yet
+    @Column(name = "unread_count", nullable = false)
+    private int unreadCount;
+
+    public ConversationSummary(String ownerUsername, String contactUsername) {
+        this.id = summaryId(ownerUsername, contactUsername);
+        this.ownerUsername = ownerUsername;
+        this.contactUsername = contactUsername;
+    }
+
+    public void applyMessage(Message message) {
+        if (lastMessageId != null && lastMessageId > message.getId()) {
+            return;
+        }
+        this.lastMessageId = message.getId();
+        this.lastMessageSender = message.getSenderUsername();
+        this.lastPreview = message.getContent().length() > PREVIEW_LENGTH
+                ? message.getContent().substring(0, PREVIEW_LENGTH)
+                : message.getContent();
+        this.lastTime = message.getSentAt();
+    }
+
+    // Directional, unlike Message.conversationKey: alice's row for bob differs from bob's row for alice
+    public static String summaryId(String ownerUsername, String contactUsername) {
+        return ownerUsername.length() + ":" + ownerUsername + "|" + contactUsername;
+    }
+}
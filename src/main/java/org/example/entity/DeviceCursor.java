@@ -0,0 +1,85 @@
+package org.example.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// Sync position of one of a user's devices, direct and room messages alike since they share one id sequence.
+// The device has received every message addressed to the user up to lastAckedId, and the ids in ackedAbove past
+// it. Ids are not committed in order, so lastAckedId stays at or below the horizon, under which no message is
+// still on its way to storage; what the device acknowledges beyond it is kept as ackedAbove.
+@Entity
+@Table(name = "device_cursors", indexes = {
+        @Index(name = "idx_device_cursors_user", columnList = "username")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeviceCursor {
+
+    // See cursorId(); assigned so the cursor is found by primary key on every reconnect
+    @Id
+    @Column(length = 520)
+    private String id;
+
+    @Column(nullable = false)
+    private String username;
+
+    @Column(name = "device_id", nullable = false)
+    private String deviceId;
+
+    @Column(name = "last_acked_id", nullable = false)
+    private long lastAckedId;
+
+    // Comma separated, at most MAX_ACKED_ABOVE of the highest; see encodeAckedAbove()
+    @Column(name = "acked_above", length = 4000)
+    private String ackedAbove;
+
+    @Column(name = "last_seen_at", nullable = false)
+    private LocalDateTime lastSeenAt;
+
+    // Beyond this many only the highest ids are kept. Dropping one means a duplicate delivery, not a lost message.
+    public static final int MAX_ACKED_ABOVE = 200;
+
+    public DeviceCursor(String username, String deviceId, long lastAckedId) {
+        this.id = cursorId(username, deviceId);
+        this.username = username;
+        this.deviceId = deviceId;
+        this.lastAckedId = lastAckedId;
+        this.lastSeenAt = LocalDateTime.now();
+    }
+
+    public static String cursorId(String username, String deviceId) {
+        return username.length() + ":" + username + "|" + deviceId;
+    }
+
+    public List<Long> ackedAboveIds() {
+        if (ackedAbove == null || ackedAbove.isEmpty()) {
+            return List.of();
+        }
+        return Arrays.stream(ackedAbove.split(",")).map(Long::valueOf).toList();
+    }
+
+    // Null when there are none
+    public static String encodeAckedAbove(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return null;
+        }
+        return ids.stream().sorted(Comparator.reverseOrder()).limit(MAX_ACKED_ABOVE)
+                .map(String::valueOf).collect(Collectors.joining(","));
+    }
+}
@@ -2,9 +2,8 @@ package org.example.entity;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -14,14 +13,22 @@ import lombok.Setter;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "messages")
+@Table(name = "messages", indexes = {
+        // Keyset-paged conversation history
+        @Index(name = "idx_messages_conversation", columnList = "conversation_key, id"),
+        // Where a new device starts syncing: the user's oldest undelivered message
+        @Index(name = "idx_messages_undelivered", columnList = "recipient_username, delivered, id"),
+        // Keyset-paged device sync, a range scan from the device's cursor
+        @Index(name = "idx_messages_recipient", columnList = "recipient_username, id")
+})
 @Getter
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
 public class Message {
+    // Assigned by MessageIdAllocator from messages_seq before the row is written,
+    // so the sender gets the id back without waiting for the INSERT
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
     @Column(name = "sender_username", nullable = false)
@@ -30,6 +37,10 @@ public class Message {
     @Column(name = "recipient_username", nullable = false)
     private String recipientUsername;
 
+    // Same value for both directions of a conversation, see conversationKey()
+    @Column(name = "conversation_key", nullable = false, length = 520)
+    private String conversationKey;
+
     @Column(nullable = false, length = 1000)
     private String content;
 
@@ -45,7 +56,16 @@ public class Message {
     public Message(String senderUsername, String recipientUsername, String content) {
         this.senderUsername = senderUsername;
         this.recipientUsername = recipientUsername;
+        this.conversationKey = conversationKey(senderUsername, recipientUsername);
         this.content = content;
         this.sentAt = LocalDateTime.now();
     }
-}
\ No newline at end of file
+
+    // Canonical key for the pair of users, independent of who sent the message.
+    // The length prefix keeps names containing the separator from colliding.
+    public static String conversationKey(String user1, String user2) {
+        String first = user1.compareTo(user2) <= 0 ? user1 : user2;
+        String second = first.equals(user1) ? user2 : user1;
+        return first.length() + ":" + first + "|" + second;
+    }
+}
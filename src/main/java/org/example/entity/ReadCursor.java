@@ -0,0 +1,48 @@
+package org.example.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+// How far a user has read one conversation: every message from the contact up to lastReadId has been seen.
+// Written in batches by ReadStateService, never per receipt.
+@Entity
+@Table(name = "read_cursors", indexes = {
+        @Index(name = "idx_read_cursors_reader", columnList = "reader_username"),
+        @Index(name = "idx_read_cursors_contact", columnList = "contact_username")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReadCursor {
+
+    // See cursorId(); assigned so the batch upsert can match rows by primary key
+    @Id
+    @Column(length = 520)
+    private String id;
+
+    @Column(name = "reader_username", nullable = false)
+    private String readerUsername;
+
+    @Column(name = "contact_username", nullable = false)
+    private String contactUsername;
+
+    @Column(name = "last_read_id", nullable = false)
+    private long lastReadId;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    public static String cursorId(String readerUsername, String contactUsername) {
+        return readerUsername.length() + ":" + readerUsername + "|" + contactUsername;
+    }
+}
@@ -0,0 +1,64 @@
+package org.example.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+// A user's membership of a room. Room messages are stored once; instead of a delivered flag per copy,
+// each member has a cursor: every room message with an id up to lastDeliveredId has been acked by at
+// least one of the member's devices. Ids do not commit in id order, so the cursor moves only as far as the
+// acking device's watermark, which stays below the id horizon. Each device's own position is its DeviceCursor.
+@Entity
+@Table(name = "room_memberships", indexes = {
+        @Index(name = "idx_room_memberships_room", columnList = "room_id"),
+        @Index(name = "idx_room_memberships_user", columnList = "username")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class RoomMembership {
+
+    // See membershipId(); assigned so a membership can be found without a secondary lookup
+    @Id
+    @Column(length = 300)
+    private String id;
+
+    @Column(name = "room_id", nullable = false)
+    private Long roomId;
+
+    @Column(nullable = false)
+    private String username;
+
+    @Column(name = "joined_at", nullable = false)
+    private LocalDateTime joinedAt;
+
+    @Column(name = "last_delivered_id", nullable = false)
+    private long lastDeliveredId;
+
+    // The room's latest message id when the user joined; device sync never goes back past it
+    @Column(name = "joined_after_id", nullable = false)
+    private long joinedAfterId;
+
+    public RoomMembership(Long roomId, String username, long lastDeliveredId) {
+        this.id = membershipId(roomId, username);
+        this.roomId = roomId;
+        this.username = username;
+        this.joinedAt = LocalDateTime.now();
+        this.lastDeliveredId = lastDeliveredId;
+        this.joinedAfterId = lastDeliveredId;
+    }
+
+    // The room id is numeric, so the first ':' always ends it and no two memberships collide
+    public static String membershipId(Long roomId, String username) {
+        return roomId + ":" + username;
+    }
+}
@@ -0,0 +1,48 @@
+package org.example.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+// A message posted to a room, stored once however many members the room has
+@Entity
+@Table(name = "room_messages", indexes = {
+        // Keyset-paged room history and member catch-up from their cursor
+        @Index(name = "idx_room_messages_room", columnList = "room_id, id")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class RoomMessage {
+    // Drawn from the same messages_seq as direct messages, so one cumulative ack covers both
+    @Id
+    private Long id;
+
+    @Column(name = "room_id", nullable = false)
+    private Long roomId;
+
+    @Column(name = "sender_username", nullable = false)
+    private String senderUsername;
+
+    @Column(nullable = false, length = 1000)
+    private String content;
+
+    @Column(name = "sent_at", nullable = false)
+    private LocalDateTime sentAt;
+
+    public RoomMessage(Long roomId, String senderUsername, String content) {
+        this.roomId = roomId;
+        this.senderUsername = senderUsername;
+        this.content = content;
+        this.sentAt = LocalDateTime.now();
+    }
+}
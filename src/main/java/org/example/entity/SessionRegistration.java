@@ -0,0 +1,52 @@
+package org.example.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+// A node an online user is connected to, used when several nodes share one database.
+// One row per user and node, however many of the user's devices that node holds.
+@Entity
+@Table(name = "session_registry", indexes = {
+        @Index(name = "idx_session_registry_node", columnList = "node_id"),
+        @Index(name = "idx_session_registry_user", columnList = "username")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SessionRegistration {
+    // See registrationId()
+    @Id
+    @Column(length = 520)
+    private String id;
+
+    @Column(nullable = false)
+    private String username;
+
+    @Column(name = "node_id", nullable = false)
+    private String nodeId;
+
+    // Refreshed by the owning node; rows of a node that stopped heartbeating are ignored
+    @Column(name = "heartbeat_at", nullable = false)
+    private LocalDateTime heartbeatAt;
+
+    public SessionRegistration(String username, String nodeId) {
+        this.id = registrationId(username, nodeId);
+        this.username = username;
+        this.nodeId = nodeId;
+        this.heartbeatAt = LocalDateTime.now();
+    }
+
+    public static String registrationId(String username, String nodeId) {
+        return username.length() + ":" + username + "|" + nodeId;
+    }
+}
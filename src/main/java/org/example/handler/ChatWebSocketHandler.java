@@ -1,180 +1,1070 @@
 package org.example.handler;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.exc.StreamConstraintsException;
+import org.example.cluster.MessageBus;
+import org.example.cluster.RoutedFrame;
+import org.example.cluster.SessionRegistry;
+import org.example.entity.DeviceCursor;
 import org.example.entity.Message;
+import org.example.entity.RoomMembership;
+import org.example.entity.RoomMessage;
+import org.example.handler.OutboundQueue.FrameClass;
+import org.example.metrics.ChatMetrics;
+import org.example.protocol.FrameCodec;
+import org.example.protocol.InboundFrame;
+import org.example.protocol.OutboundFrame;
+import org.example.protocol.PreparedFrame;
+import org.example.protocol.WireEncoding;
 import org.example.service.ChatService;
+import org.example.service.RoomService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
-import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.sockjs.transport.SockJsSession;
 
-import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
 
 @Component
 public class ChatWebSocketHandler implements WebSocketHandler {
 
     Logger logger = LoggerFactory.getLogger(ChatWebSocketHandler.class);
 
+    // Session attribute holding ids sent to the session but not yet acknowledged by the client
+    private static final String UNACKED_MESSAGES = "unackedMessages";
+    // Same for room messages, id to room id, so an ack can move each room's cursor
+    private static final String UNACKED_ROOM_MESSAGES = "unackedRoomMessages";
+    static final String REPLAY_STATE = "replayState";
+    private static final String DEVICE_ID = "deviceId";
+    private static final String OUTBOUND_QUEUE = "outboundQueue";
+    private static final String WIRE_ENCODING = "wireEncoding";
+    // Device cursor carried by a valid resume token, for replay to start from if the database is behind it
+    private static final String RESUME = "resume";
+    // 1012: the client should reconnect, after the delay given in the reconnect frame
+    private static final CloseStatus DRAIN_CLOSE_STATUS = CloseStatus.SERVICE_RESTARTED.withReason("Node shutting down");
+
+    private static final Set<String> INBOUND_TYPES = Set.of("authenticate", "chat", "room_chat", "get_users", "ack",
+            "typing", "read");
+
     private final ChatService chatService;
-    private final ObjectMapper objectMapper;
+    private final RoomService roomService;
+    private final FrameCodec frameCodec;
+    private final SessionRegistry sessionRegistry;
+    private final MessageBus messageBus;
+    private final ChatMetrics metrics;
+    private final Executor replayExecutor;
+    private final int replayPageSize;
+    private final int replayMessagesPerFrame;
+    private final int replayWindow;
+    private final long gapCheckIntervalNanos;
+
+    // Active WebSocket sessions by username, one per connected device. Lists are copy-on-write: sessions
+    // come and go rarely compared with fan-out reads. Adds and removes hold the map's monitor.
+    private final Map<String, List<WebSocketSession>> activeSessions = new ConcurrentHashMap<>();
+
+    // Presence changes not broadcast yet, latest state per user (true = online)
+    private final Map<String, Boolean> pendingPresence = new LinkedHashMap<>();
+    private final AtomicBoolean presenceFlushScheduled = new AtomicBoolean();
+    private final TaskScheduler presenceScheduler;
+    private final long presenceWindowMs;
+
+    private final Executor outboundExecutor;
+    private final int outboundBufferSizeLimit;
+    private final long outboundSendTimeLimitMs;
+    private final int fanoutChunkSize;
+
+    private final InboundRateLimiter rateLimiter;
+    private final int maxFrameSize;
+
+    private final TaskScheduler outboundBatchScheduler;
+    private final long outboundBatchWindowMs;
+    private final int outboundBatchMaxBytes;
+
+    private final TypingTracker typingTracker;
+    // Read positions not yet sent out, highest per (reader, contact); cumulative, so only the latest matters
+    private final Map<ReadPosition, Long> pendingReads = new LinkedHashMap<>();
+    private final AtomicBoolean readFlushScheduled = new AtomicBoolean();
+    private final long readWindowMs;
 
-    // Map to store active WebSocket sessions by username
-    private final Map<String, WebSocketSession> activeSessions = new ConcurrentHashMap<>();
+    private final ResumeTokens resumeTokens;
+    // Set when the node starts draining, and hands out the reconnect delay of each session closed from then on
+    private volatile LongSupplier drainReconnectDelay;
+    // Users whose last session here was closed by the drain; their offline presence goes out in one delta
+    private final Set<String> drainedUsers = ConcurrentHashMap.newKeySet();
 
-    public ChatWebSocketHandler(ChatService chatService, ObjectMapper objectMapper) {
+    public ChatWebSocketHandler(ChatService chatService, RoomService roomService, FrameCodec frameCodec,
+                                SessionRegistry sessionRegistry, MessageBus messageBus, ChatMetrics metrics,
+                                @Qualifier("replayExecutor") Executor replayExecutor,
+                                @Value("${chat.replay.page-size:200}") int replayPageSize,
+                                @Value("${chat.replay.messages-per-frame:50}") int replayMessagesPerFrame,
+                                @Value("${chat.replay.max-in-flight:500}") int replayWindow,
+                                @Value("${chat.replay.gap-check-interval-ms:1000}") long gapCheckIntervalMs,
+                                @Qualifier("presenceScheduler") TaskScheduler presenceScheduler,
+                                @Value("${chat.presence.coalesce-window-ms:50}") long presenceWindowMs,
+                                @Qualifier("outboundExecutor") Executor outboundExecutor,
+                                @Value("${chat.outbound.buffer-size-limit:524288}") int outboundBufferSizeLimit,
+                                @Value("${chat.outbound.send-time-limit-ms:10000}") long outboundSendTimeLimitMs,
+                                @Value("${chat.rooms.fanout-chunk-size:256}") int fanoutChunkSize,
+                                InboundRateLimiter rateLimiter,
+                                @Value("${chat.inbound.max-frame-size:8192}") int maxFrameSize,
+                                TypingTracker typingTracker,
+                                @Value("${chat.read.coalesce-window-ms:250}") long readWindowMs,
+                                @Qualifier("outboundBatchScheduler") TaskScheduler outboundBatchScheduler,
+                                @Value("${chat.outbound.batch-window-ms:5}") long outboundBatchWindowMs,
+                                @Value("${chat.outbound.batch-max-bytes:65536}") int outboundBatchMaxBytes,
+                                ResumeTokens resumeTokens) {
         this.chatService = chatService;
-        this.objectMapper = objectMapper;
+        this.roomService = roomService;
+        this.frameCodec = frameCodec;
+        this.sessionRegistry = sessionRegistry;
+        this.messageBus = messageBus;
+        this.metrics = metrics;
+        this.replayExecutor = replayExecutor;
+        this.replayPageSize = replayPageSize;
+        this.replayMessagesPerFrame = replayMessagesPerFrame;
+        this.replayWindow = replayWindow;
+        this.gapCheckIntervalNanos = TimeUnit.MILLISECONDS.toNanos(gapCheckIntervalMs);
+        this.presenceScheduler = presenceScheduler;
+        this.presenceWindowMs = presenceWindowMs;
+        this.outboundExecutor = outboundExecutor;
+        this.outboundBufferSizeLimit = outboundBufferSizeLimit;
+        this.outboundSendTimeLimitMs = outboundSendTimeLimitMs;
+        this.fanoutChunkSize = fanoutChunkSize;
+        this.rateLimiter = rateLimiter;
+        this.maxFrameSize = maxFrameSize;
+        this.typingTracker = typingTracker;
+        this.readWindowMs = readWindowMs;
+        this.outboundBatchScheduler = outboundBatchScheduler;
+        this.outboundBatchWindowMs = outboundBatchWindowMs;
+        this.outboundBatchMaxBytes = outboundBatchMaxBytes;
+        this.resumeTokens = resumeTokens;
+        messageBus.subscribe(this::deliverRoutedFrame);
+        metrics.gauge("chat.sessions.active", "Authenticated sessions on this node", this::activeSessionCount);
+        metrics.gauge("chat.outbound.buffer.max", "Largest outbound buffer of any session on this node, in bytes",
+                this::largestOutboundBuffer);
     }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
+        session.getAttributes().put(OUTBOUND_QUEUE, new OutboundQueue(session, outboundExecutor,
+                outboundBufferSizeLimit, outboundSendTimeLimitMs,
+                () -> onlineUsersSnapshot(session), () -> continueReplay(session), metrics,
+                outboundBatchScheduler, outboundBatchWindowMs, outboundBatchMaxBytes));
         logger.info("WebSocket connection established: {}", session.getId());
     }
 
     @Override
     public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
-        String payload = (String) message.getPayload();
-        Map<String, Object> messageData = objectMapper.readValue(payload, new TypeReference<>() {});
+        // The container already refuses larger frames on native WebSocket connections; SockJS transports
+        // other than WebSocket arrive here whatever their size
+        if (FrameCodec.payloadSize(message) > maxFrameSize) {
+            metrics.inboundRejected("frame_too_large", "unknown");
+            send(session, new OutboundFrame.ErrorFrame("frame_too_large", null));
+            return;
+        }
+        // Text frames are JSON, binary frames CBOR
+        InboundFrame frame;
+        try {
+            frame = frameCodec.decode(message);
+        } catch (StreamConstraintsException e) {
+            metrics.inboundRejected("content_too_long", "unknown");
+            send(session, new OutboundFrame.ErrorFrame("content_too_long", null));
+            return;
+        }
+        if (frame.type() == null) {
+            return;
+        }
+        String type = INBOUND_TYPES.contains(frame.type()) ? frame.type() : "unknown";
+        metrics.inboundFrame(type);
 
-        String type = (String) messageData.get("type");
+        long retryAfterNanos = rateLimiter.acquire(rateLimitKey(session), frame.type());
+        if (retryAfterNanos > 0) {
+            metrics.inboundRejected("rate_limited", type);
+            // Acks are cumulative, the next one covers a dropped one, so they are dropped without a reply
+            if (!"ack".equals(frame.type())) {
+                send(session, new OutboundFrame.ErrorFrame("rate_limited", frame.recipient(), frame.roomId(),
+                        Math.max(1, TimeUnit.NANOSECONDS.toMillis(retryAfterNanos))));
+            }
+            return;
+        }
 
-        switch (type) {
-            case "authenticate" -> handleAuthentication(session, messageData);
-            case "chat" -> handleChatMessage(session, messageData);
+        switch (frame.type()) {
+            case "authenticate" -> handleAuthentication(session, frame);
+            case "chat" -> handleChatMessage(session, frame);
+            case "room_chat" -> handleRoomMessage(session, frame);
             case "get_users" -> sendOnlineUsers(session);
+            case "ack" -> handleAck(session, frame);
+            case "typing" -> handleTyping(session, frame);
+            case "read" -> handleRead(session, frame);
         }
     }
 
-    private void handleAuthentication(WebSocketSession session, Map<String, Object> messageData)
-            throws IOException {
-        String username = (String) messageData.get("username");
+    // Per user once authenticated, so several devices share one budget; per session before that
+    private static String rateLimitKey(WebSocketSession session) {
+        String username = (String) session.getAttributes().get("username");
+        return username != null ? username : "session:" + session.getId();
+    }
+
+    private void handleAuthentication(WebSocketSession session, InboundFrame frame) {
+        String username = frame.username();
 
         if (username != null && !username.trim().isEmpty()) {
+            // A connection opened before the node began to drain is sent away like the authenticated ones
+            if (drainReconnectDelay != null) {
+                closeForDrain(session);
+                return;
+            }
+            // A client coming back from a drained node passes the token it was given there
+            ResumeTokens.Resume resume = frame.resumeToken() == null ? null : resumeTokens.verify(frame.resumeToken())
+                    .filter(token -> token.username().equals(username))
+                    .orElse(null);
+
+            // A client that does not send a device id gets a fresh one in auth_success and should reuse it;
+            // without it every connection is a new device and starts syncing from the undelivered backlog
+            String deviceId = frame.deviceId() != null && !frame.deviceId().isBlank()
+                    ? frame.deviceId()
+                    : resume != null ? resume.deviceId() : UUID.randomUUID().toString();
+            if (resume != null && resume.deviceId().equals(deviceId)) {
+                session.getAttributes().put(RESUME, resume);
+            }
+
             // Store username in session attributes
             session.getAttributes().put("username", username);
+            session.getAttributes().put(DEVICE_ID, deviceId);
+            session.getAttributes().put(UNACKED_MESSAGES, new ConcurrentSkipListSet<Long>());
+            session.getAttributes().put(UNACKED_ROOM_MESSAGES, new ConcurrentSkipListMap<Long, Long>());
+            session.getAttributes().put(REPLAY_STATE, new ReplayState());
 
-            // Add to active sessions
-            activeSessions.put(username, session);
+            // Add to active sessions, next to the user's other devices
+            if (addSession(username, deviceId, session)) {
+                sessionRegistry.register(username);
+            }
 
             // Update last login time
             chatService.updateLastLogin(username);
 
-            // Send authentication success
-            Map<String, Object> response = Map.of(
-                    "type", "auth_success",
-                    "username", username
-            );
-            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(response)));
+            // Send authentication success, still as JSON, then switch to the requested encoding.
+            // SockJS transports only carry text, so binary encodings are limited to native WebSocket sessions.
+            WireEncoding encoding = WireEncoding.fromName(frame.encoding());
+            if (session instanceof SockJsSession) {
+                encoding = WireEncoding.JSON;
+            }
+            // A client that asks for batching may get any later frame inside an array frame
+            boolean batching = Boolean.TRUE.equals(frame.batching()) && outboundQueue(session).enableBatching();
+            send(session, new OutboundFrame.AuthSuccess(username,
+                    encoding == WireEncoding.JSON ? null : encoding.name().toLowerCase(), deviceId,
+                    batching ? true : null));
+            session.getAttributes().put(WIRE_ENCODING, encoding);
 
-            // Deliver any undelivered messages
-            deliverUndeliveredMessages(username, session);
+            // Deliver whatever this device has missed in the background
+            continueReplay(session);
 
-            // Broadcast updated online users list
-            broadcastOnlineUsers();
+            // Let everyone else know this user is online
+            publishPresence(username, true);
 
             logger.info("User authenticated: {}", username);
         }
     }
 
-    private void handleChatMessage(WebSocketSession session, Map<String, Object> messageData)
-            throws IOException {
+    // Returns true for the user's first session on this node. A new session of a device that is already
+    // connected replaces the old one, which is closed: its unacked messages are replayed to the new one.
+    private boolean addSession(String username, String deviceId, WebSocketSession session) {
+        WebSocketSession replaced = null;
+        boolean first;
+        synchronized (activeSessions) {
+            List<WebSocketSession> sessions = activeSessions.computeIfAbsent(username, key -> new CopyOnWriteArrayList<>());
+            for (WebSocketSession other : sessions) {
+                if (deviceId.equals(other.getAttributes().get(DEVICE_ID))) {
+                    replaced = other;
+                }
+            }
+            if (replaced != null) {
+                sessions.remove(replaced);
+            }
+            first = sessions.isEmpty();
+            sessions.add(session);
+        }
+        if (replaced != null) {
+            try {
+                replaced.close(CloseStatus.POLICY_VIOLATION.withReason("Replaced by a newer session of this device"));
+            } catch (Exception e) {
+                logger.debug("Failed to close replaced session {}: {}", replaced.getId(), e.getMessage());
+            }
+        }
+        return first && replaced == null;
+    }
+
+    // Returns true when the last of the user's sessions on this node is gone
+    private boolean removeSession(String username, WebSocketSession session) {
+        synchronized (activeSessions) {
+            List<WebSocketSession> sessions = activeSessions.get(username);
+            if (sessions == null || !sessions.remove(session) || !sessions.isEmpty()) {
+                return false;
+            }
+            activeSessions.remove(username);
+            return true;
+        }
+    }
+
+    private List<WebSocketSession> localSessions(String username) {
+        return activeSessions.getOrDefault(username, List.of());
+    }
+
+    private void handleChatMessage(WebSocketSession session, InboundFrame frame) {
         String senderUsername = (String) session.getAttributes().get("username");
-        String recipientUsername = (String) messageData.get("recipient");
-        String content = (String) messageData.get("content");
+        String recipientUsername = frame.recipient();
+        String content = frame.content();
 
         if (senderUsername == null || recipientUsername == null || content == null) {
             return;
         }
 
-        // Save message to database
-        Message message = chatService.saveMessage(senderUsername, recipientUsername, content);
+        // Queue the message for persistence; the id is assigned up front so delivery does not wait on the INSERT
+        Message message = chatService.createMessage(senderUsername, recipientUsername, content);
+        try {
+            chatService.saveMessage(message,
+                    persisted -> send(session, new OutboundFrame.MessageSaved(persisted.getId())),
+                    failure -> send(session, OutboundFrame.ErrorFrame.saveFailed(message.getId(), recipientUsername, null)));
+        } catch (RejectedExecutionException e) {
+            // Backpressure: the write-behind queue is full, let the client retry instead of buffering more
+            logger.warn("Rejecting message from {}: {}", senderUsername, e.getMessage());
+            metrics.messageRejected();
+            send(session, new OutboundFrame.ErrorFrame("server_busy", recipientUsername));
+            return;
+        }
+
+        // The message replaces the typing indicator on the recipient's side
+        typingTracker.clear(senderUsername, recipientUsername);
+
+        // Try to deliver immediately if recipient is online, on this node or another one
+        PreparedFrame messageToSend = frameCodec.prepare(new OutboundFrame.ChatMessage(
+                message.getId(), senderUsername, content, message.getSentAt().toString()));
+        boolean recipientOnline = routeToUser(recipientUsername, message.getId(), message.getSentAt(), messageToSend);
+
+        // Send confirmation to sender
+        send(session, new OutboundFrame.MessageSent(message.getId(), recipientUsername, recipientOnline));
+    }
+
+    private void handleRoomMessage(WebSocketSession session, InboundFrame frame) {
+        String senderUsername = (String) session.getAttributes().get("username");
+        Long roomId = frame.roomId();
+        String content = frame.content();
 
-        // Try to deliver immediately if recipient is online
-        WebSocketSession recipientSession = activeSessions.get(recipientUsername);
-        if (recipientSession != null && recipientSession.isOpen()) {
-            Map<String, Object> messageToSend = Map.of(
-                    "type", "message",
-                    "sender", senderUsername,
-                    "content", content,
-                    "timestamp", message.getSentAt().toString()
-            );
+        if (senderUsername == null || roomId == null || content == null) {
+            return;
+        }
+        if (!roomService.isMember(roomId, senderUsername)) {
+            send(session, new OutboundFrame.ErrorFrame("not_a_member", null, roomId));
+            return;
+        }
 
+        // Stored once for the whole room; members' cursors, not per-member rows, track delivery
+        RoomMessage message = roomService.createRoomMessage(roomId, senderUsername, content);
+        try {
+            roomService.saveRoomMessage(message,
+                    persisted -> send(session, new OutboundFrame.MessageSaved(persisted.getId())),
+                    failure -> send(session, OutboundFrame.ErrorFrame.saveFailed(message.getId(), null, roomId)));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Rejecting room message from {}: {}", senderUsername, e.getMessage());
+            metrics.messageRejected();
+            send(session, new OutboundFrame.ErrorFrame("server_busy", null, roomId));
+            return;
+        }
+
+        // Serialized once, then handed to every member's outbound queue here and on the other nodes.
+        // One broadcast per message: each node fans out to its own members, no per-member routing lookups.
+        PreparedFrame messageToSend = frameCodec.prepare(new OutboundFrame.RoomMessage(
+                message.getId(), roomId, senderUsername, content, message.getSentAt().toString()));
+        fanOutToRoom(roomId, message.getId(), message.getSentAt(), messageToSend, session);
+        messageBus.broadcast(new RoutedFrame(messageToSend.type(), null, message.getId(), roomId, messageToSend.json()));
+
+        send(session, new OutboundFrame.RoomMessageSent(message.getId(), roomId));
+    }
+
+    // Offline members get the message from their cursor when they next connect. Large rooms are
+    // split into chunks enqueued in parallel on the outbound executor, so the first and the last
+    // member see the message at about the same time and the sender's thread returns quickly.
+    private void fanOutToRoom(Long roomId, Long messageId, LocalDateTime sentAt, PreparedFrame frame,
+                              WebSocketSession excluded) {
+        List<WebSocketSession> recipients = new ArrayList<>();
+        for (String member : roomService.getMembers(roomId)) {
+            // Every device of the member, including the sender's other devices
+            for (WebSocketSession memberSession : localSessions(member)) {
+                if (memberSession != excluded && memberSession.isOpen()) {
+                    recipients.add(memberSession);
+                }
+            }
+        }
+        if (recipients.size() <= fanoutChunkSize) {
+            deliverToRoomMembers(recipients, roomId, messageId, sentAt, frame);
+            return;
+        }
+        for (int from = 0; from < recipients.size(); from += fanoutChunkSize) {
+            List<WebSocketSession> chunk = recipients.subList(from, Math.min(from + fanoutChunkSize, recipients.size()));
             try {
-                recipientSession.sendMessage(new TextMessage(objectMapper.writeValueAsString(messageToSend)));
-                // Mark as delivered
-                chatService.markMessageAsDelivered(message.getId());
-            } catch (IOException e) {
-                // If sending fails, message remains undelivered in database
-                logger.error("Failed to send message to {} : exception: {}", recipientUsername, e.getMessage());
-                // Remove inactive session
-                activeSessions.remove(recipientUsername);
+                outboundExecutor.execute(() -> deliverToRoomMembers(chunk, roomId, messageId, sentAt, frame));
+            } catch (RejectedExecutionException e) {
+                deliverToRoomMembers(chunk, roomId, messageId, sentAt, frame);
             }
         }
+    }
 
-        // Send confirmation to sender
-        Map<String, Object> confirmation = Map.of(
-                "type", "message_sent",
-                "recipient", recipientUsername,
-                "delivered", recipientSession != null && recipientSession.isOpen()
-        );
-        session.sendMessage(new TextMessage(objectMapper.writeValueAsString(confirmation)));
+    private void deliverToRoomMembers(List<WebSocketSession> recipients, Long roomId, Long messageId,
+                                      LocalDateTime sentAt, PreparedFrame frame) {
+        LocalDateTime now = LocalDateTime.now();
+        for (WebSocketSession recipient : recipients) {
+            NavigableMap<Long, Long> unacked = unackedRoomMessages(recipient);
+            if (unacked == null) {
+                continue;
+            }
+            unacked.put(messageId, roomId);
+            replayState(recipient).sentAbove.add(messageId);
+            // Latency is recorded on the node the message was sent to, as for direct messages
+            if (send(recipient, frame, FrameClass.CHAT) && sentAt != null) {
+                metrics.delivered(Duration.between(sentAt, now), false);
+            }
+        }
+    }
+
+    // Sends a frame to every session of the user, on this node and on the others. Returns false when the
+    // user is offline, in which case a chat message waits for the next device sync.
+    private boolean routeToUser(String username, Long messageId, LocalDateTime sentAt, PreparedFrame frame) {
+        boolean delivered = false;
+        for (WebSocketSession localSession : localSessions(username)) {
+            if (localSession.isOpen() && deliverLocally(localSession, messageId, frame)) {
+                metrics.delivered(Duration.between(sentAt, LocalDateTime.now()), false);
+                delivered = true;
+            }
+        }
+
+        for (String nodeId : sessionRegistry.findNodes(username)) {
+            if (!nodeId.equals(sessionRegistry.localNodeId())) {
+                // Frames cross nodes as JSON; the receiving node re-encodes them for binary sessions
+                messageBus.send(nodeId, new RoutedFrame(frame.type(), username, messageId, null, frame.json()));
+                delivered = true;
+            }
+        }
+        return delivered;
     }
 
-    private void deliverUndeliveredMessages(String username, WebSocketSession session) throws IOException {
-        var undeliveredMessages = chatService.getUndeliveredMessages(username);
+    // Typing and read events are never stored: they go to the user's sessions that are connected right now,
+    // here and on other nodes, and are dropped rather than queued for an offline user or a congested session
+    private void routeEphemeral(String username, PreparedFrame frame) {
+        for (WebSocketSession localSession : localSessions(username)) {
+            if (localSession.isOpen()) {
+                send(localSession, frame, FrameClass.PRESENCE);
+            }
+        }
+        for (String nodeId : sessionRegistry.findNodes(username)) {
+            if (!nodeId.equals(sessionRegistry.localNodeId())) {
+                messageBus.send(nodeId, new RoutedFrame(frame.type(), username, null, null, frame.json()));
+            }
+        }
+    }
 
-        for (Message message : undeliveredMessages) {
-            Map<String, Object> messageToSend = Map.of(
-                    "type", "message",
-                    "sender", message.getSenderUsername(),
-                    "content", message.getContent(),
-                    "timestamp", message.getSentAt().toString()
-            );
+    // Frames forwarded by other nodes for sessions on this one
+    private void deliverRoutedFrame(RoutedFrame frame) {
+        if (frame.roomId() != null) {
+            fanOutToRoom(frame.roomId(), frame.messageId(), null,
+                    frameCodec.prepareJson("room_message", frame.payload()), null);
+            return;
+        }
+        if (frame.targetUser() == null) {
+            // Other untargeted frames are presence broadcasts
+            sendToLocalSessions(frameCodec.prepareJson("presence", frame.payload()));
+            return;
+        }
+        if (frame.type() != null && !"message".equals(frame.type())) {
+            PreparedFrame event = frameCodec.prepareJson(frame.type(), frame.payload());
+            for (WebSocketSession session : localSessions(frame.targetUser())) {
+                if (session.isOpen()) {
+                    send(session, event, FrameClass.PRESENCE);
+                }
+            }
+            return;
+        }
+        PreparedFrame message = frameCodec.prepareJson("message", frame.payload());
+        for (WebSocketSession session : localSessions(frame.targetUser())) {
+            if (session.isOpen()) {
+                deliverLocally(session, frame.messageId(), message);
+            }
+        }
+    }
 
-            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(messageToSend)));
-            chatService.markMessageAsDelivered(message.getId());
+    private boolean deliverLocally(WebSocketSession session, Long messageId, PreparedFrame frame) {
+        if (messageId != null) {
+            // Delivered only once the recipient acks it
+            unackedMessages(session).add(messageId);
+            replayState(session).sentAbove.add(messageId);
         }
+        // If the recipient's queue overflows the session is closed and the message stays undelivered in database
+        return send(session, frame, FrameClass.CHAT);
     }
 
-    private void sendOnlineUsers(WebSocketSession session) throws IOException {
-        Map<String, Object> response = Map.of(
-                "type", "online_users",
-                "users", activeSessions.keySet()
-        );
-        session.sendMessage(new TextMessage(objectMapper.writeValueAsString(response)));
+    // Streams the offline backlog in keyset pages, several messages per frame, and stops whenever
+    // the session has replayWindow messages in flight. handleAck resumes it as the client catches up.
+    // After replay_complete the same task runs the session's gap checks while they are due.
+    private void continueReplay(WebSocketSession session) {
+        ReplayState replay = replayState(session);
+        if (replay == null || (replay.finished && !replay.gapCheckDue()) || !replay.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        replayExecutor.execute(() -> replayBacklog(session, replay));
     }
 
-    private void broadcastOnlineUsers() {
-        Map<String, Object> message = Map.of(
-                "type", "online_users",
-                "users", activeSessions.keySet()
-        );
+    // A session without traffic gets no acks to run its gap checks, so they are also started from here
+    @Scheduled(fixedDelayString = "${chat.replay.gap-check-interval-ms:1000}")
+    public void checkSyncGaps() {
+        activeSessions.values().forEach(sessions -> sessions.forEach(this::continueReplay));
+    }
 
-        String messageJson;
+    void replayBacklog(WebSocketSession session, ReplayState replay) {
+        String username = (String) session.getAttributes().get("username");
         try {
-            messageJson = objectMapper.writeValueAsString(message);
+            if (replay.roomCursors == null) {
+                loadSyncState(session, username, replay);
+            }
+            OutboundQueue outbound = outboundQueue(session);
+            while (session.isOpen()) {
+                int window = replayWindow - inFlight(session);
+                // Also pause while the outbound buffer is half full; the queue resumes replay once it drains
+                if (window <= 0 || outbound.getBufferSize() > outbound.getBufferSizeLimit() / 2) {
+                    break;
+                }
+
+                if (replay.finished) {
+                    if (!fillGaps(session, username, replay, Math.min(window, replayPageSize))) {
+                        break;
+                    }
+                    continue;
+                }
+                if (replay.directFinished) {
+                    if (!replayRoomPage(session, username, replay, Math.min(window, replayPageSize))) {
+                        replay.finished = true;
+                        metrics.backlogReplayed(replay.replayedCount);
+                        send(session, new OutboundFrame.ReplayComplete());
+                        break;
+                    }
+                    continue;
+                }
+
+                List<Message> page = chatService.getMessagesSince(
+                        username, replay.lastSentId, Math.min(window, replayPageSize));
+                if (page.isEmpty()) {
+                    // Direct backlog done: everything up to the horizon read before it began was committed and
+                    // scanned. Catch up on rooms before reporting replay_complete.
+                    replay.directFinished = true;
+                    replay.verifiedUpTo = Math.max(replay.verifiedUpTo, replay.replayHorizon);
+                    advanceDeviceCursor(session);
+                    continue;
+                }
+                sendBacklog(session, replay, page);
+                replay.lastSentId = page.get(page.size() - 1).getId();
+                replay.verifiedUpTo = Math.max(replay.verifiedUpTo, Math.min(replay.lastSentId, replay.replayHorizon));
+            }
         } catch (Exception e) {
-            logger.error("Failed to serialize online users message");
+            logger.error("Backlog replay for {} failed: {}", username, e.getMessage());
             return;
+        } finally {
+            replay.scheduled.set(false);
         }
 
-        activeSessions.values().removeIf(session -> !session.isOpen());
-        activeSessions.forEach((username, session) -> {
-            try {
-                session.sendMessage(new TextMessage(messageJson));
-            } catch (IOException e) {
-                logger.error("Failed to send online users to {}", username);
+        // An ack or a drained buffer may have arrived after the checks but before the flag was cleared
+        OutboundQueue outbound = outboundQueue(session);
+        if ((!replay.finished || replay.gapCheckDue()) && session.isOpen() && inFlight(session) < replayWindow
+                && outbound.getBufferSize() <= outbound.getBufferSizeLimit() / 2) {
+            continueReplay(session);
+        }
+    }
+
+    // Rescans up to the id horizon for messages that committed after replay, or the previous gap fill, had passed
+    // their ids: ones handed out before the session could be routed to but stored only later. Direct messages
+    // first, then the user's rooms. Returns false when there is nothing more to do until the next check.
+    private boolean fillGaps(WebSocketSession session, String username, ReplayState replay, int limit) {
+        if (replay.gapFillUpTo == 0) {
+            replay.nextGapCheckNanos = System.nanoTime() + gapCheckIntervalNanos;
+            long horizon = sessionRegistry.idHorizon();
+            if (horizon <= replay.verifiedUpTo) {
+                return false;
             }
+            replay.gapFillUpTo = horizon;
+            replay.gapFillRooms = false;
+            replay.lastSentId = replay.verifiedUpTo;
+        }
+        long upTo = replay.gapFillUpTo;
+        if (!replay.gapFillRooms) {
+            List<Message> page = chatService.getMessagesSince(username, replay.lastSentId, limit);
+            sendBacklog(session, replay, page.stream().filter(message -> message.getId() <= upTo).toList());
+            if (page.isEmpty() || page.get(page.size() - 1).getId() >= upTo) {
+                replay.gapFillRooms = true;
+                replay.lastSentId = replay.verifiedUpTo;
+            } else {
+                replay.lastSentId = page.get(page.size() - 1).getId();
+            }
+            return true;
+        }
+
+        // Never before the user joined a room, as in catch-up
+        Map<Long, Long> joinedAfter = new HashMap<>();
+        roomService.getMemberships(username).forEach(m -> joinedAfter.put(m.getRoomId(), m.getJoinedAfterId()));
+        List<RoomMessage> page = joinedAfter.isEmpty() ? List.of()
+                : roomService.getRoomMessagesBetween(joinedAfter.keySet(), replay.lastSentId, upTo, limit);
+        Map<Long, List<RoomMessage>> byRoom = new LinkedHashMap<>();
+        for (RoomMessage message : page) {
+            if (message.getId() > joinedAfter.get(message.getRoomId())) {
+                byRoom.computeIfAbsent(message.getRoomId(), roomId -> new ArrayList<>()).add(message);
+            }
+        }
+        byRoom.forEach((roomId, messages) -> sendRoomBacklog(session, replay, roomId, messages));
+        if (page.size() < limit) {
+            replay.verifiedUpTo = Math.max(replay.verifiedUpTo, upTo);
+            replay.gapFillUpTo = 0;
+            advanceDeviceCursor(session);
+            return false;
+        }
+        replay.lastSentId = page.get(page.size() - 1).getId();
+        return true;
+    }
+
+    // Sends the messages this session has not sent yet, several per frame
+    private void sendBacklog(WebSocketSession session, ReplayState replay, List<Message> messages) {
+        NavigableSet<Long> unacked = unackedMessages(session);
+        for (int from = 0; from < messages.size(); from += replayMessagesPerFrame) {
+            List<OutboundFrame.BatchEntry> batch = new ArrayList<>();
+            // Recorded only once the frame is queued; a session that overflowed gets it again on reconnect
+            List<Duration> latencies = new ArrayList<>();
+            LocalDateTime now = LocalDateTime.now();
+            for (Message message : messages.subList(from, Math.min(from + replayMessagesPerFrame, messages.size()))) {
+                // Skip messages that already went out live since the session connected, or that the device
+                // acknowledged past its cursor before
+                if (replay.sentAbove.add(message.getId())) {
+                    unacked.add(message.getId());
+                    latencies.add(Duration.between(message.getSentAt(), now));
+                    batch.add(new OutboundFrame.BatchEntry(message.getId(), message.getSenderUsername(),
+                            message.getContent(), message.getSentAt().toString()));
+                }
+            }
+            if (!batch.isEmpty()) {
+                replay.replayedCount += batch.size();
+                if (send(session, frameCodec.prepare(new OutboundFrame.MessageBatch(batch)), FrameClass.CHAT)) {
+                    latencies.forEach(latency -> metrics.delivered(latency, true));
+                }
+            }
+        }
+    }
+
+    // Where this device's sync starts. A known device resumes from its own cursor, in direct messages and in
+    // every room (never before the user joined it), or from its resume token where that is further along.
+    // A new device starts at what no device has acknowledged yet. Runs after the session was registered, so
+    // every message with an id from liveFrom on is routed to it live.
+    private void loadSyncState(WebSocketSession session, String username, ReplayState replay) {
+        String deviceId = (String) session.getAttributes().get(DEVICE_ID);
+        ResumeTokens.Resume resume = (ResumeTokens.Resume) session.getAttributes().get(RESUME);
+        replay.liveFrom = chatService.idCeiling();
+        replay.replayHorizon = sessionRegistry.idHorizon();
+        replay.nextGapCheckNanos = System.nanoTime();
+        Optional<DeviceCursor> known = chatService.findDevice(username, deviceId);
+        DeviceCursor device = known.orElseGet(() -> chatService.registerDevice(username, deviceId, replay.replayHorizon));
+        long cursor = device.getLastAckedId();
+        List<Long> ackedAbove = device.ackedAboveIds();
+        if (resume != null && resume.ackedUpTo() >= cursor) {
+            // The drained node had not written the cursor yet; it would have moved there, so this one does
+            if (resume.ackedUpTo() > cursor) {
+                cursor = resume.ackedUpTo();
+                ackedAbove = List.of();
+            }
+            ackedAbove = Stream.concat(ackedAbove.stream(), resume.ackedAbove().stream()).distinct().toList();
+            chatService.markDeviceSynced(username, deviceId, cursor, ackedAbove);
+        }
+        long start = cursor;
+        ackedAbove.stream().filter(id -> id > start).forEach(replay.sentAbove::add);
+        replay.lastSentId = cursor;
+        replay.verifiedUpTo = cursor;
+        replay.syncedUpTo = cursor;
+        replay.syncedAckedAbove = List.copyOf(replay.sentAbove);
+
+        boolean resuming = known.isPresent() || resume != null;
+        Map<Long, Long> roomCursors = new ConcurrentHashMap<>();
+        for (RoomMembership membership : roomService.getMemberships(username)) {
+            roomCursors.put(membership.getRoomId(), resuming
+                    ? Math.max(cursor, membership.getJoinedAfterId())
+                    : membership.getLastDeliveredId());
+        }
+        // Published last: acks only move the device cursor once this is set
+        replay.roomCursors = roomCursors;
+    }
+
+    // Sends the next catch-up page of the first room that still has messages past its cursor.
+    // Returns false once every room is caught up.
+    private boolean replayRoomPage(WebSocketSession session, String username, ReplayState replay, int limit) {
+        Map<Long, Long> roomCursors = replay.roomCursors;
+        for (Map.Entry<Long, Long> room : roomCursors.entrySet()) {
+            Long roomId = room.getKey();
+            List<RoomMessage> page = roomService.getRoomMessagesAfter(roomId, room.getValue(), limit);
+            if (page.isEmpty()) {
+                roomCursors.remove(roomId);
+                continue;
+            }
+            sendRoomBacklog(session, replay, roomId, page);
+            roomCursors.put(roomId, page.get(page.size() - 1).getId());
+            return true;
+        }
+        return false;
+    }
+
+    // Sends the messages of one room this session has not sent yet, several per frame
+    private void sendRoomBacklog(WebSocketSession session, ReplayState replay, Long roomId, List<RoomMessage> messages) {
+        NavigableMap<Long, Long> unacked = unackedRoomMessages(session);
+        for (int from = 0; from < messages.size(); from += replayMessagesPerFrame) {
+            List<OutboundFrame.BatchEntry> batch = new ArrayList<>();
+            // Recorded only once the frame is queued; a session that overflowed gets it again on reconnect
+            List<Duration> latencies = new ArrayList<>();
+            LocalDateTime now = LocalDateTime.now();
+            for (RoomMessage message : messages.subList(from, Math.min(from + replayMessagesPerFrame, messages.size()))) {
+                // Skip messages that already went out live since the session connected, or that the
+                // device acknowledged past its cursor before
+                if (replay.sentAbove.add(message.getId())) {
+                    unacked.put(message.getId(), roomId);
+                    latencies.add(Duration.between(message.getSentAt(), now));
+                    batch.add(new OutboundFrame.BatchEntry(message.getId(), message.getSenderUsername(),
+                            message.getContent(), message.getSentAt().toString()));
+                }
+            }
+            if (!batch.isEmpty()) {
+                replay.replayedCount += batch.size();
+                if (send(session, frameCodec.prepare(new OutboundFrame.RoomMessageBatch(roomId, batch)),
+                        FrameClass.CHAT)) {
+                    latencies.forEach(latency -> metrics.delivered(latency, true));
+                }
+            }
+        }
+    }
+
+    // Cumulative ack: the client has received every message up to and including id "upTo".
+    // Everything this session still has in flight at or below that id is marked delivered in one update.
+    // The device's own sync cursor moves as far as advanceDeviceCursor allows, and each room's membership
+    // cursor towards the highest acked id in it, but never past the device cursor.
+    private void handleAck(WebSocketSession session, InboundFrame frame) {
+        NavigableSet<Long> unacked = unackedMessages(session);
+        if (unacked == null || frame.upTo() == null) {
+            return;
+        }
+
+        List<Long> ackedIds = new ArrayList<>();
+        Iterator<Long> iterator = unacked.headSet(frame.upTo(), true).iterator();
+        while (iterator.hasNext()) {
+            ackedIds.add(iterator.next());
+            iterator.remove();
+        }
+        chatService.markMessagesAsDelivered((String) session.getAttributes().get("username"), ackedIds);
+        advanceRoomCursors(session, frame.upTo());
+        advanceDeviceCursor(session);
+        continueReplay(session);
+    }
+
+    // The device cursor moves up to the verified position, and stays below every message the session sent that
+    // is not acknowledged yet and below unsent catch-up. Only ids the session was actually sent count: a client
+    // acking past them must not skip later messages. What the device acknowledged above the cursor goes with it.
+    private void advanceDeviceCursor(WebSocketSession session) {
+        ReplayState replay = replayState(session);
+        NavigableSet<Long> unacked = unackedMessages(session);
+        NavigableMap<Long, Long> unackedRooms = unackedRoomMessages(session);
+        synchronized (replay) {
+            if (replay.liveCovered()) {
+                replay.verifiedUpTo = Math.max(replay.verifiedUpTo, sessionRegistry.idHorizon());
+            }
+            long synced = replay.syncLimit();
+            Long oldestUnacked = unacked.ceiling(Long.MIN_VALUE);
+            if (oldestUnacked != null) {
+                synced = Math.min(synced, oldestUnacked - 1);
+            }
+            Long oldestUnackedRoom = unackedRooms.ceilingKey(Long.MIN_VALUE);
+            if (oldestUnackedRoom != null) {
+                synced = Math.min(synced, oldestUnackedRoom - 1);
+            }
+            synced = Math.max(synced, replay.syncedUpTo);
+            replay.sentAbove.headSet(synced, true).clear();
+            List<Long> ackedAbove = replay.sentAbove.stream()
+                    .filter(id -> !unacked.contains(id) && !unackedRooms.containsKey(id))
+                    .toList();
+            String username = (String) session.getAttributes().get("username");
+            boolean moved = synced > replay.syncedUpTo;
+            if (moved || !ackedAbove.equals(replay.syncedAckedAbove)) {
+                replay.syncedUpTo = synced;
+                replay.syncedAckedAbove = ackedAbove;
+                chatService.markDeviceSynced(username, (String) session.getAttributes().get(DEVICE_ID),
+                        synced, ackedAbove);
+            }
+            // Every room message up to the device cursor was acknowledged on this device, and one committed
+            // late below it cannot exist; past it, a membership cursor could skip one
+            if (replay.roomCursors != null) {
+                long deviceCursor = replay.syncedUpTo;
+                replay.roomsAcked.entrySet().removeIf(room -> {
+                    boolean covered = room.getValue() <= deviceCursor;
+                    if (covered || moved) {
+                        roomService.markRoomDelivered(room.getKey(), username, Math.min(room.getValue(), deviceCursor));
+                    }
+                    return covered;
+                });
+            }
+        }
+    }
+
+    private void advanceRoomCursors(WebSocketSession session, long upTo) {
+        ReplayState replay = replayState(session);
+        Iterator<Map.Entry<Long, Long>> iterator = unackedRoomMessages(session).headMap(upTo, true).entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Long> acked = iterator.next();
+            replay.roomsAcked.merge(acked.getValue(), acked.getKey(), Math::max);
+            iterator.remove();
+        }
+    }
+
+    private ReplayState replayState(WebSocketSession session) {
+        return (ReplayState) session.getAttributes().get(REPLAY_STATE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private NavigableSet<Long> unackedMessages(WebSocketSession session) {
+        return (NavigableSet<Long>) session.getAttributes().get(UNACKED_MESSAGES);
+    }
+
+    @SuppressWarnings("unchecked")
+    private NavigableMap<Long, Long> unackedRoomMessages(WebSocketSession session) {
+        return (NavigableMap<Long, Long>) session.getAttributes().get(UNACKED_ROOM_MESSAGES);
+    }
+
+    // Direct and room messages sent to the session and not acknowledged yet
+    private int inFlight(WebSocketSession session) {
+        return unackedMessages(session).size() + unackedRoomMessages(session).size();
+    }
+
+    // At most one typing frame per refresh interval reaches the recipient, however fast the client sends them
+    private void handleTyping(WebSocketSession session, InboundFrame frame) {
+        String senderUsername = (String) session.getAttributes().get("username");
+        String recipientUsername = frame.recipient();
+        if (senderUsername == null || recipientUsername == null
+                || !typingTracker.shouldForward(senderUsername, recipientUsername)) {
+            return;
+        }
+        routeEphemeral(recipientUsername, frameCodec.prepare(
+                new OutboundFrame.Typing(senderUsername, typingTracker.getTtlMs())));
+    }
+
+    // "I have read the recipient's messages up to upTo". Receipts are collected for readWindowMs and only
+    // the highest position per conversation goes out, so scrolling through a conversation costs the other
+    // side one frame per window rather than one per message.
+    private void handleRead(WebSocketSession session, InboundFrame frame) {
+        String reader = (String) session.getAttributes().get("username");
+        if (reader == null || frame.recipient() == null || frame.upTo() == null || frame.upTo() <= 0) {
+            return;
+        }
+        synchronized (pendingReads) {
+            pendingReads.merge(new ReadPosition(reader, frame.recipient()), frame.upTo(), Math::max);
+        }
+        if (readFlushScheduled.compareAndSet(false, true)) {
+            presenceScheduler.schedule(this::flushReads, Instant.now().plusMillis(readWindowMs));
+        }
+    }
+
+    private void flushReads() {
+        Map<ReadPosition, Long> reads;
+        synchronized (pendingReads) {
+            readFlushScheduled.set(false);
+            reads = new HashMap<>(pendingReads);
+            pendingReads.clear();
+        }
+        reads.forEach((position, upTo) -> {
+            chatService.markRead(position.reader(), position.contact(), upTo);
+            PreparedFrame receipt = frameCodec.prepare(
+                    new OutboundFrame.ReadReceipt(position.reader(), position.contact(), upTo));
+            routeEphemeral(position.contact(), receipt);
+            // The reader's other devices clear their unread markers too
+            routeEphemeral(position.reader(), receipt);
         });
     }
 
+    private void sendOnlineUsers(WebSocketSession session) {
+        send(session, new OutboundFrame.OnlineUsers(sessionRegistry.onlineUsers()));
+    }
+
+    // Every send goes through the session's outbound queue, so callers never block on a slow reader
+    private void send(WebSocketSession session, OutboundFrame frame) {
+        send(session, frameCodec.prepare(frame), FrameClass.CONTROL);
+    }
+
+    // The frame is encoded in the session's negotiated encoding, at most once per encoding across sessions
+    private boolean send(WebSocketSession session, PreparedFrame frame, FrameClass frameClass) {
+        OutboundQueue outbound = outboundQueue(session);
+        if (outbound == null || !outbound.enqueue(frame.encoded(wireEncoding(session)), frameClass)) {
+            return false;
+        }
+        metrics.outboundFrame(frame.type());
+        return true;
+    }
+
+    private WireEncoding wireEncoding(WebSocketSession session) {
+        return (WireEncoding) session.getAttributes().getOrDefault(WIRE_ENCODING, WireEncoding.JSON);
+    }
+
+    private OutboundQueue outboundQueue(WebSocketSession session) {
+        return (OutboundQueue) session.getAttributes().get(OUTBOUND_QUEUE);
+    }
+
+    // Evaluated on scrape only
+    private int largestOutboundBuffer() {
+        int largest = 0;
+        for (List<WebSocketSession> sessions : activeSessions.values()) {
+            for (WebSocketSession session : sessions) {
+                OutboundQueue outbound = outboundQueue(session);
+                if (outbound != null) {
+                    largest = Math.max(largest, outbound.getBufferSize());
+                }
+            }
+        }
+        return largest;
+    }
+
+    int activeSessionCount() {
+        int count = 0;
+        for (List<WebSocketSession> sessions : activeSessions.values()) {
+            count += sessions.size();
+        }
+        return count;
+    }
+
+    // Sent in place of presence deltas a congested session had to drop
+    private WebSocketMessage<?> onlineUsersSnapshot(WebSocketSession session) {
+        return frameCodec.prepare(new OutboundFrame.OnlineUsers(sessionRegistry.onlineUsers()))
+                .encoded(wireEncoding(session));
+    }
+
+    // Presence changes are collected for presenceWindowMs and sent as one delta frame, so a burst of
+    // N joins costs every session one frame instead of N full user lists
+    private void publishPresence(String username, boolean online) {
+        synchronized (pendingPresence) {
+            Boolean pending = pendingPresence.remove(username);
+            // A join and a leave inside one window cancel out; clients still hold the state from before it
+            if (pending == null || pending == online) {
+                pendingPresence.put(username, online);
+            }
+        }
+        if (presenceFlushScheduled.compareAndSet(false, true)) {
+            presenceScheduler.schedule(this::flushPresence, Instant.now().plusMillis(presenceWindowMs));
+        }
+    }
+
+    private void flushPresence() {
+        List<String> online = new ArrayList<>();
+        List<String> offline = new ArrayList<>();
+        synchronized (pendingPresence) {
+            presenceFlushScheduled.set(false);
+            pendingPresence.forEach((username, isOnline) -> (isOnline ? online : offline).add(username));
+            pendingPresence.clear();
+        }
+        if (!online.isEmpty() || !offline.isEmpty()) {
+            broadcastPresence(online, offline);
+        }
+    }
+
+    // Package-private so the presence fan-out can be benchmarked on its own
+    void broadcastPresence(List<String> online, List<String> offline) {
+        // Serialized once per encoding and the same frame reused for every recipient
+        PreparedFrame frame = frameCodec.prepare(new OutboundFrame.Presence(online, offline));
+        sendToLocalSessions(frame);
+        messageBus.broadcast(new RoutedFrame(frame.type(), null, null, null, frame.json()));
+    }
+
+    private void sendToLocalSessions(PreparedFrame frame) {
+        activeSessions.values().forEach(sessions ->
+                sessions.forEach(session -> send(session, frame, FrameClass.PRESENCE)));
+    }
+
+    // Called when the node starts shutting down; returns the sessions to close. From here on offline presence is
+    // held back: every session is about to go, and telling the others about each one as it closes would cost
+    // every remaining session a frame per close.
+    List<WebSocketSession> beginDrain(LongSupplier reconnectDelay) {
+        drainReconnectDelay = reconnectDelay;
+        // Receipts and presence still waiting out their window go now, while the sessions are there to get them
+        flushReads();
+        flushPresence();
+        List<WebSocketSession> sessions = new ArrayList<>();
+        activeSessions.values().forEach(sessions::addAll);
+        return sessions;
+    }
+
+    // Tells the client when to reconnect and where its device had got to, then closes the session once that
+    // frame and everything queued before it has gone out
+    void closeForDrain(WebSocketSession session) {
+        String username = (String) session.getAttributes().get("username");
+        ReplayState replay = (ReplayState) session.getAttributes().get(REPLAY_STATE);
+        String resumeToken = username != null && replay != null
+                ? resumeTokens.issue(username, (String) session.getAttributes().get(DEVICE_ID), replay.syncedUpTo,
+                        replay.syncedAckedAbove)
+                : null;
+        send(session, new OutboundFrame.Reconnect(drainReconnectDelay.getAsLong(), resumeToken));
+        OutboundQueue outbound = outboundQueue(session);
+        if (outbound != null) {
+            outbound.closeWhenSent(DRAIN_CLOSE_STATUS);
+        }
+    }
+
+    // True once no session has frames waiting in its outbound queue
+    boolean outboundFlushed() {
+        for (List<WebSocketSession> sessions : activeSessions.values()) {
+            for (WebSocketSession session : sessions) {
+                OutboundQueue outbound = outboundQueue(session);
+                if (outbound != null && outbound.getBufferSize() > 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Once the drain is over: a single offline delta to the other nodes, for the drained users that have not
+    // reconnected to one of them meanwhile
+    void publishDrainedOffline() {
+        if (drainedUsers.isEmpty()) {
+            return;
+        }
+        Set<String> online = sessionRegistry.onlineUsers();
+        List<String> offline = drainedUsers.stream().filter(username -> !online.contains(username)).toList();
+        if (!offline.isEmpty()) {
+            broadcastPresence(List.of(), offline);
+        }
+    }
+
     @Override
     public void handleTransportError(WebSocketSession session, Throwable exception) {
         logger.error("WebSocket transport error: {}", exception.getMessage());
@@ -189,9 +1079,15 @@ public class ChatWebSocketHandler implements WebSocketHandler {
 
     private void cleanupSession(WebSocketSession session) {
         String username = (String) session.getAttributes().get("username");
-        if (username != null) {
-            activeSessions.remove(username);
-            broadcastOnlineUsers();
+        // Only the user's last session takes them offline; a replaced session or another device must not
+        if (username != null && removeSession(username, session)) {
+            sessionRegistry.unregister(username);
+            if (drainReconnectDelay != null) {
+                // Most of them are about to reconnect elsewhere; see publishDrainedOffline
+                drainedUsers.add(username);
+            } else if (sessionRegistry.findNodes(username).isEmpty()) {
+                publishPresence(username, false);
+            }
             logger.info("User disconnected: {}", username);
         }
     }
@@ -200,4 +1096,7 @@ public class ChatWebSocketHandler implements WebSocketHandler {
     public boolean supportsPartialMessages() {
         return false;
     }
+
+    private record ReadPosition(String reader, String contact) {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+package org.example.handler;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Token buckets for client frames, one per user and frame type, so one flooding user cannot crowd out the rest
+// and a burst of get_users does not use up the budget for chat. Sessions that have not authenticated yet are
+// limited on their own. Frame types without a configured limit are never limited.
+@Component
+public class InboundRateLimiter {
+
+    private final boolean enabled;
+    private final Map<String, Limit> limits;
+    // Limiter key (user or session) to frame type to bucket
+    private final Map<String, Map<String, TokenBucket>> buckets = new ConcurrentHashMap<>();
+
+    public InboundRateLimiter(@Value("${chat.rate-limit.enabled:true}") boolean enabled,
+                              @Value("${chat.rate-limit.chat.per-second:20}") int chatPerSecond,
+                              @Value("${chat.rate-limit.chat.burst:40}") int chatBurst,
+                              @Value("${chat.rate-limit.room-chat.per-second:10}") int roomChatPerSecond,
+                              @Value("${chat.rate-limit.room-chat.burst:20}") int roomChatBurst,
+                              @Value("${chat.rate-limit.get-users.per-second:1}") int getUsersPerSecond,
+                              @Value("${chat.rate-limit.get-users.burst:5}") int getUsersBurst,
+                              @Value("${chat.rate-limit.ack.per-second:50}") int ackPerSecond,
+                              @Value("${chat.rate-limit.ack.burst:100}") int ackBurst,
+                              @Value("${chat.rate-limit.authenticate.per-second:1}") int authenticatePerSecond,
+                              @Value("${chat.rate-limit.authenticate.burst:5}") int authenticateBurst,
+                              @Value("${chat.rate-limit.typing.per-second:5}") int typingPerSecond,
+                              @Value("${chat.rate-limit.typing.burst:10}") int typingBurst,
+                              @Value("${chat.rate-limit.read.per-second:10}") int readPerSecond,
+                              @Value("${chat.rate-limit.read.burst:20}") int readBurst) {
+        this.enabled = enabled;
+        this.limits = Map.of(
+                "chat", new Limit(chatPerSecond, chatBurst),
+                "room_chat", new Limit(roomChatPerSecond, roomChatBurst),
+                "get_users", new Limit(getUsersPerSecond, getUsersBurst),
+                "ack", new Limit(ackPerSecond, ackBurst),
+                "authenticate", new Limit(authenticatePerSecond, authenticateBurst),
+                "typing", new Limit(typingPerSecond, typingBurst),
+                "read", new Limit(readPerSecond, readBurst));
+    }
+
+    // 0 when the frame may be handled, otherwise the nanoseconds until the next frame of this type would be
+    public long acquire(String key, String frameType) {
+        Limit limit = limits.get(frameType);
+        if (!enabled || limit == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        Map<String, TokenBucket> userBuckets = buckets.get(key);
+        if (userBuckets == null) {
+            userBuckets = buckets.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        }
+        TokenBucket bucket = userBuckets.get(frameType);
+        if (bucket == null) {
+            bucket = userBuckets.computeIfAbsent(frameType, type -> new TokenBucket(limit.perSecond(), limit.burst(), now));
+        }
+        return bucket.tryAcquire(now);
+    }
+
+    // Drops users whose buckets have all refilled. A frame racing with the removal may take its token from the
+    // dropped bucket, which at worst lets one extra frame through.
+    @Scheduled(fixedDelayString = "${chat.rate-limit.sweep-interval-ms:60000}")
+    public void evictIdle() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(userBuckets ->
+                userBuckets.values().stream().allMatch(bucket -> bucket.isFull(now)));
+    }
+
+    private record Limit(int perSecond, int burst) {
+    }
+}
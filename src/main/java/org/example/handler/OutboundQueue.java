@@ -0,0 +1,248 @@
+package org.example.handler;
+
+import jakarta.websocket.Session;
+import org.example.metrics.ChatMetrics;
+import org.example.protocol.FrameCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Per-session outbound buffer, in the spirit of Spring's ConcurrentWebSocketSessionDecorator.
+// Any thread may enqueue without blocking; a shared worker pool does the actual sends, one worker
+// per session at a time, so a slow reader only ever holds up its own queue. The send itself still blocks
+// while the reader's TCP window is full, so the send time limit is also enforced inside it: the container's
+// write timeout for the session is set to it, and a send that runs over fails and terminates the session.
+// A session that asked for batching has frames queued within one batch window sent as a single array frame,
+// which saves a WebSocket frame header and a compression flush per frame.
+class OutboundQueue {
+
+    // What happens on overflow depends on the class of frame
+    enum FrameClass {
+        // Confirmations, acks, snapshots: losing one breaks the protocol, so overflow disconnects
+        CONTROL,
+        // Chat messages: overflow disconnects, unacked messages are replayed on reconnect
+        CHAT,
+        // Presence deltas and typing/read events: dropped on overflow, a fresh presence snapshot is sent
+        // once the queue drains; typing expires anyway and read state is also served by /api/chat/recent
+        PRESENCE
+    }
+
+    // Frames sent per worker turn before the session yields its worker to the others
+    private static final int MAX_FRAMES_PER_TURN = 64;
+    // Tomcat's per-session bound on a blocking send, 20 s unless set
+    private static final String BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+
+    private final WebSocketSession session;
+    private final Executor sendExecutor;
+    private final int bufferSizeLimit;
+    private final long sendTimeLimitNanos;
+    private final Supplier<WebSocketMessage<?>> presenceSnapshot;
+    private final Runnable onDrained;
+    private final ChatMetrics metrics;
+    private final TaskScheduler batchScheduler;
+    private final long batchWindowMs;
+    private final int batchMaxBytes;
+
+    private final Queue<WebSocketMessage<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferSize = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile long sendStartNanos;
+    private volatile boolean presenceDropped;
+    private volatile boolean terminated;
+    private volatile boolean batching;
+    // Set once the session is to be closed after what is queued has gone out; nothing is queued after that
+    private volatile CloseStatus closeStatus;
+
+    OutboundQueue(WebSocketSession session, Executor sendExecutor, int bufferSizeLimit, long sendTimeLimitMs,
+                  Supplier<WebSocketMessage<?>> presenceSnapshot, Runnable onDrained, ChatMetrics metrics,
+                  TaskScheduler batchScheduler, long batchWindowMs, int batchMaxBytes) {
+        this.session = session;
+        this.sendExecutor = sendExecutor;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.sendTimeLimitNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeLimitMs);
+        this.presenceSnapshot = presenceSnapshot;
+        this.onDrained = onDrained;
+        this.metrics = metrics;
+        this.batchScheduler = batchScheduler;
+        this.batchWindowMs = batchWindowMs;
+        this.batchMaxBytes = batchMaxBytes;
+        // SockJS sessions over the WebSocket transport expose the container session beneath them; the HTTP
+        // transports have none and are only checked on enqueue
+        if (session instanceof NativeWebSocketSession nativeSession) {
+            Session container = nativeSession.getNativeSession(Session.class);
+            if (container != null) {
+                container.getUserProperties().put(BLOCKING_SEND_TIMEOUT, sendTimeLimitMs);
+            }
+        }
+    }
+
+    // Returns false when batching is turned off on the server, and frames keep going out one by one
+    boolean enableBatching() {
+        batching = batchWindowMs > 0;
+        return batching;
+    }
+
+    // Returns false if the frame was not queued, either dropped or because the session was terminated
+    boolean enqueue(WebSocketMessage<?> frame, FrameClass frameClass) {
+        if (terminated || closeStatus != null || !session.isOpen()) {
+            return false;
+        }
+        long sendStart = sendStartNanos;
+        if (sendStart != 0 && System.nanoTime() - sendStart > sendTimeLimitNanos) {
+            terminate("time_limit", "send time limit exceeded");
+            return false;
+        }
+
+        int size = FrameCodec.payloadSize(frame);
+        if (bufferSize.get() + size > bufferSizeLimit) {
+            if (frameClass == FrameClass.PRESENCE) {
+                presenceDropped = true;
+                metrics.presenceDropped();
+                return false;
+            }
+            terminate("buffer_limit", "outbound buffer limit exceeded");
+            return false;
+        }
+
+        metrics.outboundBuffer(bufferSize.addAndGet(size));
+        queue.add(frame);
+        scheduleDrain(!batching);
+        return true;
+    }
+
+    // Closes the session once every frame queued before this call has been sent
+    void closeWhenSent(CloseStatus status) {
+        closeStatus = status;
+        scheduleDrain(true);
+    }
+
+    int getBufferSize() {
+        return bufferSize.get();
+    }
+
+    int getBufferSizeLimit() {
+        return bufferSizeLimit;
+    }
+
+    // Delayed only when a frame arrives at an idle batching queue: it waits out the batch window so frames
+    // queued behind it go out with it
+    private void scheduleDrain(boolean immediate) {
+        if (draining.compareAndSet(false, true)) {
+            if (immediate) {
+                sendExecutor.execute(this::drain);
+            } else {
+                batchScheduler.schedule(() -> sendExecutor.execute(this::drain),
+                        Instant.now().plusMillis(batchWindowMs));
+            }
+        }
+    }
+
+    private void drain() {
+        long sendStart = 0;
+        try {
+            int sent = 0;
+            WebSocketMessage<?> frame;
+            while (!terminated && sent < MAX_FRAMES_PER_TURN && (frame = queue.poll()) != null) {
+                int frames = 1;
+                if (batching && queue.peek() != null) {
+                    List<WebSocketMessage<?>> batch = nextBatch(frame);
+                    frames = batch.size();
+                    frame = frames == 1 ? frame : FrameCodec.batch(batch);
+                } else {
+                    bufferSize.addAndGet(-FrameCodec.payloadSize(frame));
+                }
+                sendStart = System.nanoTime();
+                sendStartNanos = sendStart;
+                try {
+                    session.sendMessage(frame);
+                } finally {
+                    sendStartNanos = 0;
+                }
+                metrics.outboundSent(frames, FrameCodec.payloadSize(frame));
+                sent++;
+            }
+        } catch (Exception e) {
+            // Only a send can throw here; one that failed at the container's write timeout hit the time limit
+            if (System.nanoTime() - sendStart >= sendTimeLimitNanos) {
+                terminate("time_limit", "send time limit exceeded");
+            } else {
+                terminate("send_error", "send failed: " + e.getMessage());
+            }
+        } finally {
+            draining.set(false);
+        }
+
+        if (terminated) {
+            return;
+        }
+        // Frames may have arrived after the loop stopped, or the turn ran out. Either way they have waited
+        // long enough, so there is no batch window this time.
+        if (!queue.isEmpty()) {
+            scheduleDrain(true);
+            return;
+        }
+        if (closeStatus != null) {
+            close(closeStatus);
+            return;
+        }
+        if (presenceDropped) {
+            presenceDropped = false;
+            enqueue(presenceSnapshot.get(), FrameClass.CONTROL);
+        }
+        onDrained.run();
+    }
+
+    // The first frame and those behind it of the same kind (text or binary), up to batchMaxBytes. Only the
+    // draining thread takes frames off the queue, so a frame seen by peek() is the one poll() returns.
+    private List<WebSocketMessage<?>> nextBatch(WebSocketMessage<?> first) {
+        List<WebSocketMessage<?>> batch = new ArrayList<>();
+        batch.add(first);
+        int bytes = FrameCodec.payloadSize(first);
+        WebSocketMessage<?> next;
+        while ((next = queue.peek()) != null && next.getClass() == first.getClass()
+                && bytes + FrameCodec.payloadSize(next) <= batchMaxBytes) {
+            batch.add(queue.poll());
+            bytes += FrameCodec.payloadSize(next);
+        }
+        bufferSize.addAndGet(-bytes);
+        return batch;
+    }
+
+    private void terminate(String reason, String detail) {
+        if (terminated) {
+            return;
+        }
+        terminated = true;
+        metrics.sendFailure(reason);
+        queue.clear();
+        bufferSize.set(0);
+        logger.warn("Closing session {}: {}", session.getId(), detail);
+        close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    private void close(CloseStatus status) {
+        try {
+            session.close(status);
+        } catch (IOException e) {
+            logger.error("Failed to close session {}: {}", session.getId(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.handler;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Progress of one session's offline-backlog replay and of its device's sync position, kept in the session
+// attributes. Ids are not committed in id order (see SessionRegistry.idHorizon()), so the device cursor is a
+// watermark held at or below the id horizon, with the ids acknowledged past it kept beside it.
+class ReplayState {
+
+    // Keyset cursor of the scan in progress, replay or gap fill
+    volatile long lastSentId;
+    // Every message to the user with a lower or equal id has been sent to this session, or acknowledged by the
+    // device before it connected. Starts at the device cursor.
+    volatile long verifiedUpTo;
+    // Id horizon read before replay began; what the direct replay verifies once it runs out of messages
+    volatile long replayHorizon;
+    // Above every id handed out before this session could be routed to. Messages from here on are delivered live,
+    // so once verifiedUpTo reaches it the position follows the horizon without scanning.
+    volatile long liveFrom;
+    // Upper end of the gap fill in progress, 0 when none is. Direct messages are rescanned first, then rooms.
+    volatile long gapFillUpTo;
+    volatile boolean gapFillRooms;
+    volatile long nextGapCheckNanos;
+    // Device cursor and acked ids above it last submitted for this session, so repeated acks do not queue
+    // redundant writes
+    volatile long syncedUpTo;
+    volatile List<Long> syncedAckedAbove = List.of();
+    // Direct and room message ids above syncedUpTo that this session has sent, or that the device had
+    // acknowledged before it connected. Replay and gap fill skip them.
+    final NavigableSet<Long> sentAbove = new ConcurrentSkipListSet<>();
+    // Direct messages done, replay has moved on to room catch-up
+    volatile boolean directFinished;
+    volatile boolean finished;
+    // Messages sent so far, reported as the session's backlog size once replay completes
+    volatile int replayedCount;
+
+    // Rooms still catching up, room id to the highest id catch-up has sent for it (initially where the
+    // device's sync starts in that room). Null until replay has loaded the device's sync state. An ack
+    // never moves a cursor past this value, so live messages acked meanwhile cannot skip unsent catch-up.
+    volatile Map<Long, Long> roomCursors;
+
+    // Room id to the highest id acked in it that the room's membership cursor has not been moved to yet. The
+    // membership cursor follows the device cursor, so it waits here while that is held back.
+    final Map<Long, Long> roomsAcked = new ConcurrentHashMap<>();
+
+    // Guards against two replay tasks running for the same session at once
+    final AtomicBoolean scheduled = new AtomicBoolean();
+
+    boolean liveCovered() {
+        return directFinished && verifiedUpTo >= liveFrom - 1;
+    }
+
+    // A message with an id below liveFrom may commit after replay passed its id without being sent live. After
+    // replay the session rescans for such messages every chat.replay.gap-check-interval-ms until it is live covered.
+    boolean gapCheckDue() {
+        return finished && !liveCovered() && (gapFillUpTo != 0 || System.nanoTime() - nextGapCheckNanos >= 0);
+    }
+
+    // How far an ack may move the device cursor: below every message replay has yet to send
+    long syncLimit() {
+        Map<Long, Long> rooms = roomCursors;
+        if (rooms == null) {
+            return Long.MIN_VALUE;
+        }
+        long limit = verifiedUpTo;
+        if (!finished) {
+            for (long roomCursor : rooms.values()) {
+                limit = Math.min(limit, roomCursor);
+            }
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,122 @@
+package org.example.handler;
+
+import org.example.entity.DeviceCursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+// Tokens handed out in "reconnect" frames while a node drains. A token names the user, the device and how far
+// the device had acknowledged when its session was closed: its cursor and the acked ids above it. The device cursor in the database says the same once
+// the draining node's write-behind queue is flushed, but a client told to reconnect may land on another node
+// before that; replay there starts past the token's position instead. Tokens are signed with chat.resume.secret,
+// which every node has to share, and expire after chat.resume.token-ttl-ms. Without a secret each run makes up
+// its own, so tokens are only honoured by the node that issued them.
+@Component
+public class ResumeTokens {
+
+    Logger logger = LoggerFactory.getLogger(ResumeTokens.class);
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    public record Resume(String username, String deviceId, long ackedUpTo, List<Long> ackedAbove) {
+    }
+
+    private final SecretKeySpec key;
+    private final long ttlMs;
+
+    public ResumeTokens(@Value("${chat.resume.secret:}") String secret,
+                        @Value("${chat.resume.token-ttl-ms:300000}") long ttlMs) {
+        byte[] keyBytes;
+        if (secret.isBlank()) {
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+            logger.info("No chat.resume.secret set, resume tokens are only valid on this node until it stops");
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.ttlMs = ttlMs;
+    }
+
+    public String issue(String username, String deviceId, long ackedUpTo, List<Long> ackedAbove) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(username);
+            out.writeUTF(deviceId);
+            out.writeLong(ackedUpTo);
+            out.writeLong(System.currentTimeMillis() + ttlMs);
+            // As many as the device cursor keeps
+            List<Long> kept = ackedAbove.stream().sorted(Comparator.reverseOrder())
+                    .limit(DeviceCursor.MAX_ACKED_ABOVE).toList();
+            out.writeShort(kept.size());
+            for (long id : kept) {
+                out.writeLong(id);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] payload = bytes.toByteArray();
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payload) + "." + encoder.encodeToString(sign(payload));
+    }
+
+    // Empty for tokens that are malformed, expired or not signed with this secret
+    public Optional<Resume> verify(String token) {
+        int separator = token.indexOf('.');
+        if (separator < 0) {
+            return Optional.empty();
+        }
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            byte[] payload = decoder.decode(token.substring(0, separator));
+            byte[] signature = decoder.decode(token.substring(separator + 1));
+            if (!MessageDigest.isEqual(sign(payload), signature)) {
+                return Optional.empty();
+            }
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+                String username = in.readUTF();
+                String deviceId = in.readUTF();
+                long ackedUpTo = in.readLong();
+                if (in.readLong() < System.currentTimeMillis()) {
+                    return Optional.empty();
+                }
+                List<Long> ackedAbove = new ArrayList<>();
+                for (int count = in.readUnsignedShort(); count > 0; count--) {
+                    ackedAbove.add(in.readLong());
+                }
+                return Optional.of(new Resume(username, deviceId, ackedUpTo, ackedAbove));
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    // A Mac is not thread-safe and tokens are rare enough to make one per call
+    private byte[] sign(byte[] payload) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(payload);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.example.handler;
+
+import org.example.metrics.ChatMetrics;
+import org.example.service.ChatService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+// Drains the node on shutdown instead of letting the server cut every connection at once, which has every client
+// reconnect and replay at the same moment:
+//   1. New sessions are refused. The context reports REFUSING_TRAFFIC as soon as it starts closing, before any
+//      lifecycle bean is stopped, and ReadinessHandshakeInterceptor answers handshakes with 503 from then on.
+//   2. Outbound queues are left to empty, then the persistence queues are flushed, so what the clients were sent
+//      is durable and replayable wherever they reconnect.
+//   3. Sessions are closed in batches of chat.drain.batch-size every chat.drain.batch-interval-ms. Each first gets
+//      a "reconnect" frame with a delay of chat.drain.reconnect-delay-ms plus up to chat.drain.reconnect-jitter-ms,
+//      and a resume token so replay on the next node starts past what the device acknowledged here.
+// Whatever is left after chat.drain.timeout-ms is closed by the server's own shutdown.
+@Component
+public class SessionDrain implements SmartLifecycle {
+
+    Logger logger = LoggerFactory.getLogger(SessionDrain.class);
+
+    private static final long POLL_INTERVAL_MS = 10;
+
+    private final ChatWebSocketHandler handler;
+    private final ChatService chatService;
+    private final ChatMetrics metrics;
+    private final long flushTimeoutMs;
+    private final int batchSize;
+    private final long batchIntervalMs;
+    private final long reconnectDelayMs;
+    private final long reconnectJitterMs;
+    private final long timeoutMs;
+
+    private volatile boolean running;
+
+    public SessionDrain(ChatWebSocketHandler handler, ChatService chatService, ChatMetrics metrics,
+                        @Value("${chat.drain.flush-timeout-ms:5000}") long flushTimeoutMs,
+                        @Value("${chat.drain.batch-size:200}") int batchSize,
+                        @Value("${chat.drain.batch-interval-ms:50}") long batchIntervalMs,
+                        @Value("${chat.drain.reconnect-delay-ms:500}") long reconnectDelayMs,
+                        @Value("${chat.drain.reconnect-jitter-ms:5000}") long reconnectJitterMs,
+                        @Value("${chat.drain.timeout-ms:20000}") long timeoutMs) {
+        this.handler = handler;
+        this.chatService = chatService;
+        this.metrics = metrics;
+        this.flushTimeoutMs = flushTimeoutMs;
+        this.batchSize = batchSize;
+        this.batchIntervalMs = batchIntervalMs;
+        this.reconnectDelayMs = reconnectDelayMs;
+        this.reconnectJitterMs = reconnectJitterMs;
+        this.timeoutMs = timeoutMs;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        List<WebSocketSession> sessions = handler.beginDrain(this::reconnectDelay);
+        logger.info("Draining {} sessions", sessions.size());
+
+        long flushDeadline = Math.min(deadline, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushTimeoutMs));
+        if (!awaitUntil(handler::outboundFlushed, flushDeadline)) {
+            logger.warn("Outbound queues not empty after {} ms, closing sessions anyway", flushTimeoutMs);
+        }
+        if (!chatService.flushWrites(remainingMs(flushDeadline))) {
+            logger.warn("Persistence queues not flushed in time, reconnecting clients may get duplicates");
+        }
+
+        int closed = 0;
+        while (closed < sessions.size() && System.nanoTime() < deadline) {
+            if (closed > 0) {
+                sleep(batchIntervalMs);
+            }
+            List<WebSocketSession> batch = sessions.subList(closed, Math.min(closed + batchSize, sessions.size()));
+            batch.forEach(handler::closeForDrain);
+            metrics.sessionsDrained(batch.size());
+            closed += batch.size();
+        }
+        if (!awaitUntil(() -> handler.activeSessionCount() == 0, deadline)) {
+            logger.warn("Drain timed out with {} sessions open, leaving them to the server shutdown",
+                    handler.activeSessionCount());
+        }
+        try {
+            handler.publishDrainedOffline();
+        } catch (Exception e) {
+            logger.warn("Failed to publish offline presence of drained users: {}", e.getMessage());
+        }
+        metrics.drained(start);
+        logger.info("Drained {} sessions in {} ms", closed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        // Stops first: before the web server's graceful shutdown and the server itself, which would close every
+        // session, and well before the writers flush and stop at phase 0
+        return SmartLifecycle.DEFAULT_PHASE;
+    }
+
+    // Per session, so the clients of one batch do not all come back at the same moment either
+    private long reconnectDelay() {
+        return reconnectDelayMs + ThreadLocalRandom.current().nextLong(reconnectJitterMs + 1);
+    }
+
+    private static boolean awaitUntil(BooleanSupplier condition, long deadlineNanos) {
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() >= deadlineNanos) {
+                return false;
+            }
+            sleep(POLL_INTERVAL_MS);
+        }
+        return true;
+    }
+
+    private static long remainingMs(long deadlineNanos) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
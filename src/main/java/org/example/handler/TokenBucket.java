@@ -0,0 +1,39 @@
+package org.example.handler;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// A token bucket kept as a single timestamp, the time at which the bucket will be full again (the generic cell
+// rate algorithm). Taking a token pushes it one refill interval further; a take that would push it more than a
+// full bucket ahead of now is refused. One compare-and-set per frame, no lock and no refill task.
+final class TokenBucket {
+
+    private final long nanosPerToken;
+    private final long capacityNanos;
+    private final AtomicLong fullAt;
+
+    TokenBucket(int tokensPerSecond, int capacity, long now) {
+        this.nanosPerToken = 1_000_000_000L / tokensPerSecond;
+        this.capacityNanos = nanosPerToken * capacity;
+        this.fullAt = new AtomicLong(now);
+    }
+
+    // 0 when a token was taken, otherwise the nanoseconds until one will be available
+    long tryAcquire(long now) {
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + nanosPerToken;
+            long ahead = next - now;
+            if (ahead > capacityNanos) {
+                return ahead - capacityNanos;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    // A full bucket behaves exactly like a new one, so it can be dropped without losing anything
+    boolean isFull(long now) {
+        return fullAt.get() - now <= 0;
+    }
+}
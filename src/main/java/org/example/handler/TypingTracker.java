@@ -0,0 +1,61 @@
+package org.example.handler;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Debounces typing indicators per (sender, recipient). Clients send "typing" on every keystroke; only the first
+// one in each refresh interval is forwarded, carrying a TTL a little longer than the interval, so the recipient
+// keeps showing the indicator while keystrokes continue and clears it by itself once they stop. Nothing here is
+// persisted or crosses a restart.
+@Component
+public class TypingTracker {
+
+    private final long refreshNanos;
+    private final long ttlMs;
+
+    // Sender and recipient to when a typing frame was last forwarded for them
+    private final Map<Conversation, Long> lastForwarded = new ConcurrentHashMap<>();
+
+    public TypingTracker(@Value("${chat.typing.refresh-ms:3000}") long refreshMs,
+                         @Value("${chat.typing.ttl-ms:5000}") long ttlMs) {
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMs);
+        this.ttlMs = ttlMs;
+    }
+
+    // True when this keystroke should go out to the recipient
+    public boolean shouldForward(String sender, String recipient) {
+        long now = System.nanoTime();
+        Conversation conversation = new Conversation(sender, recipient);
+        Long previous = lastForwarded.get(conversation);
+        if (previous != null && now - previous < refreshNanos) {
+            return false;
+        }
+        // Of two keystrokes racing here only one replaces the timestamp it read
+        return previous == null
+                ? lastForwarded.putIfAbsent(conversation, now) == null
+                : lastForwarded.replace(conversation, previous, now);
+    }
+
+    // A sent message ends the typing; the next keystroke is forwarded right away
+    public void clear(String sender, String recipient) {
+        lastForwarded.remove(new Conversation(sender, recipient));
+    }
+
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    @Scheduled(fixedDelayString = "${chat.typing.sweep-interval-ms:60000}")
+    public void evictExpired() {
+        long now = System.nanoTime();
+        lastForwarded.values().removeIf(forwardedAt -> now - forwardedAt >= refreshNanos);
+    }
+
+    private record Conversation(String sender, String recipient) {
+    }
+}
@@ -0,0 +1,239 @@
+package org.example.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// All chat meters in one place, exposed through /actuator/prometheus. Meters are built once and cached,
+// so recording on the hot path is a map lookup at most. Latencies publish histograms so percentiles
+// can be aggregated across nodes in Prometheus.
+@Component
+public class ChatMetrics {
+
+    private final MeterRegistry registry;
+
+    private final Map<String, Counter> inboundFrames = new ConcurrentHashMap<>();
+    private final Map<String, Counter> outboundFrames = new ConcurrentHashMap<>();
+    private final Map<String, Counter> sendFailures = new ConcurrentHashMap<>();
+    private final Map<String, Counter> inboundRejected = new ConcurrentHashMap<>();
+    private final Counter presenceDropped;
+    private final Counter messagesRejected;
+
+    private final Timer saveLatency;
+    private final Timer deliveredMarkLatency;
+    private final Timer flushTime;
+    private final DistributionSummary flushSize;
+    private final Timer liveDeliveryLatency;
+    private final Timer replayDeliveryLatency;
+    private final DistributionSummary backlogSize;
+    private final DistributionSummary outboundBufferSize;
+    private final Counter outboundBytes;
+    private final DistributionSummary framesPerSend;
+    private final Counter messagesArchived;
+    private final Map<String, Counter> cacheLookups = new ConcurrentHashMap<>();
+    private final Counter cacheEvictions;
+    private final Counter cacheInvalidations;
+    private final Counter sessionsDrained;
+    private final Timer drainTime;
+    private final Timer archiveChunkTime;
+    private final Timer searchLatency;
+
+    public ChatMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.presenceDropped = Counter.builder("chat.presence.dropped")
+                .description("Presence deltas dropped because a session's outbound buffer was full")
+                .register(registry);
+        this.messagesRejected = Counter.builder("chat.messages.rejected")
+                .description("Chat messages rejected with server_busy because the persistence queue was full")
+                .register(registry);
+        this.saveLatency = Timer.builder("chat.persistence.save")
+                .description("Time from saveMessage to the commit of the batch holding the message")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.deliveredMarkLatency = Timer.builder("chat.persistence.delivered")
+                .description("Time from an ack to the commit of the delivered flags it set")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.flushTime = Timer.builder("chat.persistence.flush")
+                .description("Duration of one write-behind transaction")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.flushSize = DistributionSummary.builder("chat.persistence.flush.size")
+                .description("Queued operations written per write-behind transaction")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+        this.liveDeliveryLatency = Timer.builder("chat.delivery.latency")
+                .description("Time from a message being sent to it being queued for the recipient's socket")
+                .tag("path", "live")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.replayDeliveryLatency = Timer.builder("chat.delivery.latency")
+                .description("Time from a message being sent to it being queued for the recipient's socket")
+                .tag("path", "replay")
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofDays(7))
+                .register(registry);
+        this.backlogSize = DistributionSummary.builder("chat.backlog.size")
+                .description("Undelivered messages replayed to a recipient after login")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .publishPercentileHistogram()
+                .maximumExpectedValue(100_000.0)
+                .register(registry);
+        this.outboundBufferSize = DistributionSummary.builder("chat.outbound.buffer.size")
+                .description("Outbound buffer of a session after each enqueue")
+                .baseUnit("bytes")
+                .publishPercentiles(0.5, 0.99)
+                .publishPercentileHistogram()
+                .maximumExpectedValue(16.0 * 1024 * 1024)
+                .register(registry);
+        // Before permessage-deflate, which the container applies below the application
+        this.outboundBytes = Counter.builder("chat.outbound.bytes")
+                .description("Payload handed to WebSocket sessions, in bytes (chars for text frames)")
+                .baseUnit("bytes")
+                .register(registry);
+        this.framesPerSend = DistributionSummary.builder("chat.outbound.batch.frames")
+                .description("Frames carried by each WebSocket message sent, more than one when batched")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+        this.messagesArchived = Counter.builder("chat.archive.messages")
+                .description("Messages moved from the messages table to the archive")
+                .register(registry);
+        this.archiveChunkTime = Timer.builder("chat.archive.chunk")
+                .description("Duration of archiving one chunk: read, archive append and delete")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.searchLatency = Timer.builder("chat.search.query")
+                .description("Time to run one search against the in-memory index, before loading the hits")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.cacheEvictions = Counter.builder("chat.cache.evictions")
+                .description("Response pages evicted from the cache to stay within its entry or byte limit")
+                .register(registry);
+        this.cacheInvalidations = Counter.builder("chat.cache.invalidations")
+                .description("Response pages dropped from the cache because a write changed them")
+                .register(registry);
+        this.sessionsDrained = Counter.builder("chat.drain.sessions")
+                .description("Sessions closed with a reconnect hint while the node was shutting down")
+                .register(registry);
+        this.drainTime = Timer.builder("chat.drain.duration")
+                .description("Duration of the shutdown drain, from refusing new sessions until the last one closed")
+                .register(registry);
+    }
+
+    public void gauge(String name, String description, Supplier<Number> value) {
+        Gauge.builder(name, value).description(description).register(registry);
+    }
+
+    // Callers map unknown types to a fixed name, so tag cardinality stays bounded
+    public void inboundFrame(String type) {
+        inboundFrames.computeIfAbsent(type, t -> Counter.builder("chat.frames.inbound")
+                .description("Frames received from clients")
+                .tag("type", t)
+                .register(registry)).increment();
+    }
+
+    public void outboundFrame(String type) {
+        outboundFrames.computeIfAbsent(type, t -> Counter.builder("chat.frames.outbound")
+                .description("Frames queued for clients")
+                .tag("type", t)
+                .register(registry)).increment();
+    }
+
+    // reason is one of a few fixed strings and type is already bounded by the caller
+    public void inboundRejected(String reason, String type) {
+        inboundRejected.computeIfAbsent(reason + "|" + type, key -> Counter.builder("chat.frames.rejected")
+                .description("Client frames dropped for exceeding a rate or size limit")
+                .tag("reason", reason)
+                .tag("type", type)
+                .register(registry)).increment();
+    }
+
+    public void sendFailure(String reason) {
+        sendFailures.computeIfAbsent(reason, r -> Counter.builder("chat.send.failures")
+                .description("Sessions closed because frames could not be sent to them")
+                .tag("reason", r)
+                .register(registry)).increment();
+    }
+
+    public void presenceDropped() {
+        presenceDropped.increment();
+    }
+
+    public void messageRejected() {
+        messagesRejected.increment();
+    }
+
+    public void saved(long submittedNanos) {
+        saveLatency.record(System.nanoTime() - submittedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void deliveredMarked(long submittedNanos) {
+        deliveredMarkLatency.record(System.nanoTime() - submittedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void flushed(long startNanos, int operations) {
+        flushTime.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        flushSize.record(operations);
+    }
+
+    public void delivered(Duration sinceSent, boolean replayed) {
+        (replayed ? replayDeliveryLatency : liveDeliveryLatency).record(sinceSent);
+    }
+
+    public void backlogReplayed(int messages) {
+        backlogSize.record(messages);
+    }
+
+    public void outboundBuffer(int bytes) {
+        outboundBufferSize.record(bytes);
+    }
+
+    public void outboundSent(int frames, int bytes) {
+        framesPerSend.record(frames);
+        outboundBytes.increment(bytes);
+    }
+
+    public void archived(int messages, long startNanos) {
+        messagesArchived.increment(messages);
+        archiveChunkTime.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void searched(long startNanos) {
+        searchLatency.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // cache is one of the fixed page kinds
+    public void cacheLookup(String cache, boolean hit) {
+        String result = hit ? "hit" : "miss";
+        cacheLookups.computeIfAbsent(cache + "|" + result, key -> Counter.builder("chat.cache.requests")
+                .description("Lookups in the response page cache")
+                .tag("cache", cache)
+                .tag("result", result)
+                .register(registry)).increment();
+    }
+
+    public void cacheEvicted() {
+        cacheEvictions.increment();
+    }
+
+    public void cacheInvalidated(int pages) {
+        cacheInvalidations.increment(pages);
+    }
+
+    public void sessionsDrained(int sessions) {
+        sessionsDrained.increment(sessions);
+    }
+
+    public void drained(long startNanos) {
+        drainTime.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,159 @@
+package org.example.protocol;
+
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.core.exc.StreamConstraintsException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// Readers and writers are built once: ObjectReader/ObjectWriter are immutable and thread-safe and skip
+// the per-call type resolution a fresh TypeReference pays for. Jackson recycles its own output buffers.
+@Component
+public class FrameCodec {
+
+    private static final ClassValue<String> TYPE_NAMES = new ClassValue<>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            JsonTypeName name = type.getAnnotation(JsonTypeName.class);
+            return name != null ? name.value() : type.getSimpleName();
+        }
+    };
+
+    private final ObjectReader jsonReader;
+    private final ObjectReader cborReader;
+    private final ObjectWriter jsonWriter;
+    private final ObjectWriter cborWriter;
+    private final ObjectReader routedFrameReader;
+
+    // Inbound strings longer than maxContentLength abort the parse as soon as the parser reaches the end of one,
+    // before it is turned into a String and before the rest of the frame is read. No other field of an inbound
+    // frame comes close to the content limit.
+    public FrameCodec(ObjectMapper objectMapper,
+                      @Value("${chat.inbound.max-content-length:1000}") int maxContentLength) {
+        StreamReadConstraints inboundConstraints = StreamReadConstraints.builder()
+                .maxStringLength(maxContentLength)
+                .build();
+        ObjectMapper cborMapper = objectMapper.copyWith(new CBORFactory());
+        this.jsonReader = objectMapper.copyWith(JsonFactory.builder().streamReadConstraints(inboundConstraints).build())
+                .readerFor(InboundFrame.class);
+        this.cborReader = objectMapper.copyWith(CBORFactory.builder().streamReadConstraints(inboundConstraints).build())
+                .readerFor(InboundFrame.class);
+        this.jsonWriter = objectMapper.writerFor(OutboundFrame.class);
+        this.cborWriter = cborMapper.writerFor(OutboundFrame.class);
+        this.routedFrameReader = objectMapper.readerFor(OutboundFrame.class);
+    }
+
+    // Throws StreamConstraintsException when a string in the frame is over the content limit
+    public InboundFrame decode(WebSocketMessage<?> message) throws IOException {
+        try {
+            return read(message);
+        } catch (JsonMappingException e) {
+            if (e.getCause() instanceof StreamConstraintsException tooLong) {
+                throw tooLong;
+            }
+            throw e;
+        }
+    }
+
+    private InboundFrame read(WebSocketMessage<?> message) throws IOException {
+        if (message instanceof BinaryMessage binaryMessage) {
+            ByteBuffer payload = binaryMessage.getPayload();
+            if (payload.hasArray()) {
+                return cborReader.readValue(payload.array(), payload.arrayOffset() + payload.position(),
+                        payload.remaining());
+            }
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            return cborReader.readValue(bytes);
+        }
+        return jsonReader.readValue((String) message.getPayload());
+    }
+
+    public PreparedFrame prepare(OutboundFrame frame) {
+        return new PreparedFrame(this, typeName(frame.getClass()), frame, null);
+    }
+
+    // A frame that arrives already serialized as JSON, e.g. forwarded by another node
+    public PreparedFrame prepareJson(String type, String json) {
+        return new PreparedFrame(this, type, null, json);
+    }
+
+    // The "type" property Jackson writes for the frame class
+    public static String typeName(Class<? extends OutboundFrame> frameClass) {
+        return TYPE_NAMES.get(frameClass);
+    }
+
+    String toJson(OutboundFrame frame) {
+        try {
+            return jsonWriter.writeValueAsString(frame);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    byte[] toCbor(OutboundFrame frame) {
+        try {
+            return cborWriter.writeValueAsBytes(frame);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    OutboundFrame fromJson(String json) {
+        try {
+            return routedFrameReader.readValue(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Several encoded frames of one session as a single array frame: a JSON array for text frames, a CBOR
+    // indefinite-length array for binary ones. Frames are copied in as they are, without parsing them again.
+    // All frames must be of the same kind.
+    public static WebSocketMessage<?> batch(List<WebSocketMessage<?>> frames) {
+        if (frames.get(0) instanceof BinaryMessage) {
+            int size = 2;
+            for (WebSocketMessage<?> frame : frames) {
+                size += frame.getPayloadLength();
+            }
+            ByteBuffer batch = ByteBuffer.allocate(size);
+            batch.put((byte) 0x9F);
+            for (WebSocketMessage<?> frame : frames) {
+                // Duplicated: the same prepared frame may be going out to other sessions
+                batch.put(((BinaryMessage) frame).getPayload().duplicate());
+            }
+            batch.put((byte) 0xFF);
+            return new BinaryMessage(batch.flip());
+        }
+        int length = frames.size() + 1;
+        for (WebSocketMessage<?> frame : frames) {
+            length += payloadSize(frame);
+        }
+        StringBuilder batch = new StringBuilder(length);
+        for (WebSocketMessage<?> frame : frames) {
+            batch.append(batch.isEmpty() ? '[' : ',').append(((TextMessage) frame).getPayload());
+        }
+        return new TextMessage(batch.append(']'));
+    }
+
+    // Text frames are sized in chars: close enough to bytes for a buffer limit and avoids encoding them twice
+    public static int payloadSize(WebSocketMessage<?> message) {
+        return message instanceof TextMessage textMessage
+                ? textMessage.getPayload().length()
+                : message.getPayloadLength();
+    }
+}
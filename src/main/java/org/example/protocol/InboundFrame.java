@@ -0,0 +1,19 @@
+package org.example.protocol;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+// Every client-to-server frame, flattened into one record: fields a frame type does not use are null.
+// Cheaper to bind than a Map and still tolerant of unknown fields from newer clients.
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record InboundFrame(
+        String type,
+        String username,
+        String recipient,
+        String content,
+        Long upTo,
+        String encoding,
+        Long roomId,
+        String deviceId,
+        Boolean batching,
+        String resumeToken) {
+}
@@ -0,0 +1,123 @@
+package org.example.protocol;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+import java.util.Collection;
+import java.util.List;
+
+// Every server-to-client frame. Jackson writes the "type" property from the @JsonTypeName of each record,
+// and can read them back, which is how frames forwarded between nodes get re-encoded for CBOR sessions.
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "type")
+@JsonSubTypes({
+        @JsonSubTypes.Type(OutboundFrame.AuthSuccess.class),
+        @JsonSubTypes.Type(OutboundFrame.ChatMessage.class),
+        @JsonSubTypes.Type(OutboundFrame.MessageBatch.class),
+        @JsonSubTypes.Type(OutboundFrame.ReplayComplete.class),
+        @JsonSubTypes.Type(OutboundFrame.MessageSent.class),
+        @JsonSubTypes.Type(OutboundFrame.MessageSaved.class),
+        @JsonSubTypes.Type(OutboundFrame.RoomMessage.class),
+        @JsonSubTypes.Type(OutboundFrame.RoomMessageBatch.class),
+        @JsonSubTypes.Type(OutboundFrame.RoomMessageSent.class),
+        @JsonSubTypes.Type(OutboundFrame.OnlineUsers.class),
+        @JsonSubTypes.Type(OutboundFrame.Presence.class),
+        @JsonSubTypes.Type(OutboundFrame.Typing.class),
+        @JsonSubTypes.Type(OutboundFrame.ReadReceipt.class),
+        @JsonSubTypes.Type(OutboundFrame.Reconnect.class),
+        @JsonSubTypes.Type(OutboundFrame.ErrorFrame.class)
+})
+public sealed interface OutboundFrame {
+
+    @JsonTypeName("auth_success")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record AuthSuccess(String username, String encoding, String deviceId, Boolean batching) implements OutboundFrame {
+    }
+
+    @JsonTypeName("message")
+    record ChatMessage(long id, String sender, String content, String timestamp) implements OutboundFrame {
+    }
+
+    // Entry of a replayed batch, same fields as a "message" frame without the type
+    record BatchEntry(long id, String sender, String content, String timestamp) {
+    }
+
+    @JsonTypeName("messages")
+    record MessageBatch(List<BatchEntry> messages) implements OutboundFrame {
+    }
+
+    @JsonTypeName("replay_complete")
+    record ReplayComplete() implements OutboundFrame {
+    }
+
+    @JsonTypeName("message_sent")
+    record MessageSent(long id, String recipient, boolean delivered) implements OutboundFrame {
+    }
+
+    @JsonTypeName("message_saved")
+    record MessageSaved(long id) implements OutboundFrame {
+    }
+
+    @JsonTypeName("room_message")
+    record RoomMessage(long id, long roomId, String sender, String content, String timestamp) implements OutboundFrame {
+    }
+
+    // Catch-up for one room; entries carry the same fields as "message" frames
+    @JsonTypeName("room_messages")
+    record RoomMessageBatch(long roomId, List<BatchEntry> messages) implements OutboundFrame {
+    }
+
+    @JsonTypeName("room_message_sent")
+    record RoomMessageSent(long id, long roomId) implements OutboundFrame {
+    }
+
+    @JsonTypeName("online_users")
+    record OnlineUsers(Collection<String> users) implements OutboundFrame {
+    }
+
+    @JsonTypeName("presence")
+    record Presence(List<String> online, List<String> offline) implements OutboundFrame {
+    }
+
+    // Show the indicator for ttlMs unless another typing frame or a message from the sender arrives first
+    @JsonTypeName("typing")
+    record Typing(String sender, long ttlMs) implements OutboundFrame {
+    }
+
+    // Cumulative: reader has read every message from contact up to and including upTo. Sent to contact,
+    // and to the reader's other devices so they can clear their unread markers.
+    @JsonTypeName("read")
+    record ReadReceipt(String reader, String contact, long upTo) implements OutboundFrame {
+    }
+
+    // Sent before the server closes the session because the node is shutting down. The client should wait
+    // reconnectAfterMs, then connect again (to any node) and pass resumeToken in its authenticate frame.
+    @JsonTypeName("reconnect")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Reconnect(long reconnectAfterMs, String resumeToken) implements OutboundFrame {
+    }
+
+    @JsonTypeName("error")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record ErrorFrame(String reason, String recipient, Long roomId, Long retryAfterMs, Long id)
+            implements OutboundFrame {
+
+        public ErrorFrame(String reason, String recipient) {
+            this(reason, recipient, null, null, null);
+        }
+
+        public ErrorFrame(String reason, String recipient, Long roomId) {
+            this(reason, recipient, roomId, null, null);
+        }
+
+        public ErrorFrame(String reason, String recipient, Long roomId, Long retryAfterMs) {
+            this(reason, recipient, roomId, retryAfterMs, null);
+        }
+
+        // The message went out to whoever was online but was not stored; it will not be replayed or kept in history
+        public static ErrorFrame saveFailed(long id, String recipient, Long roomId) {
+            return new ErrorFrame("save_failed", recipient, roomId, null, id);
+        }
+    }
+}
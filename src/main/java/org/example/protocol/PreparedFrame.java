@@ -0,0 +1,52 @@
+package org.example.protocol;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+// An outbound frame serialized at most once per encoding, however many sessions it goes to
+public final class PreparedFrame {
+
+    private final FrameCodec codec;
+    private final String type;
+    private OutboundFrame frame;
+    private String json;
+    private TextMessage text;
+    private byte[] cbor;
+
+    PreparedFrame(FrameCodec codec, String type, OutboundFrame frame, String json) {
+        this.codec = codec;
+        this.type = type;
+        this.frame = frame;
+        this.json = json;
+    }
+
+    public String type() {
+        return type;
+    }
+
+    public synchronized String json() {
+        if (json == null) {
+            json = codec.toJson(frame);
+        }
+        return json;
+    }
+
+    public synchronized WebSocketMessage<?> encoded(WireEncoding encoding) {
+        if (encoding == WireEncoding.CBOR) {
+            if (cbor == null) {
+                if (frame == null) {
+                    frame = codec.fromJson(json);
+                }
+                cbor = codec.toCbor(frame);
+            }
+            // A message of its own per call: the container consumes a binary payload's position as it writes,
+            // so a buffer shared between sessions would reach all but the first one empty
+            return new BinaryMessage(cbor);
+        }
+        if (text == null) {
+            text = new TextMessage(json());
+        }
+        return text;
+    }
+}
@@ -0,0 +1,12 @@
+package org.example.protocol;
+
+// Outbound encoding of a session, chosen in the authenticate frame
+public enum WireEncoding {
+    JSON,
+    // Compact binary encoding, only available on native WebSocket sessions (SockJS is text-only)
+    CBOR;
+
+    public static WireEncoding fromName(String name) {
+        return "cbor".equalsIgnoreCase(name) ? CBOR : JSON;
+    }
+}
@@ -0,0 +1,21 @@
+package org.example.repository;
+
+import org.example.entity.ClusterNode;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface ClusterNodeRepository extends JpaRepository<ClusterNode, String> {
+
+    @Query("SELECT n.nodeId FROM ClusterNode n WHERE n.heartbeatAt > :cutoff")
+    List<String> findLiveNodeIds(@Param("cutoff") LocalDateTime cutoff);
+
+    // Null when no other node is live
+    @Query("SELECT MIN(n.idFloor) FROM ClusterNode n WHERE n.heartbeatAt > :cutoff AND n.nodeId <> :nodeId")
+    Long findLowestIdFloorOfOthers(@Param("cutoff") LocalDateTime cutoff, @Param("nodeId") String nodeId);
+}
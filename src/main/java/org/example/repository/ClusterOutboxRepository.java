@@ -0,0 +1,13 @@
+package org.example.repository;
+
+import org.example.entity.ClusterOutboxEntry;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ClusterOutboxRepository extends JpaRepository<ClusterOutboxEntry, Long> {
+    List<ClusterOutboxEntry> findByTargetNodeOrderByIdAsc(String targetNode, Limit limit);
+}
@@ -0,0 +1,12 @@
+package org.example.repository;
+
+import org.example.entity.ConversationSummary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ConversationSummaryRepository extends JpaRepository<ConversationSummary, String> {
+    List<ConversationSummary> findByOwnerUsernameOrderByLastMessageIdDesc(String ownerUsername);
+}
@@ -0,0 +1,22 @@
+package org.example.repository;
+
+import org.example.entity.DeviceCursor;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface DeviceCursorRepository extends JpaRepository<DeviceCursor, String> {
+
+    // Cursors only move forward, whatever order acks arrive in. The acked ids above a cursor are replaced
+    // as a whole: losing some of them only means a duplicate delivery.
+    @Modifying
+    @Query("UPDATE DeviceCursor c SET c.lastAckedId = :upTo, c.ackedAbove = :ackedAbove, c.lastSeenAt = :now " +
+            "WHERE c.id = :id AND c.lastAckedId <= :upTo")
+    int advanceCursor(@Param("id") String id, @Param("upTo") long upTo, @Param("ackedAbove") String ackedAbove,
+                      @Param("now") LocalDateTime now);
+}
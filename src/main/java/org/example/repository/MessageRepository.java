@@ -1,29 +1,53 @@
 package org.example.repository;
 
 import org.example.entity.Message;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface MessageRepository extends JpaRepository<Message, Long> {
-    List<Message> findByRecipientUsernameAndDeliveredFalseOrderBySentAt(String recipientUsername);
-
-    // Fetch conversation history between two users
-    @Query("SELECT m FROM Message m WHERE " +
-            "(m.senderUsername = :user1 AND m.recipientUsername = :user2) OR " +
-            "(m.senderUsername = :user2 AND m.recipientUsername = :user1) " +
-            "ORDER BY m.sentAt ASC")
-    List<Message> findConversationHistory(@Param("user1") String user1, @Param("user2") String user2);
-
-    // Fetch recent conversations for a user (last message with each contact)
-    @Query("SELECT m FROM Message m WHERE m.id IN (" +
-            "SELECT MAX(m2.id) FROM Message m2 WHERE " +
-            "(m2.senderUsername = :username OR m2.recipientUsername = :username) " +
-            "GROUP BY CASE WHEN m2.senderUsername = :username THEN m2.recipientUsername ELSE m2.senderUsername END" +
-            ") ORDER BY m.sentAt DESC")
-    List<Message> findRecentConversations(@Param("username") String username);
+    // Keyset page of what a device has missed: messages to the user after the device's cursor, in id order
+    List<Message> findByRecipientUsernameAndIdGreaterThanOrderByIdAsc(String recipientUsername, Long afterId, Limit limit);
+
+    @Query("SELECT MIN(m.id) FROM Message m WHERE m.recipientUsername = :recipient AND m.delivered = false")
+    Long findOldestUndeliveredId(@Param("recipient") String recipientUsername);
+
+    @Query("SELECT COALESCE(MAX(m.id), 0) FROM Message m WHERE m.recipientUsername = :recipient")
+    long findLatestIdByRecipient(@Param("recipient") String recipientUsername);
+
+    // Fetch a page of conversation history, newest first, strictly older than the "before" id
+    List<Message> findByConversationKeyAndIdLessThanOrderByIdDesc(String conversationKey, Long before, Limit limit);
+
+    // Keyset page over the whole table, used to rebuild the search index
+    List<Message> findByIdGreaterThanOrderByIdAsc(Long afterId, Limit limit);
+
+    // Keyset chunk of the archiver: delivered messages past the retention age, in id order
+    List<Message> findByDeliveredTrueAndSentAtBeforeAndIdGreaterThanOrderByIdAsc(
+            LocalDateTime cutoff, Long afterId, Limit limit);
+
+    // Undelivered messages among the given ids, grouped by conversation direction
+    @Query("SELECT m.senderUsername AS senderUsername, m.recipientUsername AS recipientUsername, COUNT(m) AS count " +
+            "FROM Message m WHERE m.id IN :ids AND m.delivered = false " +
+            "GROUP BY m.senderUsername, m.recipientUsername")
+    List<UndeliveredCount> countUndeliveredByConversation(@Param("ids") Collection<Long> ids);
+
+    // Bulk delivery update, one statement for a whole batch of ids
+    @Modifying
+    @Query("UPDATE Message m SET m.delivered = true, m.deliveredAt = :deliveredAt " +
+            "WHERE m.id IN :ids AND m.delivered = false")
+    int markDelivered(@Param("ids") Collection<Long> ids, @Param("deliveredAt") LocalDateTime deliveredAt);
+
+    interface UndeliveredCount {
+        String getSenderUsername();
+        String getRecipientUsername();
+        long getCount();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,15 @@
+package org.example.repository;
+
+import org.example.entity.ReadCursor;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ReadCursorRepository extends JpaRepository<ReadCursor, String> {
+
+    List<ReadCursor> findByReaderUsername(String readerUsername);
+
+    List<ReadCursor> findByContactUsername(String contactUsername);
+}
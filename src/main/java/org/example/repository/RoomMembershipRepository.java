@@ -0,0 +1,25 @@
+package org.example.repository;
+
+import org.example.entity.RoomMembership;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface RoomMembershipRepository extends JpaRepository<RoomMembership, String> {
+
+    List<RoomMembership> findByUsername(String username);
+
+    @Query("SELECT m.username FROM RoomMembership m WHERE m.roomId = :roomId")
+    List<String> findUsernamesByRoomId(@Param("roomId") Long roomId);
+
+    // Cursors only move forward, whatever order acks arrive in
+    @Modifying
+    @Query("UPDATE RoomMembership m SET m.lastDeliveredId = :upTo " +
+            "WHERE m.roomId = :roomId AND m.username = :username AND m.lastDeliveredId < :upTo")
+    int advanceCursor(@Param("roomId") Long roomId, @Param("username") String username, @Param("upTo") long upTo);
+}
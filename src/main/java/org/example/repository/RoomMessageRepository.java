@@ -0,0 +1,27 @@
+package org.example.repository;
+
+import org.example.entity.RoomMessage;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface RoomMessageRepository extends JpaRepository<RoomMessage, Long> {
+    // Keyset page of a member's catch-up: room messages after their cursor, in id order
+    List<RoomMessage> findByRoomIdAndIdGreaterThanOrderByIdAsc(Long roomId, Long afterId, Limit limit);
+
+    // Keyset page of a gap fill: messages of any of the rooms in an id range, in id order
+    List<RoomMessage> findByRoomIdInAndIdGreaterThanAndIdLessThanEqualOrderByIdAsc(
+            Collection<Long> roomIds, Long afterId, Long upTo, Limit limit);
+
+    // Fetch a page of room history, newest first, strictly older than the "before" id
+    List<RoomMessage> findByRoomIdAndIdLessThanOrderByIdDesc(Long roomId, Long before, Limit limit);
+
+    @Query("SELECT COALESCE(MAX(m.id), 0) FROM RoomMessage m WHERE m.roomId = :roomId")
+    long findLatestId(@Param("roomId") Long roomId);
+}
@@ -0,0 +1,10 @@
+package org.example.repository;
+
+import org.example.entity.Room;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface RoomRepository extends JpaRepository<Room, Long> {
+    boolean existsByName(String name);
+}
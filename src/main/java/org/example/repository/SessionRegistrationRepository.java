@@ -0,0 +1,32 @@
+package org.example.repository;
+
+import org.example.entity.SessionRegistration;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface SessionRegistrationRepository extends JpaRepository<SessionRegistration, String> {
+
+    @Query("SELECT DISTINCT r.username FROM SessionRegistration r WHERE r.heartbeatAt > :cutoff")
+    List<String> findLiveUsernames(@Param("cutoff") LocalDateTime cutoff);
+
+    @Query("SELECT r.nodeId FROM SessionRegistration r WHERE r.username = :username AND r.heartbeatAt > :cutoff")
+    List<String> findLiveNodesOf(@Param("username") String username, @Param("cutoff") LocalDateTime cutoff);
+
+    @Modifying
+    @Query("UPDATE SessionRegistration r SET r.heartbeatAt = :now WHERE r.nodeId = :nodeId")
+    int heartbeat(@Param("nodeId") String nodeId, @Param("now") LocalDateTime now);
+
+    // Transactional here because it runs from @PreDestroy, outside any proxied service call
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM SessionRegistration r WHERE r.nodeId = :nodeId")
+    int deleteByNodeId(@Param("nodeId") String nodeId);
+}
@@ -0,0 +1,90 @@
+package org.example.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// Segment files of the search index. A segment holds the partitions of one MessageIndex, ids delta- and
+// varint-encoded, behind a header with the highest message id in it and followed by a CRC32 of everything
+// before. Segments are written to a temporary file and renamed into place, so a crash leaves either the whole
+// segment or none of it; the checksum catches what the disk damages afterwards.
+final class IndexSegments {
+
+    private static final int MAGIC = 0x43534958;
+    private static final int VERSION = 1;
+
+    private IndexSegments() {
+    }
+
+    static void write(Path file, MessageIndex index) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream buffered = new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16)) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, crc));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(index.getMaxId());
+            index.write(out);
+            out.flush();
+            new DataOutputStream(buffered).writeLong(crc.getValue());
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Merges the segment into the index and returns the highest message id it held. The checksum is verified
+    // in a first pass, so a damaged segment is rejected before any of it reaches the index.
+    static long read(Path file, MessageIndex index) throws IOException {
+        long length = Files.size(file) - Long.BYTES;
+        if (length < 2 * Integer.BYTES + Long.BYTES) {
+            throw new IOException("Search segment " + file.getFileName() + " is truncated");
+        }
+        CRC32 crc = new CRC32();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            DataInputStream checked = new DataInputStream(new CheckedInputStream(in, crc));
+            checked.skipNBytes(length);
+            if (new DataInputStream(in).readLong() != crc.getValue()) {
+                throw new IOException("Search segment " + file.getFileName() + " fails its checksum");
+            }
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Search segment " + file.getFileName() + " has an unknown format");
+            }
+            long maxId = in.readLong();
+            index.read(in);
+            return maxId;
+        }
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in search segment");
+    }
+}
@@ -0,0 +1,89 @@
+package org.example.search;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// In-memory inverted index of direct messages, partitioned by user. Each message goes into the partitions of
+// both participants, so a search reads one partition and never sees another user's conversations. Adding is
+// single-threaded; searches may run concurrently with it.
+public class MessageIndex {
+
+    private final Map<String, UserIndex> partitions = new ConcurrentHashMap<>();
+    private volatile long entries;
+    private volatile long maxId;
+
+    // Indexes the message for sender and recipient. False when it was indexed before or has no terms.
+    public boolean add(long id, String sender, String recipient, String content) {
+        return add(id, sender, recipient, Tokenizer.termFrequencies(content));
+    }
+
+    boolean add(long id, String sender, String recipient, Map<String, Integer> frequencies) {
+        if (frequencies.isEmpty()) {
+            return false;
+        }
+        boolean added = partition(sender).add(id, recipient, frequencies);
+        if (added) {
+            entries++;
+        }
+        if (!recipient.equals(sender) && partition(recipient).add(id, sender, frequencies)) {
+            entries++;
+        }
+        maxId = Math.max(maxId, id);
+        return added;
+    }
+
+    // The user's messages containing every term of the query, best first, at most limit of them
+    public SearchResult search(String username, String query, int limit) {
+        UserIndex partition = partitions.get(username);
+        List<String> terms = Tokenizer.queryTerms(query);
+        if (partition == null || terms.isEmpty()) {
+            return SearchResult.EMPTY;
+        }
+        return partition.search(terms, limit);
+    }
+
+    // Messages indexed, counted once per participant
+    public long getEntryCount() {
+        return entries;
+    }
+
+    public long getMaxId() {
+        return maxId;
+    }
+
+    boolean isEmpty() {
+        return entries == 0;
+    }
+
+    void clear() {
+        partitions.clear();
+        entries = 0;
+        maxId = 0;
+    }
+
+    // Writer side only, like add()
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(partitions.size());
+        for (Map.Entry<String, UserIndex> partition : partitions.entrySet()) {
+            out.writeUTF(partition.getKey());
+            partition.getValue().write(out);
+        }
+    }
+
+    void read(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            UserIndex partition = partition(in.readUTF());
+            entries += partition.read(in);
+            maxId = Math.max(maxId, partition.maxId());
+        }
+    }
+
+    private UserIndex partition(String username) {
+        return partitions.computeIfAbsent(username, u -> new UserIndex());
+    }
+}
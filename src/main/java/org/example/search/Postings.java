@@ -0,0 +1,65 @@
+package org.example.search;
+
+import java.util.Arrays;
+
+// The messages one term occurs in, as parallel arrays of ascending ids and term frequencies. Ids mostly arrive
+// in ascending order and are appended; the rare late one is inserted in place. Not thread-safe: guarded by the
+// lock of the UserIndex holding it.
+final class Postings {
+
+    private long[] ids = new long[2];
+    private byte[] frequencies = new byte[2];
+    private int size;
+
+    // Adding an id that is already present changes nothing
+    void add(long id, int frequency) {
+        int position = size;
+        if (size > 0 && id <= ids[size - 1]) {
+            position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) {
+                return;
+            }
+            position = -position - 1;
+        }
+        if (size == ids.length) {
+            int capacity = size + (size >> 1) + 1;
+            ids = Arrays.copyOf(ids, capacity);
+            frequencies = Arrays.copyOf(frequencies, capacity);
+        }
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        System.arraycopy(frequencies, position, frequencies, position + 1, size - position);
+        ids[position] = id;
+        frequencies[position] = (byte) Math.min(frequency, Byte.MAX_VALUE);
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long id(int index) {
+        return ids[index];
+    }
+
+    int frequency(int index) {
+        return frequencies[index];
+    }
+
+    // Index of the first id at or after from that is not less than target, or size() if there is none.
+    // Gallops ahead before the binary search, since an intersection moves forward in small steps.
+    int seek(int from, long target) {
+        if (from >= size || ids[from] >= target) {
+            return from;
+        }
+        int step = 1;
+        int low = from;
+        int high = from + step;
+        while (high < size && ids[high] < target) {
+            low = high;
+            step <<= 1;
+            high = from + step;
+        }
+        int position = Arrays.binarySearch(ids, low + 1, Math.min(high + 1, size), target);
+        return position >= 0 ? position : -position - 1;
+    }
+}
@@ -0,0 +1,5 @@
+package org.example.search;
+
+// A message matching a search: its id, the other participant of its conversation, and its relevance score
+public record SearchHit(long messageId, String contact, double score) {
+}
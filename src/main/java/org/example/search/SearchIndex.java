@@ -0,0 +1,280 @@
+package org.example.search;
+
+import org.example.entity.Message;
+import org.example.metrics.ChatMetrics;
+import org.example.store.MessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Keeps the MessageIndex in step with the message store. Messages are handed over once they are durable and
+// indexed by a single indexer thread, off the writer's path. What was indexed since the last segment is
+// written out as a new segment file every segment interval; once there are too many, the whole index is written
+// as one and the older ones deleted. On startup the segments are loaded and the index catches up from the
+// store with whatever was committed after them, or is rebuilt from the store entirely if there are none.
+// Searches are answered meanwhile from what is indexed so far.
+@Component
+public class SearchIndex implements SmartLifecycle {
+
+    Logger logger = LoggerFactory.getLogger(SearchIndex.class);
+
+    private static final String SEGMENT_SUFFIX = ".idx";
+    private static final long POLL_INTERVAL_MS = 100;
+
+    // Ids are allocated before a message is queued for writing, so a message can commit, and reach the index,
+    // just after ones with higher ids. Catch-up starts this far below the newest indexed id to pick those up;
+    // adding a message that is already indexed changes nothing.
+    private static final long CATCH_UP_OVERLAP = 10_000;
+
+    private final MessageStore messageStore;
+    private final ChatMetrics metrics;
+    private final boolean enabled;
+    private final Path directory;
+    private final BlockingQueue<Message> queue;
+    private final int segmentDocuments;
+    private final long segmentIntervalMs;
+    private final int maxSegments;
+    private final int rebuildPageSize;
+
+    private final MessageIndex index = new MessageIndex();
+
+    // Indexer thread only: what was indexed since the last segment, and the segment files on disk
+    private MessageIndex unwritten = new MessageIndex();
+    private final List<Path> segmentFiles = new ArrayList<>();
+    private int nextSegmentNumber;
+    private long lastSegmentNanos;
+
+    // One below the lowest id dropped because the queue was full; the indexer reads those back from the store
+    private final AtomicLong rereadAfter = new AtomicLong(Long.MAX_VALUE);
+
+    private volatile boolean catchingUp = true;
+    private volatile boolean running;
+    private Thread indexerThread;
+
+    public SearchIndex(MessageStore messageStore, ChatMetrics metrics,
+                       @Value("${chat.search.enabled:true}") boolean enabled,
+                       @Value("${chat.search.dir:./data/search}") Path directory,
+                       @Value("${chat.search.queue-capacity:100000}") int queueCapacity,
+                       @Value("${chat.search.segment-documents:50000}") int segmentDocuments,
+                       @Value("${chat.search.segment-interval-ms:10000}") long segmentIntervalMs,
+                       @Value("${chat.search.max-segments:8}") int maxSegments,
+                       @Value("${chat.search.rebuild-page-size:5000}") int rebuildPageSize) {
+        this.messageStore = messageStore;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.directory = directory;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.segmentDocuments = segmentDocuments;
+        this.segmentIntervalMs = segmentIntervalMs;
+        this.maxSegments = maxSegments;
+        this.rebuildPageSize = rebuildPageSize;
+        metrics.gauge("chat.search.queue.depth", "Persisted messages waiting for the search indexer", queue::size);
+        metrics.gauge("chat.search.entries", "Messages in the search index, counted once per participant",
+                index::getEntryCount);
+    }
+
+    // Called from the storage engine's writer thread once the message is durable; never blocks it
+    public void index(Message message) {
+        if (enabled && !queue.offer(message)) {
+            rereadAfter.accumulateAndGet(message.getId() - 1, Math::min);
+        }
+    }
+
+    public SearchResult search(String username, String query, int limit) {
+        long start = System.nanoTime();
+        SearchResult result = index.search(username, query, limit);
+        metrics.searched(start);
+        return result;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // True until startup has loaded the segments and caught up with the store
+    public boolean isCatchingUp() {
+        return catchingUp;
+    }
+
+    private void runIndexer() {
+        try {
+            recover();
+        } catch (Exception e) {
+            // Search stays available with what was indexed; the next restart tries again
+            logger.error("Search index recovery failed: {}", e.getMessage());
+        }
+        catchingUp = false;
+
+        List<Message> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Message first = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, 999);
+                    batch.forEach(this::add);
+                    batch.clear();
+                }
+                long after = rereadAfter.getAndSet(Long.MAX_VALUE);
+                if (after != Long.MAX_VALUE) {
+                    logger.warn("Search queue overflowed, re-reading messages after id {} from the store", after);
+                    catchUp(after);
+                }
+                if (unwritten.getEntryCount() >= segmentDocuments || (!unwritten.isEmpty()
+                        && System.nanoTime() - lastSegmentNanos >= TimeUnit.MILLISECONDS.toNanos(segmentIntervalMs))) {
+                    writeSegment();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                logger.error("Search indexing failed: {}", e.getMessage());
+            }
+        }
+        if (!unwritten.isEmpty()) {
+            writeSegment();
+        }
+    }
+
+    private boolean add(Message message) {
+        Map<String, Integer> frequencies = Tokenizer.termFrequencies(message.getContent());
+        String sender = message.getSenderUsername();
+        String recipient = message.getRecipientUsername();
+        if (!index.add(message.getId(), sender, recipient, frequencies)) {
+            return false;
+        }
+        unwritten.add(message.getId(), sender, recipient, frequencies);
+        return true;
+    }
+
+    // A segment that cannot be read is not patched around: all of them are dropped and the index rebuilt
+    private void recover() throws IOException {
+        long started = System.nanoTime();
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparing(Path::getFileName));
+
+        long checkpoint = 0;
+        try {
+            for (Path file : files) {
+                checkpoint = Math.max(checkpoint, IndexSegments.read(file, index));
+                segmentFiles.add(file);
+            }
+        } catch (IOException e) {
+            logger.warn("Dropping search index segments in {}: {}", directory, e.getMessage());
+            index.clear();
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            segmentFiles.clear();
+            checkpoint = 0;
+        }
+        if (!files.isEmpty()) {
+            String last = files.get(files.size() - 1).getFileName().toString();
+            nextSegmentNumber = Integer.parseInt(last.substring(0, last.length() - SEGMENT_SUFFIX.length())) + 1;
+        }
+        logger.info("Loaded {} search index entries from {} segments", index.getEntryCount(), segmentFiles.size());
+
+        long added = catchUp(checkpoint == 0 ? 0 : Math.max(0, checkpoint - CATCH_UP_OVERLAP));
+        logger.info("Search index ready in {} ms, {} messages read from the store",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), added);
+    }
+
+    // Indexes every message in the store with an id greater than afterId, in keyset pages
+    private long catchUp(long afterId) {
+        long added = 0;
+        long after = afterId;
+        while (running) {
+            List<Message> page = messageStore.findAfter(after, rebuildPageSize);
+            for (Message message : page) {
+                if (add(message)) {
+                    added++;
+                }
+            }
+            if (unwritten.getEntryCount() >= segmentDocuments) {
+                writeSegment();
+            }
+            if (page.size() < rebuildPageSize) {
+                break;
+            }
+            after = page.get(page.size() - 1).getId();
+        }
+        return added;
+    }
+
+    private void writeSegment() {
+        Path file = directory.resolve(String.format("%010d", nextSegmentNumber) + SEGMENT_SUFFIX);
+        // Past the limit the whole index goes into the new segment, which replaces all the others
+        boolean compact = segmentFiles.size() >= maxSegments;
+        try {
+            IndexSegments.write(file, compact ? index : unwritten);
+            nextSegmentNumber++;
+            if (compact) {
+                for (Path old : segmentFiles) {
+                    Files.deleteIfExists(old);
+                }
+                segmentFiles.clear();
+            }
+            segmentFiles.add(file);
+            unwritten = new MessageIndex();
+        } catch (IOException e) {
+            // What was not written stays in memory and goes into the next segment
+            logger.error("Failed to write search index segment {}: {}", file, e.getMessage());
+        }
+        lastSegmentNanos = System.nanoTime();
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        lastSegmentNanos = System.nanoTime();
+        indexerThread = new Thread(this::runIndexer, "search-indexer");
+        indexerThread.setDaemon(true);
+        indexerThread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (indexerThread != null) {
+            try {
+                indexerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        // Starts after the storage engines have recovered, which catch-up reads from. On shutdown it stops
+        // before them; messages they commit after that are above the last segment and are caught up on restart.
+        return 1;
+    }
+}
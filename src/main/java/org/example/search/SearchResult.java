@@ -0,0 +1,9 @@
+package org.example.search;
+
+import java.util.List;
+
+// The best hits of a search, best first, and how many messages matched in total
+public record SearchResult(List<SearchHit> hits, int totalMatches) {
+
+    public static final SearchResult EMPTY = new SearchResult(List.of(), 0);
+}
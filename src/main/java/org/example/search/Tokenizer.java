@@ -0,0 +1,56 @@
+package org.example.search;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Splits text into terms: runs of letters and digits, lower-cased. No stemming and no stop words; single
+// characters are dropped and very long runs are cut, so a pasted blob does not become one giant term.
+final class Tokenizer {
+
+    static final int MIN_TERM_LENGTH = 2;
+    static final int MAX_TERM_LENGTH = 32;
+    static final int MAX_QUERY_TERMS = 8;
+
+    private Tokenizer() {
+    }
+
+    // Term to the number of times it occurs in the content
+    static Map<String, Integer> termFrequencies(String content) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String term : terms(content)) {
+            frequencies.merge(term, 1, Integer::sum);
+        }
+        return frequencies;
+    }
+
+    // Distinct terms of a query in the order typed, at most MAX_QUERY_TERMS of them
+    static List<String> queryTerms(String query) {
+        Set<String> terms = new LinkedHashSet<>(terms(query));
+        return terms.stream().limit(MAX_QUERY_TERMS).toList();
+    }
+
+    private static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inTerm = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inTerm && start < 0) {
+                start = i;
+            } else if (!inTerm && start >= 0) {
+                if (i - start >= MIN_TERM_LENGTH) {
+                    terms.add(text.substring(start, Math.min(i, start + MAX_TERM_LENGTH)).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+}
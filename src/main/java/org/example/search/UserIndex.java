@@ -0,0 +1,212 @@
+package org.example.search;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// One user's partition of the index: the messages they sent or received, with the contact of each, and the
+// postings of every term in them. A query only ever reads the partition of the user asking, so it can only
+// find that user's own messages. One indexer thread writes; queries read under the read lock.
+final class UserIndex {
+
+    // BM25 term frequency saturation; messages are short, so there is no length normalisation
+    private static final double K1 = 1.2;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> terms = new HashMap<>();
+
+    // Message ids in ascending order and, in the parallel array, the ordinal of the other participant
+    private long[] documentIds = new long[4];
+    private int[] documentContacts = new int[4];
+    private int documents;
+    private final List<String> contacts = new ArrayList<>();
+    private final Map<String, Integer> contactOrdinals = new HashMap<>();
+
+    // False when the message is in the partition already
+    boolean add(long id, String contact, Map<String, Integer> frequencies) {
+        lock.writeLock().lock();
+        try {
+            if (!addDocument(id, contact)) {
+                return false;
+            }
+            frequencies.forEach((term, frequency) -> terms.computeIfAbsent(term, t -> new Postings()).add(id, frequency));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    long maxId() {
+        return documents == 0 ? 0 : documentIds[documents - 1];
+    }
+
+    // Messages containing every term, ranked by BM25 with newer messages first among equal scores
+    SearchResult search(List<String> queryTerms, int limit) {
+        lock.readLock().lock();
+        try {
+            Postings[] lists = new Postings[queryTerms.size()];
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = terms.get(queryTerms.get(i));
+                if (lists[i] == null) {
+                    return SearchResult.EMPTY;
+                }
+            }
+            // The rarest term drives the intersection; the others are only probed
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.size(), b.size()));
+            double[] idf = new double[lists.length];
+            for (int i = 0; i < lists.length; i++) {
+                idf[i] = Math.log(1 + (documents - lists[i].size() + 0.5) / (lists[i].size() + 0.5));
+            }
+
+            int[] cursors = new int[lists.length];
+            PriorityQueue<Scored> top = new PriorityQueue<>(Math.max(1, limit));
+            int matches = 0;
+            Postings driver = lists[0];
+            candidates:
+            for (int i = 0; i < driver.size(); i++) {
+                long id = driver.id(i);
+                double score = idf[0] * saturate(driver.frequency(i));
+                for (int j = 1; j < lists.length; j++) {
+                    cursors[j] = lists[j].seek(cursors[j], id);
+                    if (cursors[j] == lists[j].size()) {
+                        break candidates;
+                    }
+                    if (lists[j].id(cursors[j]) != id) {
+                        continue candidates;
+                    }
+                    score += idf[j] * saturate(lists[j].frequency(cursors[j]));
+                }
+                matches++;
+                Scored candidate = new Scored(id, score);
+                if (top.size() < limit) {
+                    top.add(candidate);
+                } else if (limit > 0 && candidate.compareTo(top.peek()) > 0) {
+                    top.poll();
+                    top.add(candidate);
+                }
+            }
+
+            List<SearchHit> hits = new ArrayList<>(top.size());
+            while (!top.isEmpty()) {
+                Scored scored = top.poll();
+                hits.add(new SearchHit(scored.id(), contactOf(scored.id()), scored.score()));
+            }
+            Collections.reverse(hits);
+            return new SearchResult(hits, matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Called by the indexer thread, the only writer, so reading without the lock is safe
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(contacts.size());
+        for (String contact : contacts) {
+            out.writeUTF(contact);
+        }
+        out.writeInt(documents);
+        long previous = 0;
+        for (int i = 0; i < documents; i++) {
+            IndexSegments.writeVarLong(out, documentIds[i] - previous);
+            IndexSegments.writeVarLong(out, documentContacts[i]);
+            previous = documentIds[i];
+        }
+        out.writeInt(terms.size());
+        for (Map.Entry<String, Postings> term : terms.entrySet()) {
+            Postings postings = term.getValue();
+            out.writeUTF(term.getKey());
+            out.writeInt(postings.size());
+            previous = 0;
+            for (int i = 0; i < postings.size(); i++) {
+                IndexSegments.writeVarLong(out, postings.id(i) - previous);
+                out.writeByte(postings.frequency(i));
+                previous = postings.id(i);
+            }
+        }
+    }
+
+    // Merges a partition written by write(), skipping entries already present. Returns the messages added.
+    int read(DataInputStream in) throws IOException {
+        lock.writeLock().lock();
+        try {
+            String[] segmentContacts = new String[in.readInt()];
+            for (int i = 0; i < segmentContacts.length; i++) {
+                segmentContacts[i] = in.readUTF();
+            }
+            int count = in.readInt();
+            int added = 0;
+            long id = 0;
+            for (int i = 0; i < count; i++) {
+                id += IndexSegments.readVarLong(in);
+                if (addDocument(id, segmentContacts[(int) IndexSegments.readVarLong(in)])) {
+                    added++;
+                }
+            }
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                Postings postings = terms.computeIfAbsent(in.readUTF(), t -> new Postings());
+                int size = in.readInt();
+                id = 0;
+                for (int j = 0; j < size; j++) {
+                    id += IndexSegments.readVarLong(in);
+                    postings.add(id, in.readByte());
+                }
+            }
+            return added;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Caller holds the write lock
+    private boolean addDocument(long id, String contact) {
+        int position = documents;
+        if (documents > 0 && id <= documentIds[documents - 1]) {
+            position = Arrays.binarySearch(documentIds, 0, documents, id);
+            if (position >= 0) {
+                return false;
+            }
+            position = -position - 1;
+        }
+        if (documents == documentIds.length) {
+            int capacity = documents + (documents >> 1) + 1;
+            documentIds = Arrays.copyOf(documentIds, capacity);
+            documentContacts = Arrays.copyOf(documentContacts, capacity);
+        }
+        System.arraycopy(documentIds, position, documentIds, position + 1, documents - position);
+        System.arraycopy(documentContacts, position, documentContacts, position + 1, documents - position);
+        documentIds[position] = id;
+        documentContacts[position] = contactOrdinals.computeIfAbsent(contact, c -> {
+            contacts.add(c);
+            return contacts.size() - 1;
+        });
+        documents++;
+        return true;
+    }
+
+    // Caller holds the lock
+    private String contactOf(long id) {
+        return contacts.get(documentContacts[Arrays.binarySearch(documentIds, 0, documents, id)]);
+    }
+
+    private static double saturate(int frequency) {
+        return frequency * (K1 + 1) / (frequency + K1);
+    }
+
+    private record Scored(long id, double score) implements Comparable<Scored> {
+        // Lower score, then older message, ranks lower; the heap head is the worst hit kept
+        @Override
+        public int compareTo(Scored other) {
+            int byScore = Double.compare(score, other.score);
+            return byScore != 0 ? byScore : Long.compare(id, other.id);
+        }
+    }
+}
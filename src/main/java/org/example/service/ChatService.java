@@ -1,84 +1,224 @@
 package org.example.service;
 
+import org.example.archive.MessageArchive;
+import org.example.cache.ResponsePageCache;
+import org.example.entity.ConversationSummary;
+import org.example.entity.DeviceCursor;
 import org.example.entity.Message;
-import org.example.entity.User;
-import org.example.repository.MessageRepository;
+import org.example.repository.DeviceCursorRepository;
 import org.example.repository.UserRepository;
+import org.example.search.SearchHit;
+import org.example.search.SearchIndex;
+import org.example.search.SearchResult;
+import org.example.store.MessageStore;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @Service
 public class ChatService {
 
     private final UserRepository userRepository;
-    private final MessageRepository messageRepository;
-
-    public ChatService(UserRepository userRepository, MessageRepository messageRepository) {
+    private final UserDirectory userDirectory;
+    private final MessageStore messageStore;
+    private final DeviceCursorRepository deviceCursorRepository;
+    private final MessageIdAllocator messageIdAllocator;
+    private final MessageWriter messageWriter;
+    private final MessageArchive messageArchive;
+    private final ReadStateService readStateService;
+    private final SearchIndex searchIndex;
+    private final ResponsePageCache responseCache;
+
+    public ChatService(UserRepository userRepository, UserDirectory userDirectory,
+                       MessageStore messageStore, DeviceCursorRepository deviceCursorRepository,
+                       MessageIdAllocator messageIdAllocator, MessageWriter messageWriter,
+                       MessageArchive messageArchive, ReadStateService readStateService,
+                       SearchIndex searchIndex, ResponsePageCache responseCache) {
         this.userRepository = userRepository;
-        this.messageRepository = messageRepository;
+        this.userDirectory = userDirectory;
+        this.messageStore = messageStore;
+        this.deviceCursorRepository = deviceCursorRepository;
+        this.messageIdAllocator = messageIdAllocator;
+        this.messageWriter = messageWriter;
+        this.messageArchive = messageArchive;
+        this.readStateService = readStateService;
+        this.searchIndex = searchIndex;
+        this.responseCache = responseCache;
+    }
+
+    public UserAccount registerUser(String username, String password) {
+        return userDirectory.register(username, password);
+    }
+
+    public Optional<UserAccount> authenticateUser(String username, String password) {
+        return userDirectory.find(username).filter(user -> user.password().equals(password));
+    }
+
+    // Called on every WebSocket authenticate; written to the database in periodic batches
+    public void updateLastLogin(String username) {
+        userDirectory.recordLogin(username);
     }
 
-    public User registerUser(String username, String password) {
-        if (userRepository.existsByUsername(username)) {
-            throw new IllegalArgumentException("Username already exists");
+    // Builds a message with its final id already assigned, without touching the messages table
+    public Message createMessage(String senderUsername, String recipientUsername, String content) {
+        Message message = new Message(senderUsername, recipientUsername, content);
+        message.setId(messageIdAllocator.nextId());
+        return message;
+    }
+
+    // Hands the message to the storage engine's write queue; onPersisted fires once its batch is durable, onFailed
+    // if the engine gave up on it. The message must not be modified after this call. Search indexes it at the same
+    // point, so a search never finds a message that a restart would lose, and cached pages it changes are dropped.
+    // The id is settled with the allocator whichever way the write ends.
+    public void saveMessage(Message message, Consumer<Message> onPersisted, Consumer<Exception> onFailed) {
+        try {
+            messageStore.save(message, persisted -> {
+                messageIdAllocator.settle(persisted.getId());
+                searchIndex.index(persisted);
+                responseCache.messagePersisted(persisted);
+                onPersisted.accept(persisted);
+            }, failure -> {
+                messageIdAllocator.settle(message.getId());
+                onFailed.accept(failure);
+            });
+        } catch (RejectedExecutionException e) {
+            messageIdAllocator.settle(message.getId());
+            throw e;
         }
+    }
+
+    // Keyset page of the messages a device has not acknowledged yet, a range scan from its cursor
+    public List<Message> getMessagesSince(String recipientUsername, long afterId, int limit) {
+        return messageStore.findByRecipientAfter(recipientUsername, afterId, limit);
+    }
+
+    // Above the id of every message created so far, on any node
+    public long idCeiling() {
+        return messageIdAllocator.ceiling();
+    }
 
-        User user = new User(username, password);
-        return userRepository.save(user);
+    public Optional<DeviceCursor> findDevice(String username, String deviceId) {
+        return deviceCursorRepository.findById(DeviceCursor.cursorId(username, deviceId));
     }
 
-    public Optional<User> authenticateUser(String username, String password) {
-        Optional<User> userOpt = userRepository.findByUsername(username);
+    // A device seen for the first time starts just before the user's oldest undelivered message,
+    // so it receives what no other device has acknowledged, plus anything newer. Never past the horizon:
+    // a message with a lower id than the latest may still be on its way to storage.
+    public DeviceCursor registerDevice(String username, String deviceId, long horizon) {
+        Long oldestUndelivered = messageStore.findOldestUndeliveredId(username);
+        long start = oldestUndelivered != null
+                ? oldestUndelivered - 1
+                : messageStore.findLatestIdByRecipient(username);
+        return deviceCursorRepository.save(new DeviceCursor(username, deviceId, Math.min(start, horizon)));
+    }
+
+    // The device has received every message addressed to the user up to and including upTo, and the ones in
+    // ackedAbove past it
+    public void markDeviceSynced(String username, String deviceId, long upTo, Collection<Long> ackedAbove) {
+        messageWriter.submitDeviceCursor(username, deviceId, upTo, DeviceCursor.encodeAckedAbove(ackedAbove));
+    }
+
+    // Waits until messages, delivery marks and cursors queued so far are durable. The message store and the
+    // writer for rooms and cursors are the same queue with the jpa engine and two with the log engine.
+    public boolean flushWrites(long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        return messageStore.flush(timeoutMs)
+                && messageWriter.flush(Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+    }
 
-        if (userOpt.isPresent() && userOpt.get().getPassword().equals(password)) {
-            return userOpt;
+    // Called once the recipient has acknowledged the messages, not when they are written to the socket.
+    // Queued behind the messages' own writes and applied in bulk.
+    public void markMessagesAsDelivered(String recipientUsername, Collection<Long> messageIds) {
+        if (!messageIds.isEmpty()) {
+            List<Long> ids = List.copyOf(messageIds);
+            messageStore.markDelivered(ids, () -> responseCache.messagesDelivered(recipientUsername, ids));
         }
+    }
 
-        return Optional.empty();
+    // Read receipts; kept in memory and written in periodic batches, never through the message store
+    public void markRead(String reader, String contact, long upTo) {
+        readStateService.markRead(reader, contact, upTo);
+        responseCache.readMarked(reader, contact);
     }
 
-    @Transactional
-    public void updateLastLogin(String username) {
-        // @Transactional is needed here because we're updating entity state
-        // outside of a repository method, ensuring the update is persisted
-        userRepository.findByUsername(username).ifPresent(user -> {
-            user.setLastLogin(LocalDateTime.now());
-            userRepository.save(user);
-        });
+    public Map<String, Long> getReadUpTo(String username) {
+        return readStateService.getReadUpTo(username);
     }
 
-    public Message saveMessage(String senderUsername, String recipientUsername, String content) {
-        Message message = new Message(senderUsername, recipientUsername, content);
-        return messageRepository.save(message);
+    public Map<String, Long> getReadByContacts(String username) {
+        return readStateService.getReadByContacts(username);
     }
 
-    public List<Message> getUndeliveredMessages(String recipientUsername) {
-        return messageRepository.findByRecipientUsernameAndDeliveredFalseOrderBySentAt(recipientUsername);
+    // Usernames only, one page at a time and without loading User entities
+    public Slice<String> getUsernames(int page, int size) {
+        return userRepository.findUsernames(PageRequest.of(page, size, Sort.by("username")));
     }
 
-    @Transactional
-    public void markMessageAsDelivered(Long messageId) {
-        // @Transactional ensures the delivery status update is atomically committed
-        messageRepository.findById(messageId).ifPresent(message -> {
-            message.setDelivered(true);
-            message.setDeliveredAt(LocalDateTime.now());
-            messageRepository.save(message);
-        });
+    // Returns up to limit messages older than the "before" id, newest first. Pages past the hot window fall
+    // through to the archive. A full hot page still takes archived messages newer than its oldest row, which
+    // exist when an old message stayed undelivered while later ones were archived; the archive index answers
+    // that without reading a segment in the usual case where there are none.
+    public List<Message> getConversationHistory(String user1, String user2, long before, int limit) {
+        String conversationKey = Message.conversationKey(user1, user2);
+        List<Message> hot = messageStore.findConversationBefore(conversationKey, before, limit);
+        long archivedAfter = hot.size() == limit ? hot.get(hot.size() - 1).getId() : 0;
+        List<Message> archived = messageArchive.findBetween(conversationKey, archivedAfter, before, limit);
+        if (archived.isEmpty()) {
+            return hot;
+        }
+        List<Message> merged = new ArrayList<>(hot);
+        merged.addAll(archived);
+        merged.sort(Comparator.comparing(Message::getId).reversed());
+        return merged.subList(0, Math.min(limit, merged.size()));
+    }
+
+    public boolean isSearchEnabled() {
+        return searchIndex.isEnabled();
+    }
+
+    public boolean isSearchCatchingUp() {
+        return searchIndex.isCatchingUp();
     }
 
-    public List<User> getAllUsers() {
-        return userRepository.findAll();
+    // The user's messages containing every term of the query, best match first, at most limit of them.
+    // Only the user's own partition of the index is read, so only their own conversations are searched.
+    public SearchResult searchMessages(String username, String query, int limit) {
+        return searchIndex.search(username, query, limit);
     }
 
-    public List<Message> getConversationHistory(String user1, String user2) {
-        return messageRepository.findConversationHistory(user1, user2);
+    // Loads the messages behind search hits, one store lookup per conversation. Hits on messages that have
+    // moved to the archive since they were indexed are read from there.
+    public Map<Long, Message> getSearchHitMessages(String username, List<SearchHit> hits) {
+        Map<String, List<Long>> idsByConversation = new HashMap<>();
+        hits.forEach(hit -> idsByConversation.computeIfAbsent(Message.conversationKey(username, hit.contact()),
+                key -> new ArrayList<>()).add(hit.messageId()));
+        Map<Long, Message> messages = new HashMap<>();
+        idsByConversation.forEach((conversationKey, ids) -> {
+            messageStore.findByIds(conversationKey, ids).forEach(message -> messages.put(message.getId(), message));
+            for (Long id : ids) {
+                if (!messages.containsKey(id)) {
+                    messageArchive.findBetween(conversationKey, id - 1, id + 1, 1)
+                            .forEach(message -> messages.put(message.getId(), message));
+                }
+            }
+        });
+        return messages;
     }
 
-    public List<Message> getRecentConversations(String username) {
-        return messageRepository.findRecentConversations(username);
+    // Served from the conversation summaries, so the cost depends on the number of contacts, not on history size
+    public List<ConversationSummary> getRecentConversations(String username) {
+        return messageStore.getSummaries(username);
     }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+package org.example.service;
+
+import jakarta.persistence.EntityManager;
+import org.example.entity.ConversationSummary;
+import org.example.entity.Message;
+import org.example.repository.ConversationSummaryRepository;
+import org.example.repository.MessageRepository;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Incremental maintenance of the conversation_summary table. Both methods are called by
+// MessageWriter inside its batch transaction, so summaries commit together with the messages.
+@Service
+public class ConversationSummaryService {
+
+    private final ConversationSummaryRepository summaryRepository;
+    private final EntityManager entityManager;
+
+    public ConversationSummaryService(ConversationSummaryRepository summaryRepository, EntityManager entityManager) {
+        this.summaryRepository = summaryRepository;
+        this.entityManager = entityManager;
+    }
+
+    public void recordMessages(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Map<String, ConversationSummary> summaries = loadSummaries(messages.stream()
+                .flatMap(message -> Stream.of(
+                        ConversationSummary.summaryId(message.getSenderUsername(), message.getRecipientUsername()),
+                        ConversationSummary.summaryId(message.getRecipientUsername(), message.getSenderUsername())))
+                .collect(Collectors.toSet()));
+
+        List<ConversationSummary> created = new ArrayList<>();
+        for (Message message : messages) {
+            summaryFor(summaries, created, message.getSenderUsername(), message.getRecipientUsername())
+                    .applyMessage(message);
+
+            ConversationSummary recipientSummary =
+                    summaryFor(summaries, created, message.getRecipientUsername(), message.getSenderUsername());
+            recipientSummary.applyMessage(message);
+            if (!message.isDelivered()) {
+                recipientSummary.setUnreadCount(recipientSummary.getUnreadCount() + 1);
+            }
+        }
+        // persist rather than save: the id is assigned, so save would issue a SELECT per row first
+        created.forEach(entityManager::persist);
+    }
+
+    // Must run before the messages are flagged delivered, the counts only include undelivered ones
+    public void recordDelivered(List<MessageRepository.UndeliveredCount> counts) {
+        if (counts.isEmpty()) {
+            return;
+        }
+        Map<String, ConversationSummary> summaries = loadSummaries(counts.stream()
+                .map(count -> ConversationSummary.summaryId(count.getRecipientUsername(), count.getSenderUsername()))
+                .collect(Collectors.toSet()));
+
+        for (MessageRepository.UndeliveredCount count : counts) {
+            ConversationSummary summary = summaries.get(
+                    ConversationSummary.summaryId(count.getRecipientUsername(), count.getSenderUsername()));
+            if (summary != null) {
+                summary.setUnreadCount((int) Math.max(0, summary.getUnreadCount() - count.getCount()));
+            }
+        }
+    }
+
+    public List<ConversationSummary> getSummaries(String ownerUsername) {
+        return summaryRepository.findByOwnerUsernameOrderByLastMessageIdDesc(ownerUsername);
+    }
+
+    private Map<String, ConversationSummary> loadSummaries(Collection<String> ids) {
+        return new HashMap<>(summaryRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(ConversationSummary::getId, Function.identity())));
+    }
+
+    private ConversationSummary summaryFor(Map<String, ConversationSummary> summaries,
+                                           List<ConversationSummary> created, String owner, String contact) {
+        return summaries.computeIfAbsent(ConversationSummary.summaryId(owner, contact), id -> {
+            ConversationSummary summary = new ConversationSummary(owner, contact);
+            created.add(summary);
+            return summary;
+        });
+    }
+}
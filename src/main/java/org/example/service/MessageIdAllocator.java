@@ -0,0 +1,103 @@
+package org.example.service;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Ids are handed out before their message is written, and nodes draw from separate blocks, so a lower id can
+// commit after a higher one. The allocator also tracks the ids still on their way to storage: floor() is the
+// lowest id this node may yet commit, which device sync uses to tell a gap that may still fill from one that
+// never will.
+@Component
+public class MessageIdAllocator {
+
+    // Must match the INCREMENT BY of messages_seq in schema.sql
+    static final int ALLOCATION_SIZE = 50;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // A lock rather than synchronized: the sequence call would otherwise pin a virtual thread's carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private long nextId;
+    private long blockEnd;
+    // Handed out and neither persisted nor failed yet
+    private final TreeSet<Long> outstanding = new TreeSet<>();
+
+    public MessageIdAllocator(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // Pooled allocation: one sequence call reserves ALLOCATION_SIZE ids, so only every
+    // 50th message costs a database round trip and ids stay unique across nodes.
+    // Every id handed out must be settled once its message is persisted or has failed.
+    public long nextId() {
+        lock.lock();
+        try {
+            if (nextId >= blockEnd) {
+                fetchBlock();
+            }
+            outstanding.add(nextId);
+            return nextId++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void settle(long id) {
+        lock.lock();
+        try {
+            outstanding.remove(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The lowest id this node may still commit: the oldest one in flight, else the next one it will hand out
+    public long floor() {
+        lock.lock();
+        try {
+            if (!outstanding.isEmpty()) {
+                return outstanding.first();
+            }
+            if (nextId >= blockEnd) {
+                fetchBlock();
+            }
+            return nextId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // For publishing to other nodes. With nothing in flight the rest of the block is given up, so an idle node's
+    // floor moves past the blocks other nodes took meanwhile instead of holding them back until its next message.
+    public long retireIdleBlock() {
+        lock.lock();
+        try {
+            if (outstanding.isEmpty()) {
+                nextId = blockEnd;
+            }
+            return floor();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Above every id handed out so far on any node: the start of a fresh block, which this node goes on with
+    public long ceiling() {
+        lock.lock();
+        try {
+            fetchBlock();
+            return nextId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fetchBlock() {
+        Long blockStart = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR messages_seq", Long.class);
+        nextId = blockStart;
+        blockEnd = blockStart + ALLOCATION_SIZE;
+    }
+}
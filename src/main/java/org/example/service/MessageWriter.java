@@ -0,0 +1,420 @@
+package org.example.service;
+
+import jakarta.persistence.EntityManager;
+import org.example.entity.DeviceCursor;
+import org.example.entity.Message;
+import org.example.entity.RoomMembership;
+import org.example.entity.RoomMessage;
+import org.example.metrics.ChatMetrics;
+import org.example.repository.DeviceCursorRepository;
+import org.example.repository.MessageRepository;
+import org.example.repository.RoomMembershipRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Write-behind persistence for chat messages: WebSocket threads only enqueue, a single
+// writer thread inserts them in JDBC batches so delivery never waits on a commit
+@Component
+public class MessageWriter implements SmartLifecycle {
+
+    Logger logger = LoggerFactory.getLogger(MessageWriter.class);
+
+    private static final int MAX_IDS_PER_UPDATE = 1000;
+
+    private final EntityManager entityManager;
+    private final MessageRepository messageRepository;
+    private final RoomMembershipRepository roomMembershipRepository;
+    private final DeviceCursorRepository deviceCursorRepository;
+    private final ConversationSummaryService conversationSummaryService;
+    private final TransactionTemplate transactionTemplate;
+    private final ChatMetrics metrics;
+    private final BlockingQueue<PendingWrite> queue;
+    private final int flushSize;
+    private final long flushIntervalMs;
+    private final long offerTimeoutMs;
+
+    private volatile boolean running;
+    private Thread writerThread;
+
+    public MessageWriter(EntityManager entityManager,
+                         MessageRepository messageRepository,
+                         RoomMembershipRepository roomMembershipRepository,
+                         DeviceCursorRepository deviceCursorRepository,
+                         ConversationSummaryService conversationSummaryService,
+                         TransactionTemplate transactionTemplate,
+                         ChatMetrics metrics,
+                         @Value("${chat.persistence.queue-capacity:10000}") int queueCapacity,
+                         @Value("${chat.persistence.flush-size:200}") int flushSize,
+                         @Value("${chat.persistence.flush-interval-ms:20}") long flushIntervalMs,
+                         @Value("${chat.persistence.offer-timeout-ms:100}") long offerTimeoutMs) {
+        this.entityManager = entityManager;
+        this.messageRepository = messageRepository;
+        this.roomMembershipRepository = roomMembershipRepository;
+        this.deviceCursorRepository = deviceCursorRepository;
+        this.conversationSummaryService = conversationSummaryService;
+        this.transactionTemplate = transactionTemplate;
+        this.metrics = metrics;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flushSize = flushSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.offerTimeoutMs = offerTimeoutMs;
+        metrics.gauge("chat.persistence.queue.depth", "Writes queued for the write-behind writer", queue::size);
+    }
+
+    // onPersisted runs on the writer thread once the batch holding the message has committed, onFailed if the
+    // message could not be inserted on its own either and was dropped.
+    // Throws RejectedExecutionException when the queue stays full past the offer timeout.
+    public void submit(Message message, Consumer<Message> onPersisted, Consumer<Exception> onFailed) {
+        if (!running) {
+            throw new RejectedExecutionException("Message writer is not running");
+        }
+        if (!offer(new PendingInsert(message, onPersisted, onFailed, System.nanoTime()))) {
+            throw new RejectedExecutionException("Message queue is full");
+        }
+    }
+
+    // Same contract as submit(Message, ...)
+    public void submitRoomMessage(RoomMessage message, Consumer<RoomMessage> onPersisted,
+                                  Consumer<Exception> onFailed) {
+        if (!running) {
+            throw new RejectedExecutionException("Message writer is not running");
+        }
+        if (!offer(new PendingRoomInsert(message, onPersisted, onFailed, System.nanoTime()))) {
+            throw new RejectedExecutionException("Message queue is full");
+        }
+    }
+
+    // Cursor moves are queued like delivery marks; a dropped one is superseded by the member's next ack
+    public void submitRoomCursor(Long roomId, String username, long upTo) {
+        if (!offer(new PendingRoomCursor(roomId, username, upTo, System.nanoTime()))) {
+            logger.warn("Message queue is full, room {} cursor for {} dropped", roomId, username);
+        }
+    }
+
+    public void submitDeviceCursor(String username, String deviceId, long upTo, String ackedAbove) {
+        if (!offer(new PendingDeviceCursor(username, deviceId, upTo, ackedAbove, System.nanoTime()))) {
+            logger.warn("Message queue is full, cursor of device {} of {} dropped", deviceId, username);
+        }
+    }
+
+    // Delivery marks travel through the same queue so they are always applied after the
+    // INSERT of the messages they refer to. A dropped mark only means a duplicate delivery later.
+    public void submitDelivered(Collection<Long> messageIds, Runnable onApplied) {
+        if (!offer(new PendingDelivered(List.copyOf(messageIds), onApplied, System.nanoTime()))) {
+            logger.warn("Message queue is full, delivery mark for {} messages dropped", messageIds.size());
+        }
+    }
+
+    // Blocks until every write queued before the call has been committed, or dropped after failing.
+    // Returns false if that takes longer than timeoutMs.
+    public boolean flush(long timeoutMs) {
+        if (!running) {
+            return queue.isEmpty();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        CountDownLatch flushed = new CountDownLatch(1);
+        try {
+            return queue.offer(new PendingFlush(flushed), timeoutMs, TimeUnit.MILLISECONDS)
+                    && flushed.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private boolean offer(PendingWrite write) {
+        try {
+            return queue.offer(write, offerTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private void runWriter() {
+        List<PendingWrite> batch = new ArrayList<>(flushSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Give slower producers up to one flush interval to fill the batch
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < flushSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+                return;
+            } finally {
+                // Released after the batch, so everything queued ahead of a flush has been through the writer
+                releaseFlushes(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        long start = System.nanoTime();
+        List<PendingInsert> inserts = new ArrayList<>();
+        List<PendingRoomInsert> roomInserts = new ArrayList<>();
+        List<PendingDelivered> deliveredMarks = new ArrayList<>();
+        List<Long> deliveredIds = new ArrayList<>();
+        // Only the furthest cursor per membership matters, however many acks arrived during the interval
+        Map<String, PendingRoomCursor> roomCursors = new LinkedHashMap<>();
+        Map<String, PendingDeviceCursor> deviceCursors = new LinkedHashMap<>();
+        for (PendingWrite write : batch) {
+            if (write instanceof PendingInsert insert) {
+                inserts.add(insert);
+            } else if (write instanceof PendingRoomInsert roomInsert) {
+                roomInserts.add(roomInsert);
+            } else if (write instanceof PendingDelivered delivered) {
+                deliveredMarks.add(delivered);
+                deliveredIds.addAll(delivered.messageIds());
+            } else if (write instanceof PendingRoomCursor cursor) {
+                roomCursors.merge(RoomMembership.membershipId(cursor.roomId(), cursor.username()), cursor,
+                        (current, next) -> next.upTo() > current.upTo() ? next : current);
+            } else if (write instanceof PendingDeviceCursor cursor) {
+                // At the same cursor the later one has the latest acked ids above it
+                deviceCursors.merge(DeviceCursor.cursorId(cursor.username(), cursor.deviceId()), cursor,
+                        (current, next) -> next.upTo() >= current.upTo() ? next : current);
+            }
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                insertMessages(inserts);
+                insertRoomMessages(roomInserts);
+                markDelivered(deliveredIds);
+                advanceRoomCursors(roomCursors.values());
+                advanceDeviceCursors(deviceCursors.values());
+            });
+        } catch (Exception e) {
+            logger.error("Batch write of {} operations failed, retrying individually: {}", batch.size(), e.getMessage());
+            retryIndividually(inserts, roomInserts, deliveredMarks, deliveredIds, roomCursors.values(),
+                    deviceCursors.values());
+            return;
+        }
+        metrics.flushed(start, batch.size());
+        deliveredMarks.forEach(delivered -> {
+            metrics.deliveredMarked(delivered.submittedNanos());
+            notifyApplied(delivered);
+        });
+        inserts.forEach(this::notifyPersisted);
+        roomInserts.forEach(this::notifyPersisted);
+    }
+
+    private void retryIndividually(List<PendingInsert> inserts, List<PendingRoomInsert> roomInserts,
+                                   List<PendingDelivered> deliveredMarks, List<Long> deliveredIds,
+                                   Collection<PendingRoomCursor> roomCursors,
+                                   Collection<PendingDeviceCursor> deviceCursors) {
+        for (PendingInsert insert : inserts) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> insertMessages(List.of(insert)));
+                notifyPersisted(insert);
+            } catch (Exception e) {
+                logger.error("Dropping message {} after failed insert: {}", insert.message().getId(), e.getMessage());
+                notifyFailed(insert.onFailed(), insert.message().getId(), e);
+            }
+        }
+        for (PendingRoomInsert insert : roomInserts) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> insertRoomMessages(List.of(insert)));
+                notifyPersisted(insert);
+            } catch (Exception e) {
+                logger.error("Dropping room message {} after failed insert: {}",
+                        insert.message().getId(), e.getMessage());
+                notifyFailed(insert.onFailed(), insert.message().getId(), e);
+            }
+        }
+        if (!deliveredIds.isEmpty()) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> markDelivered(deliveredIds));
+                deliveredMarks.forEach(this::notifyApplied);
+            } catch (Exception e) {
+                logger.error("Failed to mark {} messages as delivered: {}", deliveredIds.size(), e.getMessage());
+            }
+        }
+        if (!roomCursors.isEmpty()) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> advanceRoomCursors(roomCursors));
+            } catch (Exception e) {
+                logger.error("Failed to advance {} room cursors: {}", roomCursors.size(), e.getMessage());
+            }
+        }
+        if (!deviceCursors.isEmpty()) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> advanceDeviceCursors(deviceCursors));
+            } catch (Exception e) {
+                logger.error("Failed to advance {} device cursors: {}", deviceCursors.size(), e.getMessage());
+            }
+        }
+    }
+
+    private void insertMessages(List<PendingInsert> inserts) {
+        List<Message> messages = inserts.stream().map(PendingInsert::message).toList();
+        messages.forEach(entityManager::persist);
+        conversationSummaryService.recordMessages(messages);
+        entityManager.flush();
+    }
+
+    private void insertRoomMessages(List<PendingRoomInsert> inserts) {
+        inserts.forEach(insert -> entityManager.persist(insert.message()));
+        entityManager.flush();
+    }
+
+    private void advanceRoomCursors(Collection<PendingRoomCursor> cursors) {
+        cursors.forEach(cursor ->
+                roomMembershipRepository.advanceCursor(cursor.roomId(), cursor.username(), cursor.upTo()));
+    }
+
+    private void advanceDeviceCursors(Collection<PendingDeviceCursor> cursors) {
+        LocalDateTime now = LocalDateTime.now();
+        cursors.forEach(cursor -> deviceCursorRepository.advanceCursor(
+                DeviceCursor.cursorId(cursor.username(), cursor.deviceId()), cursor.upTo(), cursor.ackedAbove(), now));
+    }
+
+    private void markDelivered(List<Long> deliveredIds) {
+        LocalDateTime deliveredAt = LocalDateTime.now();
+        // Keep each IN list well below driver bind-parameter limits
+        for (int from = 0; from < deliveredIds.size(); from += MAX_IDS_PER_UPDATE) {
+            List<Long> chunk = deliveredIds.subList(from, Math.min(from + MAX_IDS_PER_UPDATE, deliveredIds.size()));
+            conversationSummaryService.recordDelivered(messageRepository.countUndeliveredByConversation(chunk));
+            entityManager.flush();
+            messageRepository.markDelivered(chunk, deliveredAt);
+        }
+    }
+
+    private void notifyPersisted(PendingInsert insert) {
+        metrics.saved(insert.submittedNanos());
+        try {
+            insert.onPersisted().accept(insert.message());
+        } catch (Exception e) {
+            logger.error("Persisted callback failed for message {}: {}", insert.message().getId(), e.getMessage());
+        }
+    }
+
+    private void notifyPersisted(PendingRoomInsert insert) {
+        metrics.saved(insert.submittedNanos());
+        try {
+            insert.onPersisted().accept(insert.message());
+        } catch (Exception e) {
+            logger.error("Persisted callback failed for room message {}: {}", insert.message().getId(), e.getMessage());
+        }
+    }
+
+    private void notifyFailed(Consumer<Exception> onFailed, Long messageId, Exception cause) {
+        try {
+            onFailed.accept(cause);
+        } catch (Exception e) {
+            logger.error("Failed callback failed for message {}: {}", messageId, e.getMessage());
+        }
+    }
+
+    private static void releaseFlushes(List<PendingWrite> batch) {
+        for (PendingWrite write : batch) {
+            if (write instanceof PendingFlush flush) {
+                flush.flushed().countDown();
+            }
+        }
+    }
+
+    private void notifyApplied(PendingDelivered delivered) {
+        try {
+            delivered.onApplied().run();
+        } catch (Exception e) {
+            logger.error("Delivered callback failed for {} messages: {}", delivered.messageIds().size(), e.getMessage());
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        writerThread = new Thread(this::runWriter, "message-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void stop() {
+        // Stop accepting new messages and let the writer drain what is already queued
+        running = false;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        // Stop after the web server so frames still in flight during shutdown get persisted
+        return 0;
+    }
+
+    private sealed interface PendingWrite
+            permits PendingInsert, PendingRoomInsert, PendingDelivered, PendingRoomCursor, PendingDeviceCursor,
+            PendingFlush {
+    }
+
+    private record PendingInsert(Message message, Consumer<Message> onPersisted, Consumer<Exception> onFailed,
+                                 long submittedNanos) implements PendingWrite {
+    }
+
+    private record PendingRoomInsert(RoomMessage message, Consumer<RoomMessage> onPersisted,
+                                     Consumer<Exception> onFailed, long submittedNanos) implements PendingWrite {
+    }
+
+    private record PendingDelivered(List<Long> messageIds, Runnable onApplied, long submittedNanos)
+            implements PendingWrite {
+    }
+
+    private record PendingRoomCursor(Long roomId, String username, long upTo, long submittedNanos)
+            implements PendingWrite {
+    }
+
+    private record PendingDeviceCursor(String username, String deviceId, long upTo, String ackedAbove,
+                                       long submittedNanos)
+            implements PendingWrite {
+    }
+
+    private record PendingFlush(CountDownLatch flushed) implements PendingWrite {
+    }
+}
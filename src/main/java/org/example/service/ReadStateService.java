@@ -0,0 +1,110 @@
+package org.example.service;
+
+import jakarta.annotation.PreDestroy;
+import org.example.entity.ReadCursor;
+import org.example.repository.ReadCursorRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Read positions per conversation. Receipts only raise an in-memory "read up to" per (reader, contact), and
+// the positions are written in one batch upsert every flush interval, so a user scrolling through a
+// conversation costs at most one row write per interval however many receipts the client sends.
+@Component
+public class ReadStateService {
+
+    Logger logger = LoggerFactory.getLogger(ReadStateService.class);
+
+    // Inserts a new cursor or raises an existing one; a position older than the stored one changes nothing
+    private static final String UPSERT_SQL = "MERGE INTO read_cursors t "
+            + "USING (VALUES (CAST(? AS VARCHAR(520)), CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(255)), "
+            + "CAST(? AS BIGINT), CAST(? AS TIMESTAMP))) s(id, reader, contact, up_to, read_at) ON t.id = s.id "
+            + "WHEN MATCHED AND t.last_read_id < s.up_to THEN UPDATE SET last_read_id = s.up_to, updated_at = s.read_at "
+            + "WHEN NOT MATCHED THEN INSERT (id, reader_username, contact_username, last_read_id, updated_at) "
+            + "VALUES (s.id, s.reader, s.contact, s.up_to, s.read_at)";
+
+    private final ReadCursorRepository readCursorRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    // Highest position per conversation not yet written
+    private final Map<Conversation, Long> pendingReads = new ConcurrentHashMap<>();
+
+    public ReadStateService(ReadCursorRepository readCursorRepository, JdbcTemplate jdbcTemplate) {
+        this.readCursorRepository = readCursorRepository;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void markRead(String reader, String contact, long upTo) {
+        pendingReads.merge(new Conversation(reader, contact), upTo, Math::max);
+    }
+
+    // Contact to the id up to which the user has read that contact's messages
+    public Map<String, Long> getReadUpTo(String reader) {
+        Map<String, Long> readUpTo = new HashMap<>();
+        readCursorRepository.findByReaderUsername(reader)
+                .forEach(cursor -> readUpTo.put(cursor.getContactUsername(), cursor.getLastReadId()));
+        pendingReads.forEach((conversation, upTo) -> {
+            if (conversation.reader().equals(reader)) {
+                readUpTo.merge(conversation.contact(), upTo, Math::max);
+            }
+        });
+        return readUpTo;
+    }
+
+    // Contact to the id up to which that contact has read the user's messages
+    public Map<String, Long> getReadByContacts(String username) {
+        Map<String, Long> readByContacts = new HashMap<>();
+        readCursorRepository.findByContactUsername(username)
+                .forEach(cursor -> readByContacts.put(cursor.getReaderUsername(), cursor.getLastReadId()));
+        pendingReads.forEach((conversation, upTo) -> {
+            if (conversation.contact().equals(username)) {
+                readByContacts.merge(conversation.reader(), upTo, Math::max);
+            }
+        });
+        return readByContacts;
+    }
+
+    @Scheduled(fixedDelayString = "${chat.read.persist-interval-ms:5000}")
+    public void flushReads() {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> upserts = new ArrayList<>();
+        Iterator<Map.Entry<Conversation, Long>> iterator = pendingReads.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Conversation, Long> read = iterator.next();
+            Conversation conversation = read.getKey();
+            // remove(key, value) keeps a position raised while this flush was running for the next one
+            if (pendingReads.remove(conversation, read.getValue())) {
+                upserts.add(new Object[]{ReadCursor.cursorId(conversation.reader(), conversation.contact()),
+                        conversation.reader(), conversation.contact(), read.getValue(), now});
+            }
+        }
+        if (upserts.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate(UPSERT_SQL, upserts);
+        } catch (Exception e) {
+            // Read state is advisory; the client sends a newer position the next time it shows the conversation
+            logger.error("Failed to write {} read positions: {}", upserts.size(), e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flushReads();
+    }
+
+    private record Conversation(String reader, String contact) {
+    }
+}
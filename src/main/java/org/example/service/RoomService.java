@@ -0,0 +1,155 @@
+package org.example.service;
+
+import org.example.entity.Room;
+import org.example.entity.RoomMembership;
+import org.example.entity.RoomMessage;
+import org.example.repository.RoomMembershipRepository;
+import org.example.repository.RoomMessageRepository;
+import org.example.repository.RoomRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Rooms, their members and their messages. A room message is stored once; what each member has
+// received is tracked by the cursor on their membership, advanced by MessageWriter as acks come in.
+@Service
+public class RoomService {
+
+    private final RoomRepository roomRepository;
+    private final RoomMembershipRepository membershipRepository;
+    private final RoomMessageRepository roomMessageRepository;
+    private final MessageIdAllocator messageIdAllocator;
+    private final MessageWriter messageWriter;
+    private final long memberCacheTtlNanos;
+
+    // Member lists looked up on every room_chat. Joins and leaves on this node update it at once;
+    // the TTL bounds how long a membership change made on another node goes unnoticed.
+    private final Map<Long, CachedMembers> memberCache = new ConcurrentHashMap<>();
+
+    public RoomService(RoomRepository roomRepository, RoomMembershipRepository membershipRepository,
+                       RoomMessageRepository roomMessageRepository, MessageIdAllocator messageIdAllocator,
+                       MessageWriter messageWriter,
+                       @Value("${chat.rooms.member-cache-ttl-ms:5000}") long memberCacheTtlMs) {
+        this.roomRepository = roomRepository;
+        this.membershipRepository = membershipRepository;
+        this.roomMessageRepository = roomMessageRepository;
+        this.messageIdAllocator = messageIdAllocator;
+        this.messageWriter = messageWriter;
+        this.memberCacheTtlNanos = TimeUnit.MILLISECONDS.toNanos(memberCacheTtlMs);
+    }
+
+    // The creator becomes the first member
+    public Room createRoom(String name, String createdBy) {
+        if (roomRepository.existsByName(name)) {
+            throw new IllegalArgumentException("Room name already exists");
+        }
+        Room room;
+        try {
+            room = roomRepository.save(new Room(name, createdBy));
+        } catch (DataIntegrityViolationException e) {
+            // Lost a race with a concurrent create of the same name
+            throw new IllegalArgumentException("Room name already exists");
+        }
+        join(room.getId(), createdBy);
+        return room;
+    }
+
+    // New members start at the room's latest message: earlier messages are available as history,
+    // they are not replayed as a backlog. Joining twice is a no-op.
+    public RoomMembership join(Long roomId, String username) {
+        if (!roomRepository.existsById(roomId)) {
+            throw new IllegalArgumentException("Room not found");
+        }
+        RoomMembership membership = membershipRepository.findById(RoomMembership.membershipId(roomId, username))
+                .orElseGet(() -> membershipRepository.save(
+                        new RoomMembership(roomId, username, roomMessageRepository.findLatestId(roomId))));
+        memberCache.remove(roomId);
+        return membership;
+    }
+
+    public void leave(Long roomId, String username) {
+        membershipRepository.deleteById(RoomMembership.membershipId(roomId, username));
+        memberCache.remove(roomId);
+    }
+
+    public Set<String> getMembers(Long roomId) {
+        long now = System.nanoTime();
+        CachedMembers cached = memberCache.get(roomId);
+        if (cached == null || now - cached.loadedAt() > memberCacheTtlNanos) {
+            cached = new CachedMembers(Set.copyOf(membershipRepository.findUsernamesByRoomId(roomId)), now);
+            memberCache.put(roomId, cached);
+        }
+        return cached.usernames();
+    }
+
+    public boolean isMember(Long roomId, String username) {
+        return getMembers(roomId).contains(username);
+    }
+
+    public List<Room> getRooms(String username) {
+        List<Long> roomIds = getMemberships(username).stream().map(RoomMembership::getRoomId).toList();
+        return roomRepository.findAllById(roomIds);
+    }
+
+    public List<RoomMembership> getMemberships(String username) {
+        return membershipRepository.findByUsername(username);
+    }
+
+    // Same id sequence as direct messages, so one cumulative ack from the client covers both
+    public RoomMessage createRoomMessage(Long roomId, String senderUsername, String content) {
+        RoomMessage message = new RoomMessage(roomId, senderUsername, content);
+        message.setId(messageIdAllocator.nextId());
+        return message;
+    }
+
+    // Written once through the write-behind queue, whatever the size of the room. The id is settled with the
+    // allocator whichever way the write ends.
+    public void saveRoomMessage(RoomMessage message, Consumer<RoomMessage> onPersisted, Consumer<Exception> onFailed) {
+        try {
+            messageWriter.submitRoomMessage(message, persisted -> {
+                messageIdAllocator.settle(persisted.getId());
+                onPersisted.accept(persisted);
+            }, failure -> {
+                messageIdAllocator.settle(message.getId());
+                onFailed.accept(failure);
+            });
+        } catch (RejectedExecutionException e) {
+            messageIdAllocator.settle(message.getId());
+            throw e;
+        }
+    }
+
+    // Catch-up page for a member: room messages after their cursor, oldest first
+    public List<RoomMessage> getRoomMessagesAfter(Long roomId, long afterId, int limit) {
+        return roomMessageRepository.findByRoomIdAndIdGreaterThanOrderByIdAsc(roomId, afterId, Limit.of(limit));
+    }
+
+    // Gap fill page over the given rooms: messages with ids in (afterId, upTo], oldest first
+    public List<RoomMessage> getRoomMessagesBetween(Collection<Long> roomIds, long afterId, long upTo, int limit) {
+        return roomMessageRepository.findByRoomIdInAndIdGreaterThanAndIdLessThanEqualOrderByIdAsc(
+                roomIds, afterId, upTo, Limit.of(limit));
+    }
+
+    // Returns up to limit messages older than the "before" id, newest first
+    public List<RoomMessage> getRoomHistory(Long roomId, long before, int limit) {
+        return roomMessageRepository.findByRoomIdAndIdLessThanOrderByIdDesc(roomId, before, Limit.of(limit));
+    }
+
+    // The member has received every message of the room up to and including upTo
+    public void markRoomDelivered(Long roomId, String username, long upTo) {
+        messageWriter.submitRoomCursor(roomId, username, upTo);
+    }
+
+    private record CachedMembers(Set<String> usernames, long loadedAt) {
+    }
+}
@@ -0,0 +1,11 @@
+package org.example.service;
+
+import org.example.entity.User;
+
+// Immutable copy of a users row, safe to share from the user cache
+public record UserAccount(Long id, String username, String password) {
+
+    static UserAccount of(User user) {
+        return new UserAccount(user.getId(), user.getUsername(), user.getPassword());
+    }
+}
@@ -0,0 +1,131 @@
+package org.example.service;
+
+import jakarta.annotation.PreDestroy;
+import org.example.entity.User;
+import org.example.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Users by username, kept in a bounded LRU cache in front of the users table. Registration writes through,
+// and login times are collected in memory and written in one batch UPDATE every flush interval.
+@Component
+public class UserDirectory {
+
+    Logger logger = LoggerFactory.getLogger(UserDirectory.class);
+
+    private final UserRepository userRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final int cacheSize;
+
+    // A lock rather than synchronized, so a cache miss loading from the database never pins a virtual thread
+    private final ReentrantLock cacheLock = new ReentrantLock();
+    private final Map<String, UserAccount> cache;
+
+    // Latest login per user not yet written; a user logging in twice between flushes costs one row update
+    private final Map<String, LocalDateTime> pendingLogins = new ConcurrentHashMap<>();
+
+    public UserDirectory(UserRepository userRepository, JdbcTemplate jdbcTemplate,
+                         @Value("${chat.users.cache-size:10000}") int cacheSize) {
+        this.userRepository = userRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.cacheSize = cacheSize;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UserAccount> eldest) {
+                return size() > UserDirectory.this.cacheSize;
+            }
+        };
+    }
+
+    public Optional<UserAccount> find(String username) {
+        UserAccount cached = cached(username);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        // Misses are not cached: the name may be registered on another node a moment later
+        Optional<UserAccount> loaded = userRepository.findByUsername(username).map(UserAccount::of);
+        loaded.ifPresent(this::put);
+        return loaded;
+    }
+
+    // Throws IllegalArgumentException if the username is taken
+    public UserAccount register(String username, String password) {
+        if (cached(username) != null || userRepository.existsByUsername(username)) {
+            throw new IllegalArgumentException("Username already exists");
+        }
+        UserAccount account;
+        try {
+            account = UserAccount.of(userRepository.save(new User(username, password)));
+        } catch (DataIntegrityViolationException e) {
+            // Lost a race with a concurrent registration of the same name
+            throw new IllegalArgumentException("Username already exists");
+        }
+        put(account);
+        return account;
+    }
+
+    public void recordLogin(String username) {
+        pendingLogins.put(username, LocalDateTime.now());
+    }
+
+    @Scheduled(fixedDelayString = "${chat.users.last-login-flush-ms:5000}")
+    public void flushLogins() {
+        List<Object[]> updates = new ArrayList<>();
+        Iterator<Map.Entry<String, LocalDateTime>> iterator = pendingLogins.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, LocalDateTime> login = iterator.next();
+            // remove(key, value) keeps a login recorded while this flush was running for the next one
+            if (pendingLogins.remove(login.getKey(), login.getValue())) {
+                updates.add(new Object[]{Timestamp.valueOf(login.getValue()), login.getKey()});
+            }
+        }
+        if (updates.isEmpty()) {
+            return;
+        }
+        // Usernames that were never registered simply match no row
+        try {
+            jdbcTemplate.batchUpdate("UPDATE users SET last_login = ? WHERE username = ?", updates);
+        } catch (Exception e) {
+            logger.error("Failed to write {} login times: {}", updates.size(), e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flushLogins();
+    }
+
+    private UserAccount cached(String username) {
+        cacheLock.lock();
+        try {
+            return cache.get(username);
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    private void put(UserAccount account) {
+        cacheLock.lock();
+        try {
+            cache.put(account.username(), account);
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+}
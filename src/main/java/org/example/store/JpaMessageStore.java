@@ -0,0 +1,85 @@
+package org.example.store;
+
+import org.example.entity.ConversationSummary;
+import org.example.entity.Message;
+import org.example.repository.MessageRepository;
+import org.example.service.ConversationSummaryService;
+import org.example.service.MessageWriter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Messages in the messages table, written in batches through MessageWriter
+@Component
+@ConditionalOnProperty(name = "chat.storage.engine", havingValue = "jpa", matchIfMissing = true)
+public class JpaMessageStore implements MessageStore {
+
+    private final MessageRepository messageRepository;
+    private final MessageWriter messageWriter;
+    private final ConversationSummaryService conversationSummaryService;
+
+    public JpaMessageStore(MessageRepository messageRepository, MessageWriter messageWriter,
+                           ConversationSummaryService conversationSummaryService) {
+        this.messageRepository = messageRepository;
+        this.messageWriter = messageWriter;
+        this.conversationSummaryService = conversationSummaryService;
+    }
+
+    @Override
+    public void save(Message message, Consumer<Message> onPersisted, Consumer<Exception> onFailed) {
+        messageWriter.submit(message, onPersisted, onFailed);
+    }
+
+    @Override
+    public void markDelivered(Collection<Long> messageIds, Runnable onApplied) {
+        messageWriter.submitDelivered(messageIds, onApplied);
+    }
+
+    @Override
+    public boolean flush(long timeoutMs) {
+        return messageWriter.flush(timeoutMs);
+    }
+
+    @Override
+    public List<Message> findByRecipientAfter(String recipientUsername, long afterId, int limit) {
+        return messageRepository.findByRecipientUsernameAndIdGreaterThanOrderByIdAsc(
+                recipientUsername, afterId, Limit.of(limit));
+    }
+
+    @Override
+    public Long findOldestUndeliveredId(String recipientUsername) {
+        return messageRepository.findOldestUndeliveredId(recipientUsername);
+    }
+
+    @Override
+    public long findLatestIdByRecipient(String recipientUsername) {
+        return messageRepository.findLatestIdByRecipient(recipientUsername);
+    }
+
+    @Override
+    public List<Message> findConversationBefore(String conversationKey, long before, int limit) {
+        return messageRepository.findByConversationKeyAndIdLessThanOrderByIdDesc(
+                conversationKey, before, Limit.of(limit));
+    }
+
+    @Override
+    public List<ConversationSummary> getSummaries(String ownerUsername) {
+        return conversationSummaryService.getSummaries(ownerUsername);
+    }
+
+    @Override
+    public List<Message> findByIds(String conversationKey, Collection<Long> ids) {
+        return messageRepository.findAllById(ids).stream()
+                .filter(message -> message.getConversationKey().equals(conversationKey))
+                .toList();
+    }
+
+    @Override
+    public List<Message> findAfter(long afterId, int limit) {
+        return messageRepository.findByIdGreaterThanOrderByIdAsc(afterId, Limit.of(limit));
+    }
+}
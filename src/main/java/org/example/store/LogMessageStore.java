@@ -0,0 +1,602 @@
+package org.example.store;
+
+import org.example.entity.ConversationSummary;
+import org.example.entity.Message;
+import org.example.metrics.ChatMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Direct messages in a segmented append-only log on local disk instead of the messages table. A single writer
+// thread appends every queued message and delivery mark to the memory-mapped current segment and forces the
+// written range once per batch (group commit), and only then publishes the new records to readers and fires
+// the persisted callbacks. Lookups go through in-memory indexes from id to log position, one per recipient for
+// device sync and one per conversation for history; they, the delivery state and the conversation summaries
+// are rebuilt by replaying the log on startup. Single node only: other nodes cannot read this node's log.
+@Component
+@ConditionalOnProperty(name = "chat.storage.engine", havingValue = "log")
+public class LogMessageStore implements MessageStore, SmartLifecycle {
+
+    Logger logger = LoggerFactory.getLogger(LogMessageStore.class);
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte MESSAGE_RECORD = 1;
+    private static final byte DELIVERED_RECORD = 2;
+    // Keeps a delivery record small next to any sensible segment size
+    private static final int MAX_IDS_PER_RECORD = 1000;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final JdbcTemplate jdbcTemplate;
+    private final ChatMetrics metrics;
+    private final BlockingQueue<PendingWrite> queue;
+    private final int flushSize;
+    private final long flushIntervalMs;
+    private final long offerTimeoutMs;
+
+    // Segment number is the position in this list
+    private final List<LogSegment> segments = new CopyOnWriteArrayList<>();
+    // Log positions, packed as segment number << 32 | offset, by message id
+    private final Map<String, RecipientIndex> recipients = new ConcurrentHashMap<>();
+    private final Map<String, NavigableMap<Long, Long>> conversations = new ConcurrentHashMap<>();
+    // Who sent and received each undelivered message, so a delivery record of bare ids can be applied
+    private final Map<Long, Undelivered> undelivered = new ConcurrentHashMap<>();
+    // Owner to contact to summary; entities used as plain objects here, never persisted
+    private final Map<String, Map<String, ConversationSummary>> summaries = new HashMap<>();
+    private final ReentrantLock summaryLock = new ReentrantLock();
+
+    private volatile boolean running;
+    private Thread writerThread;
+
+    public LogMessageStore(@Value("${chat.storage.log.dir:./data/log}") Path directory,
+                           @Value("${chat.storage.log.segment-size-bytes:67108864}") int segmentSize,
+                           JdbcTemplate jdbcTemplate,
+                           ChatMetrics metrics,
+                           @Value("${chat.persistence.queue-capacity:10000}") int queueCapacity,
+                           @Value("${chat.persistence.flush-size:200}") int flushSize,
+                           @Value("${chat.persistence.flush-interval-ms:20}") long flushIntervalMs,
+                           @Value("${chat.persistence.offer-timeout-ms:100}") long offerTimeoutMs) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.jdbcTemplate = jdbcTemplate;
+        this.metrics = metrics;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flushSize = flushSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.offerTimeoutMs = offerTimeoutMs;
+        metrics.gauge("chat.storage.log.queue.depth", "Writes queued for the message log writer", queue::size);
+        metrics.gauge("chat.storage.log.segments", "Segment files of the message log", segments::size);
+    }
+
+    @Override
+    public void save(Message message, Consumer<Message> onPersisted, Consumer<Exception> onFailed) {
+        if (!running) {
+            throw new RejectedExecutionException("Message log is not running");
+        }
+        if (!offer(new PendingAppend(message, onPersisted, onFailed, System.nanoTime()))) {
+            throw new RejectedExecutionException("Message queue is full");
+        }
+    }
+
+    @Override
+    public void markDelivered(Collection<Long> messageIds, Runnable onApplied) {
+        if (!offer(new PendingDelivered(List.copyOf(messageIds), onApplied, System.nanoTime()))) {
+            logger.warn("Message queue is full, delivery mark for {} messages dropped", messageIds.size());
+        }
+    }
+
+    @Override
+    public boolean flush(long timeoutMs) {
+        if (!running) {
+            return queue.isEmpty();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        CountDownLatch flushed = new CountDownLatch(1);
+        try {
+            return queue.offer(new PendingFlush(flushed), timeoutMs, TimeUnit.MILLISECONDS)
+                    && flushed.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public List<Message> findByRecipientAfter(String recipientUsername, long afterId, int limit) {
+        RecipientIndex index = recipients.get(recipientUsername);
+        return index == null ? List.of() : read(index.positions().tailMap(afterId, false).values(), limit);
+    }
+
+    @Override
+    public Long findOldestUndeliveredId(String recipientUsername) {
+        RecipientIndex index = recipients.get(recipientUsername);
+        return index == null || index.undelivered().isEmpty() ? null : index.undelivered().first();
+    }
+
+    @Override
+    public long findLatestIdByRecipient(String recipientUsername) {
+        RecipientIndex index = recipients.get(recipientUsername);
+        return index == null || index.positions().isEmpty() ? 0 : index.positions().lastKey();
+    }
+
+    @Override
+    public List<Message> findConversationBefore(String conversationKey, long before, int limit) {
+        NavigableMap<Long, Long> positions = conversations.get(conversationKey);
+        return positions == null
+                ? List.of()
+                : read(positions.headMap(before, false).descendingMap().values(), limit);
+    }
+
+    @Override
+    public List<ConversationSummary> getSummaries(String ownerUsername) {
+        summaryLock.lock();
+        try {
+            return summaries.getOrDefault(ownerUsername, Map.of()).values().stream()
+                    .map(summary -> new ConversationSummary(summary.getId(), summary.getOwnerUsername(),
+                            summary.getContactUsername(), summary.getLastMessageId(), summary.getLastMessageSender(),
+                            summary.getLastPreview(), summary.getLastTime(), summary.getUnreadCount()))
+                    .sorted(Comparator.comparing(ConversationSummary::getLastMessageId).reversed())
+                    .toList();
+        } finally {
+            summaryLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Message> findByIds(String conversationKey, Collection<Long> ids) {
+        NavigableMap<Long, Long> positions = conversations.getOrDefault(conversationKey, Collections.emptyNavigableMap());
+        List<Message> messages = new ArrayList<>();
+        for (Long id : ids) {
+            Long position = positions.get(id);
+            if (position != null) {
+                messages.add(readMessage(position));
+            }
+        }
+        return messages;
+    }
+
+    // There is no index by id across conversations, so this merges the conversations' position maps, keeping the
+    // lowest limit ids seen. Each map is left as soon as its ids pass the highest one kept.
+    @Override
+    public List<Message> findAfter(long afterId, int limit) {
+        TreeMap<Long, Long> page = new TreeMap<>();
+        for (NavigableMap<Long, Long> positions : conversations.values()) {
+            for (Map.Entry<Long, Long> entry : positions.tailMap(afterId, false).entrySet()) {
+                if (page.size() == limit && entry.getKey() > page.lastKey()) {
+                    break;
+                }
+                page.put(entry.getKey(), entry.getValue());
+                if (page.size() > limit) {
+                    page.pollLastEntry();
+                }
+            }
+        }
+        return read(page.values(), limit);
+    }
+
+    private List<Message> read(Collection<Long> positions, int limit) {
+        // positions is a skip list view, whose size() would walk it
+        List<Message> messages = new ArrayList<>();
+        for (long position : positions) {
+            if (messages.size() == limit) {
+                break;
+            }
+            messages.add(readMessage(position));
+        }
+        return messages;
+    }
+
+    // deliveredAt is in the log but not kept in memory, so messages read back carry only the delivered flag
+    private Message readMessage(long position) {
+        byte[] record = segments.get((int) (position >>> 32)).read((int) position);
+        try {
+            Message message = decodeMessage(new DataInputStream(new ByteArrayInputStream(record)));
+            message.setDelivered(!undelivered.containsKey(message.getId()));
+            return message;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean offer(PendingWrite write) {
+        try {
+            return queue.offer(write, offerTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void runWriter() {
+        List<PendingWrite> batch = new ArrayList<>(flushSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Whatever arrives within one flush interval shares the fsync
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < flushSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+                return;
+            } finally {
+                // After the force, or after the batch was dropped
+                for (PendingWrite write : batch) {
+                    if (write instanceof PendingFlush flush) {
+                        flush.flushed().countDown();
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        long start = System.nanoTime();
+        int firstSegment = segments.size() - 1;
+        int firstOffset = segments.get(firstSegment).writePosition();
+        List<Message> appended = new ArrayList<>();
+        List<Long> positions = new ArrayList<>();
+        List<Long> deliveredIds = new ArrayList<>();
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            for (PendingWrite write : batch) {
+                if (write instanceof PendingAppend append) {
+                    positions.add(append(encodeMessage(append.message())));
+                    appended.add(append.message());
+                } else if (write instanceof PendingDelivered delivered) {
+                    List<Long> ids = delivered.messageIds();
+                    for (int from = 0; from < ids.size(); from += MAX_IDS_PER_RECORD) {
+                        append(encodeDelivered(ids.subList(from, Math.min(from + MAX_IDS_PER_RECORD, ids.size())), now));
+                    }
+                    deliveredIds.addAll(ids);
+                }
+            }
+            // The group commit: one force for everything this batch wrote, across a segment roll if there was one
+            for (int number = firstSegment; number < segments.size(); number++) {
+                segments.get(number).force(number == firstSegment ? firstOffset : 0);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Dropping batch of {} operations after failed log write: {}", batch.size(), e.getMessage());
+            rollBack(firstSegment, firstOffset);
+            for (PendingWrite write : batch) {
+                if (write instanceof PendingAppend append) {
+                    notifyFailed(append, e);
+                }
+            }
+            return;
+        }
+
+        for (int i = 0; i < appended.size(); i++) {
+            index(appended.get(i), positions.get(i));
+        }
+        applyDelivered(deliveredIds);
+        metrics.flushed(start, batch.size());
+        for (PendingWrite write : batch) {
+            if (write instanceof PendingAppend append) {
+                metrics.saved(append.submittedNanos());
+                try {
+                    append.onPersisted().accept(append.message());
+                } catch (Exception e) {
+                    logger.error("Persisted callback failed for message {}: {}",
+                            append.message().getId(), e.getMessage());
+                }
+            } else if (write instanceof PendingDelivered delivered) {
+                metrics.deliveredMarked(delivered.submittedNanos());
+                notifyApplied(delivered.onApplied());
+            }
+        }
+    }
+
+    // Nothing of a dropped batch was acknowledged, so none of it may come back on recovery, and the next batch
+    // starts where this one did. Segments the batch rolled over to are emptied and stay in place for it.
+    private void rollBack(int firstSegment, int firstOffset) {
+        try {
+            for (int number = segments.size() - 1; number >= firstSegment; number--) {
+                segments.get(number).truncate(number == firstSegment ? firstOffset : 0);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to roll back the log after a dropped batch, recovery may restore it: {}",
+                    e.getMessage());
+        }
+    }
+
+    private void notifyFailed(PendingAppend append, Exception cause) {
+        try {
+            append.onFailed().accept(cause);
+        } catch (Exception e) {
+            logger.error("Failed callback failed for message {}: {}", append.message().getId(), e.getMessage());
+        }
+    }
+
+    private void notifyApplied(Runnable onApplied) {
+        try {
+            onApplied.run();
+        } catch (Exception e) {
+            logger.error("Delivered callback failed: {}", e.getMessage());
+        }
+    }
+
+    private long append(byte[] record) throws IOException {
+        if (LogSegment.HEADER_SIZE + record.length > segmentSize) {
+            throw new IOException("Record of " + record.length + " bytes does not fit in a log segment");
+        }
+        LogSegment segment = segments.get(segments.size() - 1);
+        if (!segment.hasRoomFor(record.length)) {
+            segment = openSegment(segments.size());
+        }
+        return ((long) segment.number() << 32) | segment.append(record);
+    }
+
+    private LogSegment openSegment(int number) throws IOException {
+        LogSegment segment = LogSegment.open(directory.resolve(String.format("%010d", number) + SEGMENT_SUFFIX),
+                number, segmentSize);
+        segments.add(segment);
+        return segment;
+    }
+
+    // Delivery state first, so a reader that finds the position never sees the message as delivered
+    private void index(Message message, long position) {
+        RecipientIndex recipient = recipients.computeIfAbsent(message.getRecipientUsername(),
+                username -> new RecipientIndex());
+        if (!message.isDelivered()) {
+            undelivered.put(message.getId(), new Undelivered(message.getSenderUsername(), message.getRecipientUsername()));
+            recipient.undelivered().add(message.getId());
+        }
+        recipient.positions().put(message.getId(), position);
+        conversations.computeIfAbsent(message.getConversationKey(), key -> new ConcurrentSkipListMap<>())
+                .put(message.getId(), position);
+
+        summaryLock.lock();
+        try {
+            summaryFor(message.getSenderUsername(), message.getRecipientUsername()).applyMessage(message);
+            ConversationSummary recipientSummary = summaryFor(message.getRecipientUsername(), message.getSenderUsername());
+            recipientSummary.applyMessage(message);
+            if (!message.isDelivered()) {
+                recipientSummary.setUnreadCount(recipientSummary.getUnreadCount() + 1);
+            }
+        } finally {
+            summaryLock.unlock();
+        }
+    }
+
+    private void applyDelivered(List<Long> messageIds) {
+        for (Long id : messageIds) {
+            Undelivered message = undelivered.remove(id);
+            if (message == null) {
+                continue;
+            }
+            recipients.get(message.recipient()).undelivered().remove(id);
+            summaryLock.lock();
+            try {
+                ConversationSummary summary = summaryFor(message.recipient(), message.sender());
+                summary.setUnreadCount(Math.max(0, summary.getUnreadCount() - 1));
+            } finally {
+                summaryLock.unlock();
+            }
+        }
+    }
+
+    // Caller holds summaryLock
+    private ConversationSummary summaryFor(String owner, String contact) {
+        return summaries.computeIfAbsent(owner, o -> new HashMap<>())
+                .computeIfAbsent(contact, c -> new ConversationSummary(owner, contact));
+    }
+
+    // Replays every segment in order. A torn tail only ever holds records whose batch was never acknowledged.
+    private long recover() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparing(Path::getFileName));
+
+        long maxId = 0;
+        long records = 0;
+        for (int number = 0; number < files.size(); number++) {
+            String name = files.get(number).getFileName().toString();
+            if (Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())) != number) {
+                throw new IllegalStateException("Message log segment " + number + " is missing in " + directory);
+            }
+            LogSegment segment = openSegment(number);
+            for (int offset : segment.recover()) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(segment.read(offset)));
+                byte type = in.readByte();
+                if (type == MESSAGE_RECORD) {
+                    Message message = decodeFields(in);
+                    index(message, ((long) number << 32) | offset);
+                    maxId = Math.max(maxId, message.getId());
+                } else if (type == DELIVERED_RECORD) {
+                    in.readLong();
+                    in.readInt();
+                    int count = in.readInt();
+                    List<Long> ids = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        ids.add(in.readLong());
+                    }
+                    applyDelivered(ids);
+                }
+                records++;
+            }
+        }
+        if (segments.isEmpty()) {
+            openSegment(0);
+        }
+        logger.info("Recovered message log: {} records in {} segments, {} undelivered messages",
+                records, segments.size(), undelivered.size());
+        return maxId;
+    }
+
+    // The messages_seq of a fresh in-memory database starts over at 1, below ids already in the log
+    private void advanceIdSequence(long maxId) {
+        if (maxId == 0) {
+            return;
+        }
+        Long next = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR messages_seq", Long.class);
+        if (next != null && next <= maxId) {
+            jdbcTemplate.execute("ALTER SEQUENCE messages_seq RESTART WITH " + (maxId + 1));
+        }
+    }
+
+    private static byte[] encodeMessage(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + message.getContent().length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MESSAGE_RECORD);
+        out.writeLong(message.getId());
+        out.writeUTF(message.getSenderUsername());
+        out.writeUTF(message.getRecipientUsername());
+        out.writeUTF(message.getContent());
+        out.writeLong(message.getSentAt().toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(message.getSentAt().getNano());
+        out.writeBoolean(message.isDelivered());
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeDelivered(List<Long> ids, LocalDateTime deliveredAt) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(17 + ids.size() * 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(DELIVERED_RECORD);
+        out.writeLong(deliveredAt.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(deliveredAt.getNano());
+        out.writeInt(ids.size());
+        for (long id : ids) {
+            out.writeLong(id);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Message decodeMessage(DataInputStream in) throws IOException {
+        if (in.readByte() != MESSAGE_RECORD) {
+            throw new IOException("Not a message record");
+        }
+        return decodeFields(in);
+    }
+
+    private static Message decodeFields(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        Message message = new Message(in.readUTF(), in.readUTF(), in.readUTF());
+        message.setId(id);
+        message.setSentAt(LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC));
+        message.setDelivered(in.readBoolean());
+        return message;
+    }
+
+    @Override
+    public void start() {
+        long started = System.nanoTime();
+        try {
+            advanceIdSequence(recover());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to recover message log in " + directory, e);
+        }
+        logger.info("Message log ready in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        running = true;
+        writerThread = new Thread(this::runWriter, "message-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void stop() {
+        // Stop accepting new messages and let the writer drain what is already queued
+        running = false;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (LogSegment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close log segment {}: {}", segment.number(), e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        // Same phase as MessageWriter: after the web server on shutdown, before it on startup
+        return 0;
+    }
+
+    private record RecipientIndex(NavigableMap<Long, Long> positions, NavigableSet<Long> undelivered) {
+        RecipientIndex() {
+            this(new ConcurrentSkipListMap<>(), new ConcurrentSkipListSet<>());
+        }
+    }
+
+    private record Undelivered(String sender, String recipient) {
+    }
+
+    private sealed interface PendingWrite permits PendingAppend, PendingDelivered, PendingFlush {
+    }
+
+    private record PendingAppend(Message message, Consumer<Message> onPersisted, Consumer<Exception> onFailed,
+                                 long submittedNanos) implements PendingWrite {
+    }
+
+    private record PendingDelivered(List<Long> messageIds, Runnable onApplied, long submittedNanos)
+            implements PendingWrite {
+    }
+
+    private record PendingFlush(CountDownLatch flushed) implements PendingWrite {
+    }
+}
@@ -0,0 +1,122 @@
+package org.example.store;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// One file of the message log, mapped into memory at its full size up front. Records are framed as
+// [int length][int crc][length bytes], and a zero length marks the end of what was written, which is why
+// the file is preallocated with zeros. Only the writer thread appends; readers use absolute reads of
+// ranges that were forced before their offsets were published.
+class LogSegment {
+
+    static final int HEADER_SIZE = 8;
+
+    private final int number;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int writePosition;
+
+    private LogSegment(int number, FileChannel channel, MappedByteBuffer buffer) {
+        this.number = number;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static LogSegment open(Path file, int number, int size) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // An existing segment keeps its own size if the configured one changed since it was created
+        long mappedSize = Math.max(channel.size(), size);
+        return new LogSegment(number, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, mappedSize));
+    }
+
+    int number() {
+        return number;
+    }
+
+    int writePosition() {
+        return writePosition;
+    }
+
+    boolean hasRoomFor(int payloadLength) {
+        return writePosition + HEADER_SIZE + payloadLength <= buffer.capacity();
+    }
+
+    // Returns the offset of the record; durable only after force()
+    int append(byte[] payload) {
+        int offset = writePosition;
+        buffer.putInt(offset + 4, crc(payload, 0, payload.length));
+        buffer.put(offset + HEADER_SIZE, payload);
+        // Length last: a record whose length is visible has its body in place
+        buffer.putInt(offset, payload.length);
+        writePosition = offset + HEADER_SIZE + payload.length;
+        return offset;
+    }
+
+    void force(int from) {
+        if (writePosition > from) {
+            buffer.force(from, writePosition - from);
+        }
+    }
+
+    // Takes back everything appended from offset on, for a batch that failed before it was acknowledged. The
+    // range is zeroed and forced rather than only cut at its first record: later appends may end exactly where
+    // one of the dropped records starts, which would then pass its checksum on recovery.
+    void truncate(int offset) {
+        if (writePosition > offset) {
+            buffer.put(offset, new byte[writePosition - offset]);
+            buffer.force(offset, writePosition - offset);
+        }
+        writePosition = offset;
+    }
+
+    byte[] read(int offset) {
+        byte[] payload = new byte[buffer.getInt(offset)];
+        buffer.get(offset + HEADER_SIZE, payload);
+        return payload;
+    }
+
+    // Walks the records from the start and stops at the first zero length, truncated record or checksum
+    // mismatch, which is where a crash cut the last group commit short. New records overwrite the remains
+    // of the torn one, and any of it left beyond them fails its checksum again on the next recovery.
+    // Returns the offsets of the valid records.
+    int[] recover() {
+        int[] offsets = new int[64];
+        int count = 0;
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(position + HEADER_SIZE, payload);
+            if (crc(payload, 0, length) != buffer.getInt(position + 4)) {
+                break;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = position;
+            position += HEADER_SIZE + length;
+        }
+        writePosition = position;
+        return Arrays.copyOf(offsets, count);
+    }
+
+    void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
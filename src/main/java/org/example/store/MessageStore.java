@@ -0,0 +1,46 @@
+package org.example.store;
+
+import org.example.entity.ConversationSummary;
+import org.example.entity.Message;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Where direct messages, their delivery state and the per-user conversation summaries are kept.
+// Selected with chat.storage.engine: "jpa" (default) or "log". Rooms, users and cursors stay in JPA either way.
+public interface MessageStore {
+
+    // onPersisted fires once the message is durable, onFailed if its write failed and it was dropped; one of the
+    // two fires for every message accepted. Throws RejectedExecutionException under backpressure.
+    void save(Message message, Consumer<Message> onPersisted, Consumer<Exception> onFailed);
+
+    // Applied after the messages' own writes; ids that are unknown or already delivered are ignored.
+    // onApplied fires once the marks are durable; not at all if they are dropped.
+    void markDelivered(Collection<Long> messageIds, Runnable onApplied);
+
+    // Blocks until every save and mark submitted before the call is durable or has been dropped. Returns false if
+    // that takes longer than timeoutMs.
+    boolean flush(long timeoutMs);
+
+    // Messages to the recipient with ids greater than afterId, oldest first
+    List<Message> findByRecipientAfter(String recipientUsername, long afterId, int limit);
+
+    Long findOldestUndeliveredId(String recipientUsername);
+
+    // 0 when the user has never received a message
+    long findLatestIdByRecipient(String recipientUsername);
+
+    // Messages of the conversation with ids less than before, newest first
+    List<Message> findConversationBefore(String conversationKey, long before, int limit);
+
+    // The owner's conversations, most recent first
+    List<ConversationSummary> getSummaries(String ownerUsername);
+
+    // Messages of the conversation with the given ids, in no particular order; ids not in the store are skipped
+    List<Message> findByIds(String conversationKey, Collection<Long> ids);
+
+    // Messages of all conversations with ids greater than afterId, oldest first. A full scan in keyset pages,
+    // meant for rebuilding derived indexes, not for request paths.
+    List<Message> findAfter(long afterId, int limit);
+}
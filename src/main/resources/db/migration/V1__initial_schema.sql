@@ -0,0 +1,141 @@
+-- Schema of the prod profile, where Flyway owns the schema and Hibernate only maps it. Generated from the
+-- entities, so a change to an entity needs a new migration here; the default profile keeps using ddl-auto.
+
+-- Message ids are allocated in blocks of 50 by MessageIdAllocator
+create sequence messages_seq start with 1 increment by 50;
+
+create table cluster_outbox (
+    id bigint generated by default as identity,
+    message_id bigint,
+    room_id bigint,
+    frame_type varchar(32),
+    payload varchar(100000) not null,
+    target_node varchar(255) not null,
+    target_user varchar(255),
+    primary key (id)
+);
+
+create table conversation_summary (
+    unread_count integer not null,
+    last_message_id bigint not null,
+    last_time timestamp(6) not null,
+    last_preview varchar(200) not null,
+    id varchar(520) not null,
+    contact_username varchar(255) not null,
+    last_message_sender varchar(255) not null,
+    owner_username varchar(255) not null,
+    primary key (id)
+);
+
+create table device_cursors (
+    last_acked_id bigint not null,
+    last_seen_at timestamp(6) not null,
+    id varchar(520) not null,
+    device_id varchar(255) not null,
+    username varchar(255) not null,
+    primary key (id)
+);
+
+create table messages (
+    delivered boolean not null,
+    delivered_at timestamp(6),
+    id bigint not null,
+    sent_at timestamp(6) not null,
+    conversation_key varchar(520) not null,
+    content varchar(1000) not null,
+    recipient_username varchar(255) not null,
+    sender_username varchar(255) not null,
+    primary key (id)
+);
+
+create table read_cursors (
+    last_read_id bigint not null,
+    updated_at timestamp(6) not null,
+    id varchar(520) not null,
+    contact_username varchar(255) not null,
+    reader_username varchar(255) not null,
+    primary key (id)
+);
+
+create table room_memberships (
+    joined_after_id bigint not null,
+    joined_at timestamp(6) not null,
+    last_delivered_id bigint not null,
+    room_id bigint not null,
+    id varchar(300) not null,
+    username varchar(255) not null,
+    primary key (id)
+);
+
+create table room_messages (
+    id bigint not null,
+    room_id bigint not null,
+    sent_at timestamp(6) not null,
+    content varchar(1000) not null,
+    sender_username varchar(255) not null,
+    primary key (id)
+);
+
+create table rooms (
+    created_at timestamp(6) not null,
+    id bigint generated by default as identity,
+    created_by varchar(255) not null,
+    name varchar(255) not null unique,
+    primary key (id)
+);
+
+create table session_registry (
+    heartbeat_at timestamp(6) not null,
+    id varchar(520) not null,
+    node_id varchar(255) not null,
+    username varchar(255) not null,
+    primary key (id)
+);
+
+create table users (
+    created_at timestamp(6),
+    id bigint generated by default as identity,
+    last_login timestamp(6),
+    password varchar(255) not null,
+    username varchar(255) not null unique,
+    primary key (id)
+);
+
+create index idx_cluster_outbox_node
+    on cluster_outbox (target_node, id);
+
+create index idx_conversation_summary_owner
+    on conversation_summary (owner_username, last_message_id);
+
+create index idx_device_cursors_user
+    on device_cursors (username);
+
+create index idx_messages_conversation
+    on messages (conversation_key, id);
+
+create index idx_messages_undelivered
+    on messages (recipient_username, delivered, id);
+
+create index idx_messages_recipient
+    on messages (recipient_username, id);
+
+create index idx_read_cursors_reader
+    on read_cursors (reader_username);
+
+create index idx_read_cursors_contact
+    on read_cursors (contact_username);
+
+create index idx_room_memberships_room
+    on room_memberships (room_id);
+
+create index idx_room_memberships_user
+    on room_memberships (username);
+
+create index idx_room_messages_room
+    on room_messages (room_id, id);
+
+create index idx_session_registry_node
+    on session_registry (node_id);
+
+create index idx_session_registry_user
+    on session_registry (username);
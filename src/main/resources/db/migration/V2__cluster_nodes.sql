@@ -0,0 +1,7 @@
+-- Nodes are live by their own heartbeat, not by the sessions they hold
+
+create table cluster_nodes (
+    heartbeat_at timestamp(6) not null,
+    node_id varchar(255) not null,
+    primary key (node_id)
+);
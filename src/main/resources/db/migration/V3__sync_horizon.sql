@@ -0,0 +1,5 @@
+-- Device sync below the cluster's id horizon, with the acknowledged ids above it kept per device
+
+alter table cluster_nodes add column id_floor bigint default 0 not null;
+
+alter table device_cursors add column acked_above varchar(4000);
@@ -0,0 +1,2 @@
+-- Message ids are allocated in blocks of 50 by MessageIdAllocator
+CREATE SEQUENCE IF NOT EXISTS messages_seq START WITH 1 INCREMENT BY 50;